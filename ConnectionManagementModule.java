@@ -2,12 +2,53 @@ package processvisualization;
 
 import java.awt.*;
 import java.awt.geom.*;
+import java.util.*;
+import java.util.List;
 
 /**
  * Module 3: Connection Management
  * Handles creation and management of connections between nodes
  */
 public class ConnectionManagementModule {
+    /**
+     * Rules that can be switched on or off for connection validation
+     */
+    public enum ValidationRule {
+        NO_SELF_LOOPS,
+        NO_DUPLICATES,
+        NO_EDGES_INTO_START,
+        NO_EDGES_OUT_OF_END,
+        ACYCLIC
+    }
+    
+    private final EnumSet<ValidationRule> rules = EnumSet.of(
+        ValidationRule.NO_SELF_LOOPS,
+        ValidationRule.NO_DUPLICATES,
+        ValidationRule.NO_EDGES_INTO_START,
+        ValidationRule.NO_EDGES_OUT_OF_END
+    );
+    
+    // Dense index for every node that takes part in a registered connection
+    private final Map<NodeManagementModule.ProcessNode, Integer> nodeIndex = new IdentityHashMap<>();
+    private final List<NodeManagementModule.ProcessNode> indexedNodes = new ArrayList<>();
+    
+    // Multiplicity of every registered (source, destination) pair
+    private final Map<Long, Integer> edgeCounts = new HashMap<>();
+    
+    // Adjacency in both directions, one entry per distinct edge
+    private int[][] outEdges = new int[16][];
+    private int[] outSize = new int[16];
+    private int[][] inEdges = new int[16][];
+    private int[] inSize = new int[16];
+    
+    // Incremental topological order (Pearce-Kelly), valid only while ACYCLIC is enabled
+    private int[] ord = new int[16];
+    private int[] nodeAtOrd = new int[16];
+    private boolean[] visited = new boolean[16];
+    private final List<Integer> forwardRegion = new ArrayList<>();
+    private final List<Integer> backwardRegion = new ArrayList<>();
+    private final ArrayDeque<Integer> stack = new ArrayDeque<>();
+    
     /**
      * Represents a connection between two process nodes
      */
@@ -63,17 +104,59 @@ public class ConnectionManagementModule {
         }
     }
     
+    public boolean isRuleEnabled(ValidationRule rule) {
+        return rules.contains(rule);
+    }
+    
+    /**
+     * Enables or disables a validation rule.
+     * Enabling ACYCLIC rebuilds the topological order and fails if the registered
+     * connections already contain a cycle.
+     */
+    public void setRuleEnabled(ValidationRule rule, boolean enabled) {
+        if (!enabled) {
+            rules.remove(rule);
+            return;
+        }
+        if (rule == ValidationRule.ACYCLIC && !rules.contains(rule) && !rebuildTopologicalOrder()) {
+            throw new IllegalStateException("Existing connections contain a cycle");
+        }
+        rules.add(rule);
+    }
+    
     /**
      * Validates if a connection can be made between two nodes
      */
     public boolean validateConnection(NodeManagementModule.ProcessNode source, 
                                    NodeManagementModule.ProcessNode destination) {
         // Prevent self-connections
-        if (source == destination) {
+        if (rules.contains(ValidationRule.NO_SELF_LOOPS) && source == destination) {
+            return false;
+        }
+        
+        if (rules.contains(ValidationRule.NO_EDGES_INTO_START) && "Start".equals(destination.label)) {
+            return false;
+        }
+        
+        if (rules.contains(ValidationRule.NO_EDGES_OUT_OF_END) && "End".equals(source.label)) {
+            return false;
+        }
+        
+        Integer s = nodeIndex.get(source);
+        Integer d = nodeIndex.get(destination);
+        if (s == null || d == null) {
+            // A node without connections can neither duplicate an edge nor close a cycle
+            return !(rules.contains(ValidationRule.ACYCLIC) && source == destination);
+        }
+        
+        if (rules.contains(ValidationRule.NO_DUPLICATES) && edgeCounts.containsKey(edgeKey(s, d))) {
+            return false;
+        }
+        
+        if (rules.contains(ValidationRule.ACYCLIC) && wouldCreateCycle(s, d)) {
             return false;
         }
         
-        // Add any additional validation rules here
         return true;
     }
     
@@ -83,8 +166,340 @@ public class ConnectionManagementModule {
     public Connection createConnection(NodeManagementModule.ProcessNode source, 
                                     NodeManagementModule.ProcessNode destination) {
         if (validateConnection(source, destination)) {
+            registerEdge(indexOf(source), indexOf(destination));
             return new Connection(source, destination);
         }
         return null;
     }
+    
+    /**
+     * Forgets a connection created by this module
+     */
+    public void removeConnection(Connection connection) {
+        Integer s = nodeIndex.get(connection.getSource());
+        Integer d = nodeIndex.get(connection.getDestination());
+        if (s == null || d == null) {
+            return;
+        }
+        long key = edgeKey(s, d);
+        Integer count = edgeCounts.get(key);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            edgeCounts.put(key, count - 1);
+            return;
+        }
+        
+        // Removing an edge never invalidates a topological order
+        edgeCounts.remove(key);
+        removeAdjacent(outEdges, outSize, s, d);
+        removeAdjacent(inEdges, inSize, d, s);
+    }
+    
+    /**
+     * Forgets every connection touching the given node, and the node itself
+     */
+    public void removeNode(NodeManagementModule.ProcessNode node) {
+        Integer n = nodeIndex.get(node);
+        if (n == null) {
+            return;
+        }
+        for (int i = 0; i < outSize[n]; i++) {
+            int d = outEdges[n][i];
+            edgeCounts.remove(edgeKey(n, d));
+            if (d != n) {
+                removeAdjacent(inEdges, inSize, d, n);
+            }
+        }
+        for (int i = 0; i < inSize[n]; i++) {
+            int s = inEdges[n][i];
+            edgeCounts.remove(edgeKey(s, n));
+            if (s != n) {
+                removeAdjacent(outEdges, outSize, s, n);
+            }
+        }
+        
+        // Closing the gap in the order keeps it topological
+        int last = indexedNodes.size() - 1;
+        for (int position = ord[n] + 1; position <= last; position++) {
+            assignOrd(nodeAtOrd[position], position - 1);
+        }
+        
+        // The last index moves into the freed one, so indices stay dense
+        nodeIndex.remove(node);
+        if (n != last) {
+            moveIndex(last, n);
+        }
+        indexedNodes.remove(last);
+        outEdges[last] = null;
+        inEdges[last] = null;
+        outSize[last] = 0;
+        inSize[last] = 0;
+    }
+    
+    /**
+     * Nodes with connections in topological order, or null when ACYCLIC is disabled
+     */
+    public List<NodeManagementModule.ProcessNode> getTopologicalOrder() {
+        if (!rules.contains(ValidationRule.ACYCLIC)) {
+            return null;
+        }
+        List<NodeManagementModule.ProcessNode> order = new ArrayList<>(indexedNodes.size());
+        for (int i = 0; i < indexedNodes.size(); i++) {
+            order.add(indexedNodes.get(nodeAtOrd[i]));
+        }
+        return order;
+    }
+    
+    private int indexOf(NodeManagementModule.ProcessNode node) {
+        Integer existing = nodeIndex.get(node);
+        if (existing != null) {
+            return existing;
+        }
+        int n = indexedNodes.size();
+        if (n == ord.length) {
+            int capacity = n * 2;
+            outEdges = Arrays.copyOf(outEdges, capacity);
+            outSize = Arrays.copyOf(outSize, capacity);
+            inEdges = Arrays.copyOf(inEdges, capacity);
+            inSize = Arrays.copyOf(inSize, capacity);
+            ord = Arrays.copyOf(ord, capacity);
+            nodeAtOrd = Arrays.copyOf(nodeAtOrd, capacity);
+            visited = Arrays.copyOf(visited, capacity);
+        }
+        
+        // New nodes go to the end of the order, which keeps it valid
+        nodeIndex.put(node, n);
+        indexedNodes.add(node);
+        ord[n] = n;
+        nodeAtOrd[n] = n;
+        return n;
+    }
+    
+    /**
+     * Renumbers a node whose old index is about to be dropped, with its edges and order
+     */
+    private void moveIndex(int from, int to) {
+        NodeManagementModule.ProcessNode node = indexedNodes.get(from);
+        indexedNodes.set(to, node);
+        nodeIndex.put(node, to);
+        outEdges[to] = outEdges[from];
+        outSize[to] = outSize[from];
+        inEdges[to] = inEdges[from];
+        inSize[to] = inSize[from];
+        assignOrd(to, ord[from]);
+        
+        for (int i = 0; i < outSize[to]; i++) {
+            int d = outEdges[to][i];
+            if (d == from) {
+                // A self loop is renumbered at both ends here
+                outEdges[to][i] = to;
+                replaceAdjacent(inEdges, inSize, to, from, to);
+                edgeCounts.put(edgeKey(to, to), edgeCounts.remove(edgeKey(from, from)));
+            } else {
+                replaceAdjacent(inEdges, inSize, d, from, to);
+                edgeCounts.put(edgeKey(to, d), edgeCounts.remove(edgeKey(from, d)));
+            }
+        }
+        for (int i = 0; i < inSize[to]; i++) {
+            int s = inEdges[to][i];
+            if (s != to) {
+                replaceAdjacent(outEdges, outSize, s, from, to);
+                edgeCounts.put(edgeKey(s, to), edgeCounts.remove(edgeKey(s, from)));
+            }
+        }
+    }
+    
+    private void registerEdge(int s, int d) {
+        long key = edgeKey(s, d);
+        Integer count = edgeCounts.get(key);
+        if (count != null) {
+            edgeCounts.put(key, count + 1);
+            return;
+        }
+        edgeCounts.put(key, 1);
+        addAdjacent(outEdges, outSize, s, d);
+        addAdjacent(inEdges, inSize, d, s);
+        
+        if (rules.contains(ValidationRule.ACYCLIC) && ord[d] < ord[s]) {
+            reorder(s, d);
+        }
+    }
+    
+    private boolean wouldCreateCycle(int s, int d) {
+        if (s == d) {
+            return true;
+        }
+        if (ord[s] < ord[d]) {
+            return false;
+        }
+        boolean cycle = !collectForward(d, ord[s]);
+        clearVisited(forwardRegion);
+        return cycle;
+    }
+    
+    /**
+     * Pearce-Kelly reordering after inserting s -> d with ord[d] < ord[s].
+     * Only nodes whose order lies between ord[d] and ord[s] are visited.
+     */
+    private void reorder(int s, int d) {
+        int lower = ord[d];
+        int upper = ord[s];
+        collectForward(d, upper);
+        collectBackward(s, lower);
+        
+        // Nodes reaching s must now precede the nodes reachable from d
+        Comparator<Integer> byOrd = Comparator.comparingInt(n -> ord[n]);
+        forwardRegion.sort(byOrd);
+        backwardRegion.sort(byOrd);
+        
+        int[] slots = new int[forwardRegion.size() + backwardRegion.size()];
+        int i = 0;
+        for (int n : backwardRegion) {
+            slots[i++] = ord[n];
+        }
+        for (int n : forwardRegion) {
+            slots[i++] = ord[n];
+        }
+        Arrays.sort(slots);
+        
+        i = 0;
+        for (int n : backwardRegion) {
+            assignOrd(n, slots[i++]);
+        }
+        for (int n : forwardRegion) {
+            assignOrd(n, slots[i++]);
+        }
+        
+        clearVisited(forwardRegion);
+        clearVisited(backwardRegion);
+    }
+    
+    /**
+     * Collects nodes reachable from start with order up to the bound, false if the bound itself is reached
+     */
+    private boolean collectForward(int start, int upperBound) {
+        forwardRegion.clear();
+        stack.clear();
+        stack.push(start);
+        visited[start] = true;
+        while (!stack.isEmpty()) {
+            int n = stack.pop();
+            forwardRegion.add(n);
+            for (int i = 0; i < outSize[n]; i++) {
+                int next = outEdges[n][i];
+                if (ord[next] == upperBound) {
+                    return false;
+                }
+                if (!visited[next] && ord[next] < upperBound) {
+                    visited[next] = true;
+                    stack.push(next);
+                }
+            }
+        }
+        return true;
+    }
+    
+    private void collectBackward(int start, int lowerBound) {
+        backwardRegion.clear();
+        stack.clear();
+        stack.push(start);
+        visited[start] = true;
+        while (!stack.isEmpty()) {
+            int n = stack.pop();
+            backwardRegion.add(n);
+            for (int i = 0; i < inSize[n]; i++) {
+                int previous = inEdges[n][i];
+                if (!visited[previous] && ord[previous] > lowerBound) {
+                    visited[previous] = true;
+                    stack.push(previous);
+                }
+            }
+        }
+    }
+    
+    private void clearVisited(List<Integer> region) {
+        for (int n : region) {
+            visited[n] = false;
+        }
+        for (int n : stack) {
+            visited[n] = false;
+        }
+        stack.clear();
+    }
+    
+    private void assignOrd(int n, int position) {
+        ord[n] = position;
+        nodeAtOrd[position] = n;
+    }
+    
+    /**
+     * Recomputes the order from scratch (Kahn's algorithm), false if a cycle exists
+     */
+    private boolean rebuildTopologicalOrder() {
+        int n = indexedNodes.size();
+        int[] remaining = new int[n];
+        ArrayDeque<Integer> ready = new ArrayDeque<>();
+        for (int i = 0; i < n; i++) {
+            remaining[i] = inSize[i];
+            if (remaining[i] == 0) {
+                ready.add(i);
+            }
+        }
+        
+        int[] order = new int[n];
+        int position = 0;
+        while (!ready.isEmpty()) {
+            int node = ready.poll();
+            order[position++] = node;
+            for (int i = 0; i < outSize[node]; i++) {
+                int next = outEdges[node][i];
+                if (--remaining[next] == 0) {
+                    ready.add(next);
+                }
+            }
+        }
+        if (position < n) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            assignOrd(order[i], i);
+        }
+        return true;
+    }
+    
+    private static void addAdjacent(int[][] lists, int[] sizes, int n, int value) {
+        int[] list = lists[n];
+        if (list == null) {
+            list = lists[n] = new int[4];
+        } else if (sizes[n] == list.length) {
+            list = lists[n] = Arrays.copyOf(list, list.length * 2);
+        }
+        list[sizes[n]++] = value;
+    }
+    
+    private static void removeAdjacent(int[][] lists, int[] sizes, int n, int value) {
+        int[] list = lists[n];
+        for (int i = 0; i < sizes[n]; i++) {
+            if (list[i] == value) {
+                list[i] = list[--sizes[n]];
+                return;
+            }
+        }
+    }
+    
+    private static void replaceAdjacent(int[][] lists, int[] sizes, int n, int value, int replacement) {
+        int[] list = lists[n];
+        for (int i = 0; i < sizes[n]; i++) {
+            if (list[i] == value) {
+                list[i] = replacement;
+                return;
+            }
+        }
+    }
+    
+    private static long edgeKey(int s, int d) {
+        return ((long) s << 32) | (d & 0xFFFFFFFFL);
+    }
 }
@@ -0,0 +1,336 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Structural difference between two versions of a diagram.
+ *
+ * Nodes are paired by stable uid, and nodes without a partner are then paired by label and
+ * type with the nearest unpaired node within {@link #MATCH_RADIUS}. Connections are compared
+ * as a multiset of endpoint pairs (with their subprocess paths) after mapping uids through the
+ * node pairing. To stay near-linear on large diagrams both versions are first cut into
+ * {@link #REGION_SIZE} square regions with an order-independent hash of the nodes and outgoing
+ * connections in each; regions whose hashes agree are skipped without looking at their contents.
+ */
+final class DiagramDiff {
+    static final int REGION_SIZE = 1024;
+    static final int MATCH_RADIUS = 200;
+    private static final int HASH_WORDS = 3;
+
+    private DiagramDiff() {
+    }
+
+    /**
+     * Indexes into the two diagrams describing what changed
+     */
+    static final class Result {
+        /** After-node indexes with no counterpart */
+        final int[] added;
+        /** Before-node indexes with no counterpart */
+        final int[] removed;
+        /** After-node indexes whose position or size changed; see {@link #beforeOf} */
+        final int[] moved;
+        /** After-node indexes whose label or type changed */
+        final int[] relabelled;
+        final int[] addedEdges;
+        final int[] removedEdges;
+        /** Before-node index paired with each after node in a changed region, -1 otherwise */
+        final int[] beforeOf;
+        final int regions;
+        final int skippedRegions;
+
+        Result(int[] added, int[] removed, int[] moved, int[] relabelled, int[] addedEdges,
+               int[] removedEdges, int[] beforeOf, int regions, int skippedRegions) {
+            this.added = added;
+            this.removed = removed;
+            this.moved = moved;
+            this.relabelled = relabelled;
+            this.addedEdges = addedEdges;
+            this.removedEdges = removedEdges;
+            this.beforeOf = beforeOf;
+            this.regions = regions;
+            this.skippedRegions = skippedRegions;
+        }
+
+        boolean isEmpty() {
+            return added.length == 0 && removed.length == 0 && moved.length == 0 && relabelled.length == 0
+                && addedEdges.length == 0 && removedEdges.length == 0;
+        }
+
+        String summary() {
+            return String.format("Nodes: +%d \u2212%d, %d moved, %d relabelled   Connections: +%d \u2212%d",
+                added.length, removed.length, moved.length, relabelled.length,
+                addedEdges.length, removedEdges.length);
+        }
+    }
+
+    static Result compare(DiagramStore.Diagram before, DiagramStore.Diagram after) {
+        RegionTable table = new RegionTable();
+        int[] beforeRegion = regionsOf(before, table);
+        int[] afterRegion = regionsOf(after, table);
+        int regions = table.size();
+        long[] beforeHashes = regionHashes(before, beforeRegion, regions);
+        long[] afterHashes = regionHashes(after, afterRegion, regions);
+
+        boolean[] changed = new boolean[regions];
+        int changedCount = 0;
+        for (int region = 0; region < regions; region++) {
+            for (int k = region * HASH_WORDS; k < (region + 1) * HASH_WORDS; k++) {
+                if (beforeHashes[k] != afterHashes[k]) {
+                    changed[region] = true;
+                    changedCount++;
+                    break;
+                }
+            }
+        }
+
+        // Pair the nodes of changed regions, first by uid
+        int[] beforeOf = new int[after.nodeCount];
+        Arrays.fill(beforeOf, -1);
+        boolean[] beforePaired = new boolean[before.nodeCount];
+        Map<Long, Integer> beforeByUid = new HashMap<>();
+        for (int i = 0; i < before.nodeCount; i++) {
+            if (changed[beforeRegion[i]]) {
+                beforeByUid.put(before.uids[i], i);
+            }
+        }
+        List<Integer> unpairedAfter = new ArrayList<>();
+        for (int j = 0; j < after.nodeCount; j++) {
+            if (!changed[afterRegion[j]]) {
+                continue;
+            }
+            Integer i = beforeByUid.get(after.uids[j]);
+            if (i != null && !beforePaired[i]) {
+                beforeOf[j] = i;
+                beforePaired[i] = true;
+            } else {
+                unpairedAfter.add(j);
+            }
+        }
+
+        // Then by label and type, nearest first, for nodes that were recreated or imported
+        Map<String, List<Integer>> beforeByLabel = new HashMap<>();
+        for (int i : beforeByUid.values()) {
+            if (!beforePaired[i]) {
+                beforeByLabel.computeIfAbsent(labelKey(before, i), k -> new ArrayList<>()).add(i);
+            }
+        }
+        List<Integer> added = new ArrayList<>();
+        for (int j : unpairedAfter) {
+            List<Integer> candidates = beforeByLabel.get(labelKey(after, j));
+            int best = -1;
+            long bestDistance = (long) MATCH_RADIUS * MATCH_RADIUS;
+            if (candidates != null) {
+                for (int i : candidates) {
+                    long dx = before.xs[i] - after.xs[j];
+                    long dy = before.ys[i] - after.ys[j];
+                    if (!beforePaired[i] && dx * dx + dy * dy <= bestDistance) {
+                        best = i;
+                        bestDistance = dx * dx + dy * dy;
+                    }
+                }
+            }
+            if (best >= 0) {
+                beforeOf[j] = best;
+                beforePaired[best] = true;
+            } else {
+                added.add(j);
+            }
+        }
+
+        List<Integer> moved = new ArrayList<>();
+        List<Integer> relabelled = new ArrayList<>();
+        for (int j = 0; j < after.nodeCount; j++) {
+            int i = beforeOf[j];
+            if (i < 0) {
+                continue;
+            }
+            if (before.xs[i] != after.xs[j] || before.ys[i] != after.ys[j]
+                    || before.widths[i] != after.widths[j] || before.heights[i] != after.heights[j]) {
+                moved.add(j);
+            }
+            if (!before.labels[i].equals(after.labels[j]) || !before.types[i].equals(after.types[j])) {
+                relabelled.add(j);
+            }
+        }
+        List<Integer> removed = new ArrayList<>();
+        for (int i : beforeByUid.values()) {
+            if (!beforePaired[i]) {
+                removed.add(i);
+            }
+        }
+        Collections.sort(removed);
+
+        // Connections leaving changed regions, with after uids mapped back to before uids
+        Map<Long, Long> canonicalUid = new HashMap<>();
+        for (int j = 0; j < after.nodeCount; j++) {
+            if (beforeOf[j] >= 0 && before.uids[beforeOf[j]] != after.uids[j]) {
+                canonicalUid.put(after.uids[j], before.uids[beforeOf[j]]);
+            }
+        }
+        Map<String, Deque<Integer>> beforeEdges = new HashMap<>();
+        for (int e = 0; e < before.edgeCount; e++) {
+            if (changed[beforeRegion[before.edgeSources[e]]]) {
+                beforeEdges.computeIfAbsent(edgeKey(before, e, Collections.emptyMap()), k -> new ArrayDeque<>()).add(e);
+            }
+        }
+        List<Integer> addedEdges = new ArrayList<>();
+        for (int e = 0; e < after.edgeCount; e++) {
+            if (!changed[afterRegion[after.edgeSources[e]]]) {
+                continue;
+            }
+            Deque<Integer> same = beforeEdges.get(edgeKey(after, e, canonicalUid));
+            if (same != null && !same.isEmpty()) {
+                same.poll();
+            } else {
+                addedEdges.add(e);
+            }
+        }
+        List<Integer> removedEdges = new ArrayList<>();
+        for (Deque<Integer> left : beforeEdges.values()) {
+            removedEdges.addAll(left);
+        }
+        Collections.sort(removedEdges);
+
+        return new Result(toArray(added), toArray(removed), toArray(moved), toArray(relabelled),
+            toArray(addedEdges), toArray(removedEdges), beforeOf, regions, regions - changedCount);
+    }
+
+    /**
+     * Dense region number of every node, taken at its centre
+     */
+    private static int[] regionsOf(DiagramStore.Diagram diagram, RegionTable table) {
+        int[] regions = new int[diagram.nodeCount];
+        for (int i = 0; i < diagram.nodeCount; i++) {
+            int cx = Math.floorDiv(diagram.xs[i] + diagram.widths[i] / 2, REGION_SIZE);
+            int cy = Math.floorDiv(diagram.ys[i] + diagram.heights[i] / 2, REGION_SIZE);
+            regions[i] = table.indexOf(((long) cx << 32) | (cy & 0xFFFFFFFFL));
+        }
+        return regions;
+    }
+
+    /**
+     * Per region the node count and two 64-bit sums, of node hashes and of outgoing
+     * connection hashes. Sums do not depend on the order nodes were stored in.
+     */
+    private static long[] regionHashes(DiagramStore.Diagram diagram, int[] regions, int regionCount) {
+        long[] hashes = new long[regionCount * HASH_WORDS];
+        for (int i = 0; i < diagram.nodeCount; i++) {
+            long hash = mix(diagram.uids[i]);
+            hash = mix(hash ^ diagram.types[i].hashCode());
+            hash = mix(hash ^ ((long) diagram.xs[i] << 32 | (diagram.ys[i] & 0xFFFFFFFFL)));
+            hash = mix(hash ^ ((long) diagram.widths[i] << 32 | (diagram.heights[i] & 0xFFFFFFFFL)));
+            hash = mix(hash ^ diagram.labels[i].hashCode());
+            hash = mix(hash ^ Objects.hashCode(diagram.childKeys[i]));
+            hashes[regions[i] * HASH_WORDS] += hash;
+            hashes[regions[i] * HASH_WORDS + 2]++;
+        }
+        for (int e = 0; e < diagram.edgeCount; e++) {
+            long hash = mix(diagram.uids[diagram.edgeSources[e]]);
+            hash = mix(hash ^ diagram.uids[diagram.edgeTargets[e]]);
+            hash = mix(hash ^ Arrays.hashCode(diagram.sourcePaths[e]));
+            hash = mix(hash ^ Arrays.hashCode(diagram.targetPaths[e]));
+            hashes[regions[diagram.edgeSources[e]] * HASH_WORDS + 1] += hash;
+        }
+        return hashes;
+    }
+
+    /**
+     * SplitMix64 finaliser, spreads every input bit over the whole word
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static String labelKey(DiagramStore.Diagram diagram, int i) {
+        return diagram.types[i] + '\u0000' + diagram.labels[i];
+    }
+
+    private static String edgeKey(DiagramStore.Diagram diagram, int e, Map<Long, Long> canonicalUid) {
+        long source = diagram.uids[diagram.edgeSources[e]];
+        long target = diagram.uids[diagram.edgeTargets[e]];
+        return canonicalUid.getOrDefault(source, source) + ">" + canonicalUid.getOrDefault(target, target)
+            + ":" + Arrays.toString(diagram.sourcePaths[e]) + Arrays.toString(diagram.targetPaths[e]);
+    }
+
+    /**
+     * Open-addressing map from region key to a dense number, shared by both versions
+     */
+    private static final class RegionTable {
+        private long[] keys = new long[1024];
+        private int[] values = new int[1024];
+        private boolean[] used = new boolean[1024];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        int indexOf(long key) {
+            int mask = keys.length - 1;
+            for (int slot = (int) mix(key) & mask; ; slot = (slot + 1) & mask) {
+                if (!used[slot]) {
+                    if (size * 2 >= keys.length) {
+                        grow();
+                        return indexOf(key);
+                    }
+                    used[slot] = true;
+                    keys[slot] = key;
+                    values[slot] = size;
+                    return size++;
+                }
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new long[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = (int) mix(oldKeys[i]) & mask;
+                    while (used[slot]) {
+                        slot = (slot + 1) & mask;
+                    }
+                    used[slot] = true;
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] result = new int[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Compares two saved versions from the command line
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java DiagramDiff <before.diagram> <after.diagram>");
+            System.exit(1);
+        }
+        DiagramStore.Diagram before = DiagramStore.readFile(Paths.get(args[0]));
+        DiagramStore.Diagram after = DiagramStore.readFile(Paths.get(args[1]));
+        long started = System.nanoTime();
+        Result result = compare(before, after);
+        System.out.println(result.summary());
+        System.out.printf("%d of %d regions unchanged and skipped, %.1f ms%n",
+            result.skippedRegions, result.regions, (System.nanoTime() - started) / 1e6);
+    }
+}
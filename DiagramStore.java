@@ -0,0 +1,427 @@
+import java.io.*;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Child diagrams of subprocess nodes, one text file per subprocess under a store directory.
+ *
+ * A file is only read when its subprocess is expanded. Loaded diagrams stay in a
+ * soft-referenced cache, so collapsing and re-expanding is cheap until the garbage
+ * collector needs the memory back. Each file holds tab separated lines:
+ * {@code N uid x y width height childKey type label} for a node (coordinates relative to
+ * the subprocess, childKey {@code -} unless the node is itself a subprocess) and
+ * {@code E source target sourcePath targetPath} for a connection between node indexes.
+ * A path is a comma separated list of uids leading to a node hidden inside a collapsed
+ * subprocess endpoint, or {@code -} for the endpoint itself.
+ */
+final class DiagramStore {
+    private static final String HEADER = "# process diagram 1";
+    private static final long[] NO_PATH = new long[0];
+
+    private final Path directory;
+    private final Map<String, CachedDiagram> cache = new HashMap<>();
+    private final ReferenceQueue<Diagram> collected = new ReferenceQueue<>();
+    /** Diagrams whose last save failed, held strongly and served by load until a save succeeds */
+    private final Map<String, Diagram> unsaved = new HashMap<>();
+
+    DiagramStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Store in the directory named by the pvt.store system property, or a fresh temporary one
+     */
+    static DiagramStore openDefault() throws IOException {
+        String configured = System.getProperty("pvt.store");
+        if (configured != null) {
+            return new DiagramStore(Paths.get(configured));
+        }
+        return new DiagramStore(Files.createTempDirectory("pvt-store"));
+    }
+
+    static String newKey() {
+        return UUID.randomUUID().toString();
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Diagram stored under the key. Every subprocess is saved when it is created, so a key
+     * without a file means the contents were lost or live in another store
+     */
+    Diagram load(String key) throws IOException {
+        Diagram diagram = getCached(key);
+        if (diagram != null) {
+            return diagram;
+        }
+        Path file = fileFor(key);
+        if (!Files.exists(file)) {
+            throw new IOException("no contents stored under " + key + " in " + directory);
+        }
+        diagram = read(file);
+        putCached(key, diagram);
+        return diagram;
+    }
+
+    /**
+     * Writes the diagram to a temporary file and moves it over the old one; if that fails the
+     * diagram stays in memory under its key, so it outlives the subprocess node that held it
+     */
+    void save(String key, Diagram diagram) throws IOException {
+        try {
+            writeFile(fileFor(key), diagram);
+        } catch (IOException e) {
+            synchronized (cache) {
+                unsaved.put(key, diagram);
+            }
+            throw e;
+        }
+        synchronized (cache) {
+            unsaved.remove(key);
+        }
+        putCached(key, diagram);
+    }
+
+    /**
+     * Saves again every diagram whose last save failed, throwing the first error that remains
+     */
+    void saveUnsaved() throws IOException {
+        Map<String, Diagram> pending;
+        synchronized (cache) {
+            pending = new HashMap<>(unsaved);
+        }
+        IOException failure = null;
+        for (Map.Entry<String, Diagram> entry : pending.entrySet()) {
+            try {
+                save(entry.getKey(), entry.getValue());
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes a diagram to any file in the store format, used for saved versions
+     */
+    static void writeFile(Path file, Diagram diagram) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                Files.newOutputStream(temp), StandardCharsets.UTF_8), 1 << 16)) {
+            write(diagram, writer);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    static Diagram readFile(Path file) throws IOException {
+        return read(file);
+    }
+
+    /**
+     * Copies a diagram and, under fresh keys, every subprocess nested in it, so the copy can be
+     * edited or deleted without touching the original
+     */
+    void copy(String fromKey, String toKey) throws IOException {
+        Diagram diagram = load(fromKey);
+        String[] childKeys = diagram.childKeys.clone();
+        for (int i = 0; i < childKeys.length; i++) {
+            if (childKeys[i] != null) {
+                String key = newKey();
+                copy(childKeys[i], key);
+                childKeys[i] = key;
+            }
+        }
+        save(toKey, diagram.withChildKeys(childKeys));
+    }
+
+    void delete(String key) {
+        synchronized (cache) {
+            cache.remove(key);
+            unsaved.remove(key);
+        }
+        try {
+            Files.deleteIfExists(fileFor(key));
+        } catch (IOException e) {
+            // An orphaned file only costs disk space
+        }
+    }
+
+    private Path fileFor(String key) {
+        return directory.resolve(key + ".diagram");
+    }
+
+    private Diagram getCached(String key) {
+        synchronized (cache) {
+            Diagram pending = unsaved.get(key);
+            if (pending != null) {
+                return pending;
+            }
+            purgeCollected();
+            CachedDiagram reference = cache.get(key);
+            return reference != null ? reference.get() : null;
+        }
+    }
+
+    private void putCached(String key, Diagram diagram) {
+        synchronized (cache) {
+            purgeCollected();
+            cache.put(key, new CachedDiagram(key, diagram, collected));
+        }
+    }
+
+    private void purgeCollected() {
+        for (CachedDiagram cleared; (cleared = (CachedDiagram) collected.poll()) != null; ) {
+            cache.remove(cleared.key, cleared);
+        }
+    }
+
+    private static final class CachedDiagram extends SoftReference<Diagram> {
+        final String key;
+
+        CachedDiagram(String key, Diagram diagram, ReferenceQueue<Diagram> queue) {
+            super(diagram, queue);
+            this.key = key;
+        }
+    }
+
+    private static void write(Diagram diagram, Writer writer) throws IOException {
+        writer.write(HEADER);
+        writer.write('\n');
+        for (int i = 0; i < diagram.nodeCount; i++) {
+            writer.write("N\t" + diagram.uids[i] + '\t' + diagram.xs[i] + '\t' + diagram.ys[i]
+                + '\t' + diagram.widths[i] + '\t' + diagram.heights[i]
+                + '\t' + (diagram.childKeys[i] != null ? diagram.childKeys[i] : "-")
+                + '\t' + escape(diagram.types[i]) + '\t' + escape(diagram.labels[i]) + '\n');
+        }
+        for (int e = 0; e < diagram.edgeCount; e++) {
+            writer.write("E\t" + diagram.edgeSources[e] + '\t' + diagram.edgeTargets[e]
+                + '\t' + formatPath(diagram.sourcePaths[e]) + '\t' + formatPath(diagram.targetPaths[e]) + '\n');
+        }
+    }
+
+    private static Diagram read(Path file) throws IOException {
+        Diagram.Builder builder = new Diagram.Builder();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t", -1);
+                try {
+                    if (fields[0].equals("N") && fields.length == 9) {
+                        builder.addNode(Long.parseLong(fields[1]), unescape(fields[7]),
+                            Integer.parseInt(fields[2]), Integer.parseInt(fields[3]),
+                            Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                            unescape(fields[8]), fields[6].equals("-") ? null : fields[6]);
+                    } else if (fields[0].equals("E") && fields.length == 5) {
+                        builder.addEdge(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+                            parsePath(fields[3]), parsePath(fields[4]));
+                    } else {
+                        throw new NumberFormatException("unknown record");
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IOException(file.getFileName() + ":" + lineNumber + ": malformed line");
+                }
+            }
+        }
+        try {
+            return builder.build();
+        } catch (IllegalStateException e) {
+            throw new IOException(file.getFileName() + ": " + e.getMessage());
+        }
+    }
+
+    private static String formatPath(long[] path) {
+        if (path.length == 0) {
+            return "-";
+        }
+        StringBuilder text = new StringBuilder();
+        for (long uid : path) {
+            if (text.length() > 0) {
+                text.append(',');
+            }
+            text.append(uid);
+        }
+        return text.toString();
+    }
+
+    private static long[] parsePath(String text) {
+        if (text.equals("-")) {
+            return NO_PATH;
+        }
+        String[] parts = text.split(",");
+        long[] path = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            path[i] = Long.parseLong(parts[i]);
+        }
+        return path;
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    private static String unescape(String text) {
+        if (text.indexOf('\\') < 0) {
+            return text;
+        }
+        StringBuilder result = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\\' && i + 1 < text.length()) {
+                char next = text.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Immutable contents of one subprocess in parallel arrays
+     */
+    static final class Diagram {
+        static final Diagram EMPTY = new Builder().build();
+
+        final int nodeCount;
+        final long[] uids;
+        final String[] types;
+        final int[] xs;
+        final int[] ys;
+        final int[] widths;
+        final int[] heights;
+        final String[] labels;
+        final String[] childKeys;
+
+        final int edgeCount;
+        final int[] edgeSources;
+        final int[] edgeTargets;
+        final long[][] sourcePaths;
+        final long[][] targetPaths;
+
+        private Diagram(Builder builder) {
+            nodeCount = builder.nodeCount;
+            uids = Arrays.copyOf(builder.uids, nodeCount);
+            types = builder.types.toArray(new String[0]);
+            xs = Arrays.copyOf(builder.xs, nodeCount);
+            ys = Arrays.copyOf(builder.ys, nodeCount);
+            widths = Arrays.copyOf(builder.widths, nodeCount);
+            heights = Arrays.copyOf(builder.heights, nodeCount);
+            labels = builder.labels.toArray(new String[0]);
+            childKeys = builder.childKeys.toArray(new String[0]);
+            edgeCount = builder.edgeCount;
+            edgeSources = Arrays.copyOf(builder.edgeSources, edgeCount);
+            edgeTargets = Arrays.copyOf(builder.edgeTargets, edgeCount);
+            sourcePaths = builder.sourcePaths.toArray(new long[0][]);
+            targetPaths = builder.targetPaths.toArray(new long[0][]);
+        }
+
+        /**
+         * Same diagram with other child keys, one per node
+         */
+        Diagram withChildKeys(String[] keys) {
+            Builder builder = new Builder();
+            for (int i = 0; i < nodeCount; i++) {
+                builder.addNode(uids[i], types[i], xs[i], ys[i], widths[i], heights[i], labels[i], keys[i]);
+            }
+            for (int e = 0; e < edgeCount; e++) {
+                builder.addEdge(edgeSources[e], edgeTargets[e], sourcePaths[e], targetPaths[e]);
+            }
+            return builder.build();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Diagram)) {
+                return false;
+            }
+            Diagram that = (Diagram) other;
+            return Arrays.equals(uids, that.uids) && Arrays.equals(types, that.types)
+                && Arrays.equals(xs, that.xs) && Arrays.equals(ys, that.ys)
+                && Arrays.equals(widths, that.widths) && Arrays.equals(heights, that.heights)
+                && Arrays.equals(labels, that.labels) && Arrays.equals(childKeys, that.childKeys)
+                && Arrays.equals(edgeSources, that.edgeSources) && Arrays.equals(edgeTargets, that.edgeTargets)
+                && Arrays.deepEquals(sourcePaths, that.sourcePaths) && Arrays.deepEquals(targetPaths, that.targetPaths);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(uids) * 31 + Arrays.hashCode(edgeSources);
+        }
+
+        static final class Builder {
+            private int nodeCount;
+            private long[] uids = new long[16];
+            private final List<String> types = new ArrayList<>();
+            private int[] xs = new int[16];
+            private int[] ys = new int[16];
+            private int[] widths = new int[16];
+            private int[] heights = new int[16];
+            private final List<String> labels = new ArrayList<>();
+            private final List<String> childKeys = new ArrayList<>();
+            private int edgeCount;
+            private int[] edgeSources = new int[16];
+            private int[] edgeTargets = new int[16];
+            private final List<long[]> sourcePaths = new ArrayList<>();
+            private final List<long[]> targetPaths = new ArrayList<>();
+
+            int addNode(long uid, String type, int x, int y, int width, int height, String label, String childKey) {
+                if (nodeCount == uids.length) {
+                    int capacity = nodeCount * 2;
+                    uids = Arrays.copyOf(uids, capacity);
+                    xs = Arrays.copyOf(xs, capacity);
+                    ys = Arrays.copyOf(ys, capacity);
+                    widths = Arrays.copyOf(widths, capacity);
+                    heights = Arrays.copyOf(heights, capacity);
+                }
+                uids[nodeCount] = uid;
+                types.add(type);
+                xs[nodeCount] = x;
+                ys[nodeCount] = y;
+                widths[nodeCount] = width;
+                heights[nodeCount] = height;
+                labels.add(label);
+                childKeys.add(childKey);
+                return nodeCount++;
+            }
+
+            void addEdge(int source, int target, long[] sourcePath, long[] targetPath) {
+                if (edgeCount == edgeSources.length) {
+                    edgeSources = Arrays.copyOf(edgeSources, edgeCount * 2);
+                    edgeTargets = Arrays.copyOf(edgeTargets, edgeCount * 2);
+                }
+                edgeSources[edgeCount] = source;
+                edgeTargets[edgeCount] = target;
+                sourcePaths.add(sourcePath);
+                targetPaths.add(targetPath);
+                edgeCount++;
+            }
+
+            Diagram build() {
+                for (int e = 0; e < edgeCount; e++) {
+                    if (edgeSources[e] < 0 || edgeSources[e] >= nodeCount
+                            || edgeTargets[e] < 0 || edgeTargets[e] >= nodeCount) {
+                        throw new IllegalStateException("edge " + e + " refers to a missing node");
+                    }
+                }
+                return new Diagram(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,465 @@
+import java.awt.*;
+import java.awt.geom.Path2D;
+import java.util.*;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Force-directed edge bundling (Holten and van Wijk) of straight connections.
+ *
+ * Every edge is cut into subdivision points that are pulled towards the matching points of
+ * compatible edges (similar angle, length and position, and in view of each other) while a
+ * spring keeps each edge smooth. The number of points doubles each cycle as the step shrinks.
+ * Compatible partners are only searched near each edge and capped at {@link #MAX_PARTNERS},
+ * so the cost grows with the number of edges rather than its square, and every iteration
+ * updates all edges in parallel.
+ *
+ * The bundled polylines are then snapped to a small grid so edges running along the same
+ * bundle share their segments. Each shared segment is drawn once, thicker the more edges it
+ * carries, and segments are gathered into a few paths per canvas tile, so a frame strokes a
+ * handful of paths instead of one line per connection.
+ */
+final class EdgeBundler {
+    private static final double COMPATIBILITY_THRESHOLD = 0.6;
+    private static final int MAX_PARTNERS = 48;
+    private static final int CYCLES = 5;
+    private static final int INITIAL_ITERATIONS = 50;
+    private static final double ITERATION_RATE = 2.0 / 3;
+    private static final double INITIAL_STEP = 0.1;
+    private static final double SPRING_CONSTANT = 0.1;
+    private static final double MIN_EDGE_LENGTH = 1;
+    private static final int SNAP_SIZE = 4;
+    private static final int TILE_SIZE = 1024;
+    private static final int WIDTH_CLASSES = 7;
+    private static final float BASE_WIDTH = 1.5f;
+    private static final BasicStroke[] STROKES = new BasicStroke[WIDTH_CLASSES];
+    static final int MAX_EDGES = 200_000;
+
+    static {
+        for (int widthClass = 0; widthClass < WIDTH_CLASSES; widthClass++) {
+            STROKES[widthClass] = new BasicStroke(BASE_WIDTH + widthClass, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND);
+        }
+    }
+
+    private EdgeBundler() {
+    }
+
+    /**
+     * Bundled drawing of a set of edges, built for one layout version
+     */
+    static final class Result {
+        final long version;
+        final int edges;
+        final int segments;
+        private final Map<Long, Tile> tiles;
+        private final int margin;
+
+        private Result(long version, int edges, int segments, Map<Long, Tile> tiles, int margin) {
+            this.version = version;
+            this.edges = edges;
+            this.segments = segments;
+            this.tiles = tiles;
+            this.margin = margin;
+        }
+
+        /**
+         * Strokes the bundles and arrow heads of the tiles overlapping an area
+         */
+        void paint(Graphics2D g2d, Rectangle area, Color color) {
+            g2d.setColor(color);
+            int x0 = Math.floorDiv(area.x - margin, TILE_SIZE);
+            int y0 = Math.floorDiv(area.y - margin, TILE_SIZE);
+            int x1 = Math.floorDiv(area.x + area.width + margin, TILE_SIZE);
+            int y1 = Math.floorDiv(area.y + area.height + margin, TILE_SIZE);
+            if ((long) (x1 - x0 + 1) * (y1 - y0 + 1) > tiles.size()) {
+                // Zoomed far out, walking the tiles is cheaper than probing every cell
+                for (Map.Entry<Long, Tile> entry : tiles.entrySet()) {
+                    int tileX = (int) (entry.getKey() >> 32);
+                    int tileY = (int) (long) entry.getKey();
+                    if (tileX >= x0 && tileX <= x1 && tileY >= y0 && tileY <= y1) {
+                        entry.getValue().paint(g2d);
+                    }
+                }
+            } else {
+                for (int tileY = y0; tileY <= y1; tileY++) {
+                    for (int tileX = x0; tileX <= x1; tileX++) {
+                        Tile tile = tiles.get(key(tileX, tileY));
+                        if (tile != null) {
+                            tile.paint(g2d);
+                        }
+                    }
+                }
+            }
+            // Node outlines drawn next inherit the stroke, leave the one of a single connection
+            g2d.setStroke(STROKES[0]);
+        }
+    }
+
+    /**
+     * Segments starting in one canvas tile, one path per stroke width
+     */
+    private static final class Tile {
+        final Path2D.Float[] strokes = new Path2D.Float[WIDTH_CLASSES];
+        final Path2D.Float arrows = new Path2D.Float();
+
+        void paint(Graphics2D g2d) {
+            for (int widthClass = 0; widthClass < WIDTH_CLASSES; widthClass++) {
+                if (strokes[widthClass] != null) {
+                    g2d.setStroke(STROKES[widthClass]);
+                    g2d.draw(strokes[widthClass]);
+                }
+            }
+            g2d.fill(arrows);
+        }
+    }
+
+    /**
+     * Bundles edges given as {x1, y1, x2, y2} quadruples, each standing for weight edges
+     */
+    static Result bundle(double[] lines, int[] weights, int count, long version) {
+        int[][] partners = findPartners(lines, count);
+        int points = 1;
+        double[] current = subdivide(lines, count, null, 0, points);
+        double step = INITIAL_STEP;
+        double iterations = INITIAL_ITERATIONS;
+        for (int cycle = 0; cycle < CYCLES; cycle++) {
+            if (cycle > 0) {
+                current = subdivide(lines, count, current, points, points * 2);
+                points *= 2;
+                step /= 2;
+                iterations *= ITERATION_RATE;
+            }
+            double[] next = current.clone();
+            for (int iteration = 0; iteration < (int) iterations; iteration++) {
+                double[] from = current;
+                double[] to = next;
+                int subdivisions = points;
+                double stepSize = step;
+                IntStream.range(0, count).parallel()
+                    .forEach(edge -> move(lines, partners, from, to, edge, subdivisions, stepSize));
+                next = current;
+                current = to;
+            }
+        }
+        return build(lines, weights, count, current, points, version);
+    }
+
+    /**
+     * Compatible edges near each edge, the strongest ones if there are too many; a partner
+     * running the other way is stored as ~index
+     */
+    private static int[][] findPartners(double[] lines, int count) {
+        // Edges grouped by length class, each class in a grid as coarse as its longest edge
+        int[] lengthClass = new int[count];
+        int longestClass = 0;
+        for (int edge = 0; edge < count; edge++) {
+            lengthClass[edge] = 32 - Integer.numberOfLeadingZeros((int) Math.max(1, length(lines, edge)));
+            longestClass = Math.max(longestClass, lengthClass[edge]);
+        }
+        int classes = longestClass + 1;
+        List<Map<Long, int[]>> grids = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) {
+            grids.add(new HashMap<>());
+        }
+        for (int edge = 0; edge < count; edge++) {
+            int cell = 1 << lengthClass[edge];
+            Map<Long, int[]> grid = grids.get(lengthClass[edge]);
+            long key = key(Math.floorDiv((int) midX(lines, edge), cell), Math.floorDiv((int) midY(lines, edge), cell));
+            int[] bucket = grid.get(key);
+            if (bucket == null) {
+                bucket = new int[] {0, 0, 0, 0, 0};
+                grid.put(key, bucket);
+            } else if (bucket[0] + 1 == bucket.length) {
+                bucket = Arrays.copyOf(bucket, bucket.length * 2);
+                grid.put(key, bucket);
+            }
+            bucket[++bucket[0]] = edge;
+        }
+
+        int[][] partners = new int[count][];
+        IntStream.range(0, count).parallel().forEach(edge -> {
+            double length = length(lines, edge);
+            if (length < MIN_EDGE_LENGTH) {
+                partners[edge] = new int[0];
+                return;
+            }
+            int[] found = new int[16];
+            double[] strength = new double[16];
+            int size = 0;
+            // Scale compatibility rules out partners more than two length classes away
+            for (int c = Math.max(0, lengthClass[edge] - 2); c <= Math.min(classes - 1, lengthClass[edge] + 2); c++) {
+                int cell = 1 << c;
+                // Position compatibility needs the midpoints within two thirds of the mean length
+                double radius = (length + cell) / 3 + 1;
+                int cx0 = Math.floorDiv((int) (midX(lines, edge) - radius), cell);
+                int cy0 = Math.floorDiv((int) (midY(lines, edge) - radius), cell);
+                int cx1 = Math.floorDiv((int) (midX(lines, edge) + radius), cell);
+                int cy1 = Math.floorDiv((int) (midY(lines, edge) + radius), cell);
+                Map<Long, int[]> grid = grids.get(c);
+                for (int cy = cy0; cy <= cy1; cy++) {
+                    for (int cx = cx0; cx <= cx1; cx++) {
+                        int[] bucket = grid.get(key(cx, cy));
+                        if (bucket == null) {
+                            continue;
+                        }
+                        for (int i = 1; i <= bucket[0]; i++) {
+                            int other = bucket[i];
+                            if (other == edge) {
+                                continue;
+                            }
+                            double compatibility = compatibility(lines, edge, other);
+                            if (compatibility < COMPATIBILITY_THRESHOLD) {
+                                continue;
+                            }
+                            if (size == found.length) {
+                                found = Arrays.copyOf(found, size * 2);
+                                strength = Arrays.copyOf(strength, size * 2);
+                            }
+                            found[size] = direction(lines, edge, other) < 0 ? ~other : other;
+                            strength[size++] = compatibility;
+                        }
+                    }
+                }
+            }
+            partners[edge] = strongest(found, strength, size);
+        });
+        return partners;
+    }
+
+    private static int[] strongest(int[] found, double[] strength, int size) {
+        if (size <= MAX_PARTNERS) {
+            return Arrays.copyOf(found, size);
+        }
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(strength[b], strength[a]));
+        int[] result = new int[MAX_PARTNERS];
+        for (int i = 0; i < MAX_PARTNERS; i++) {
+            result[i] = found[order[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Product of the angle, scale, position and visibility compatibilities, from 0 to 1
+     */
+    private static double compatibility(double[] lines, int p, int q) {
+        double lengthP = length(lines, p);
+        double lengthQ = length(lines, q);
+        if (lengthQ < MIN_EDGE_LENGTH) {
+            return 0;
+        }
+        double angle = Math.abs(direction(lines, p, q)) / (lengthP * lengthQ);
+        double average = (lengthP + lengthQ) / 2;
+        double scale = 2 / (average / Math.min(lengthP, lengthQ) + Math.max(lengthP, lengthQ) / average);
+        double position = average / (average + distance(midX(lines, p) - midX(lines, q), midY(lines, p) - midY(lines, q)));
+        double partial = angle * scale * position;
+        if (partial < COMPATIBILITY_THRESHOLD) {
+            return partial;
+        }
+        return partial * Math.min(visibility(lines, p, q), visibility(lines, q, p));
+    }
+
+    /**
+     * How much of q, projected onto the line through p, lies near p's middle
+     */
+    private static double visibility(double[] lines, int p, int q) {
+        double[] start = project(lines, p, lines[q * 4], lines[q * 4 + 1]);
+        double[] end = project(lines, p, lines[q * 4 + 2], lines[q * 4 + 3]);
+        double midX = (start[0] + end[0]) / 2;
+        double midY = (start[1] + end[1]) / 2;
+        double spread = distance(start[0] - end[0], start[1] - end[1]);
+        if (spread == 0) {
+            return 0;
+        }
+        return Math.max(0, 1 - 2 * distance(midX(lines, p) - midX, midY(lines, p) - midY) / spread);
+    }
+
+    private static double[] project(double[] lines, int edge, double x, double y) {
+        double x1 = lines[edge * 4];
+        double y1 = lines[edge * 4 + 1];
+        double dx = lines[edge * 4 + 2] - x1;
+        double dy = lines[edge * 4 + 3] - y1;
+        double t = ((x - x1) * dx + (y - y1) * dy) / (dx * dx + dy * dy);
+        return new double[] {x1 + t * dx, y1 + t * dy};
+    }
+
+    /**
+     * One iteration for one edge: spring towards its neighbours plus attraction to the
+     * matching point of every partner
+     */
+    private static void move(double[] lines, int[][] partners, double[] from, double[] to,
+                             int edge, int points, double step) {
+        int stride = (points + 2) * 2;
+        int base = edge * stride;
+        double spring = SPRING_CONSTANT / (Math.max(MIN_EDGE_LENGTH, length(lines, edge)) * (points + 1));
+        int[] others = partners[edge];
+        for (int i = 1; i <= points; i++) {
+            int at = base + i * 2;
+            double x = from[at];
+            double y = from[at + 1];
+            double forceX = spring * (from[at - 2] + from[at + 2] - 2 * x);
+            double forceY = spring * (from[at - 1] + from[at + 3] - 2 * y);
+            for (int other : others) {
+                int j = other < 0 ? points + 1 - i : i;
+                int otherAt = (other < 0 ? ~other : other) * stride + j * 2;
+                double dx = from[otherAt] - x;
+                double dy = from[otherAt + 1] - y;
+                double distance = Math.sqrt(dx * dx + dy * dy);
+                if (distance > 1e-4) {
+                    forceX += dx / distance;
+                    forceY += dy / distance;
+                }
+            }
+            to[at] = x + step * forceX;
+            to[at + 1] = y + step * forceY;
+        }
+    }
+
+    /**
+     * Resamples each edge's polyline to a number of evenly spaced inner points, endpoints included around them
+     */
+    private static double[] subdivide(double[] lines, int count, double[] previous, int previousPoints, int points) {
+        int stride = (points + 2) * 2;
+        double[] result = new double[count * stride];
+        int previousStride = (previousPoints + 2) * 2;
+        IntStream.range(0, count).parallel().forEach(edge -> {
+            int base = edge * stride;
+            result[base] = lines[edge * 4];
+            result[base + 1] = lines[edge * 4 + 1];
+            result[base + stride - 2] = lines[edge * 4 + 2];
+            result[base + stride - 1] = lines[edge * 4 + 3];
+            if (previous == null) {
+                for (int i = 1; i <= points; i++) {
+                    double t = (double) i / (points + 1);
+                    result[base + i * 2] = lines[edge * 4] + t * (lines[edge * 4 + 2] - lines[edge * 4]);
+                    result[base + i * 2 + 1] = lines[edge * 4 + 1] + t * (lines[edge * 4 + 3] - lines[edge * 4 + 1]);
+                }
+                return;
+            }
+            int from = edge * previousStride;
+            double total = 0;
+            for (int i = 0; i <= previousPoints; i++) {
+                total += distance(previous[from + i * 2 + 2] - previous[from + i * 2],
+                    previous[from + i * 2 + 3] - previous[from + i * 2 + 1]);
+            }
+            double spacing = total / (points + 1);
+            int segment = 0;
+            double walked = 0;
+            for (int i = 1; i <= points; i++) {
+                double target = spacing * i;
+                double segmentLength = distance(previous[from + segment * 2 + 2] - previous[from + segment * 2],
+                    previous[from + segment * 2 + 3] - previous[from + segment * 2 + 1]);
+                while (walked + segmentLength < target && segment < previousPoints) {
+                    walked += segmentLength;
+                    segment++;
+                    segmentLength = distance(previous[from + segment * 2 + 2] - previous[from + segment * 2],
+                        previous[from + segment * 2 + 3] - previous[from + segment * 2 + 1]);
+                }
+                double t = segmentLength > 0 ? Math.min(1, (target - walked) / segmentLength) : 0;
+                int at = from + segment * 2;
+                result[base + i * 2] = previous[at] + t * (previous[at + 2] - previous[at]);
+                result[base + i * 2 + 1] = previous[at + 1] + t * (previous[at + 3] - previous[at + 1]);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Snaps the polylines to the grid, merges shared segments and sorts them into tiles
+     */
+    private static Result build(double[] lines, int[] weights, int count, double[] polylines, int points, long version) {
+        int stride = (points + 2) * 2;
+        Map<Long, Integer> pointIds = new HashMap<>();
+        List<int[]> snapped = new ArrayList<>();
+        Map<Long, Integer> segmentWeights = new HashMap<>();
+        Map<Long, Tile> tiles = new HashMap<>();
+        Set<Long> arrowHeads = new HashSet<>();
+        int longest = 0;
+
+        for (int edge = 0; edge < count; edge++) {
+            int base = edge * stride;
+            int previous = -1;
+            for (int i = 0; i < points + 2; i++) {
+                int x = (int) Math.round(polylines[base + i * 2] / SNAP_SIZE);
+                int y = (int) Math.round(polylines[base + i * 2 + 1] / SNAP_SIZE);
+                Integer id = pointIds.get(key(x, y));
+                if (id == null) {
+                    id = snapped.size();
+                    pointIds.put(key(x, y), id);
+                    snapped.add(new int[] {x * SNAP_SIZE, y * SNAP_SIZE});
+                }
+                if (previous >= 0 && previous != id) {
+                    long segment = key(Math.min(previous, id), Math.max(previous, id));
+                    segmentWeights.merge(segment, weights[edge], Integer::sum);
+                }
+                previous = id;
+            }
+
+            // Arrow head along the last bundled segment, drawn once per end point and direction
+            int last = base + stride - 2;
+            double fromX = polylines[last - 2];
+            double fromY = polylines[last - 1];
+            double toX = lines[edge * 4 + 2];
+            double toY = lines[edge * 4 + 3];
+            long heading = Math.round(Math.toDegrees(Math.atan2(toY - fromY, toX - fromX)) / 10);
+            if (length(lines, edge) >= MIN_EDGE_LENGTH
+                    && arrowHeads.add(key((int) toX, (int) toY) * 31 + heading)) {
+                tileAt(tiles, (int) toX, (int) toY).arrows
+                    .append(ProcessVisualizationTool.Connection.arrowHead(fromX, fromY, toX, toY), false);
+            }
+        }
+
+        for (Map.Entry<Long, Integer> entry : segmentWeights.entrySet()) {
+            int[] from = snapped.get((int) (entry.getKey() >> 32));
+            int[] to = snapped.get((int) (long) entry.getKey());
+            int widthClass = Math.min(WIDTH_CLASSES - 1, 31 - Integer.numberOfLeadingZeros(entry.getValue()));
+            Tile tile = tileAt(tiles, from[0], from[1]);
+            if (tile.strokes[widthClass] == null) {
+                tile.strokes[widthClass] = new Path2D.Float();
+            }
+            tile.strokes[widthClass].moveTo(from[0], from[1]);
+            tile.strokes[widthClass].lineTo(to[0], to[1]);
+            longest = Math.max(longest, Math.max(Math.abs(to[0] - from[0]), Math.abs(to[1] - from[1])));
+        }
+        return new Result(version, count, segmentWeights.size(), tiles,
+            longest + (int) BASE_WIDTH + WIDTH_CLASSES + ProcessVisualizationTool.Connection.ARROW_LENGTH);
+    }
+
+    private static Tile tileAt(Map<Long, Tile> tiles, int x, int y) {
+        return tiles.computeIfAbsent(key(Math.floorDiv(x, TILE_SIZE), Math.floorDiv(y, TILE_SIZE)), k -> new Tile());
+    }
+
+    private static long key(int x, int y) {
+        return (long) x << 32 | (y & 0xFFFFFFFFL);
+    }
+
+    private static double length(double[] lines, int edge) {
+        return distance(lines[edge * 4 + 2] - lines[edge * 4], lines[edge * 4 + 3] - lines[edge * 4 + 1]);
+    }
+
+    /**
+     * Math.hypot guards against overflow at a cost the inner loops cannot afford
+     */
+    private static double distance(double dx, double dy) {
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    private static double midX(double[] lines, int edge) {
+        return (lines[edge * 4] + lines[edge * 4 + 2]) / 2;
+    }
+
+    private static double midY(double[] lines, int edge) {
+        return (lines[edge * 4 + 1] + lines[edge * 4 + 3]) / 2;
+    }
+
+    /**
+     * Dot product of the two edge directions, negative when they run opposite ways
+     */
+    private static double direction(double[] lines, int p, int q) {
+        return (lines[p * 4 + 2] - lines[p * 4]) * (lines[q * 4 + 2] - lines[q * 4])
+            + (lines[p * 4 + 3] - lines[p * 4 + 1]) * (lines[q * 4 + 3] - lines[q * 4 + 1]);
+    }
+}
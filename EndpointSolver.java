@@ -0,0 +1,239 @@
+import java.util.Arrays;
+
+/**
+ * Closed-form ray/outline intersection for connection endpoints.
+ *
+ * A ray leaves the node centre towards a target point and stops on the outline.
+ * Rectangles and parallelograms are both "skewed boxes" (|dy| * t = hh, |dx + k * dy| * t = c),
+ * diamonds are an L1 ball and ovals an ellipse, so no trigonometry is needed.
+ * {@link Batch} solves many endpoints at once, grouped by shape family, using the
+ * Vector API kernels when the jdk.incubator.vector module is available.
+ */
+final class EndpointSolver {
+    static final int RECTANGLE = 0;
+    static final int PARALLELOGRAM = 1;
+    static final int DIAMOND = 2;
+    static final int ELLIPSE = 3;
+
+    private static final double EPSILON = 1e-9;
+    private static final Kernels KERNELS = loadKernels();
+
+    private EndpointSolver() {
+    }
+
+    /**
+     * Kernels over primitive coordinate arrays, one per shape family
+     */
+    interface Kernels {
+        void skewedBox(int n, double[] cx, double[] cy, double[] hh, double[] k, double[] c,
+                       double[] tx, double[] ty, double[] outX, double[] outY);
+
+        void diamond(int n, double[] cx, double[] cy, double[] hw, double[] hh,
+                     double[] tx, double[] ty, double[] outX, double[] outY);
+
+        void ellipse(int n, double[] cx, double[] cy, double[] hw, double[] hh,
+                     double[] tx, double[] ty, double[] outX, double[] outY);
+    }
+
+    /**
+     * Straight-line fallback, also used for the tails of the vector kernels
+     */
+    static final class ScalarKernels implements Kernels {
+        @Override
+        public void skewedBox(int n, double[] cx, double[] cy, double[] hh, double[] k, double[] c,
+                              double[] tx, double[] ty, double[] outX, double[] outY) {
+            skewedBox(0, n, cx, cy, hh, k, c, tx, ty, outX, outY);
+        }
+
+        @Override
+        public void diamond(int n, double[] cx, double[] cy, double[] hw, double[] hh,
+                            double[] tx, double[] ty, double[] outX, double[] outY) {
+            diamond(0, n, cx, cy, hw, hh, tx, ty, outX, outY);
+        }
+
+        @Override
+        public void ellipse(int n, double[] cx, double[] cy, double[] hw, double[] hh,
+                            double[] tx, double[] ty, double[] outX, double[] outY) {
+            ellipse(0, n, cx, cy, hw, hh, tx, ty, outX, outY);
+        }
+
+        static void skewedBox(int from, int to, double[] cx, double[] cy, double[] hh, double[] k, double[] c,
+                              double[] tx, double[] ty, double[] outX, double[] outY) {
+            for (int i = from; i < to; i++) {
+                double dx = tx[i] - cx[i];
+                double dy = ty[i] - cy[i];
+                double t = Math.min(hh[i] / Math.max(Math.abs(dy), EPSILON),
+                    c[i] / Math.max(Math.abs(dx + k[i] * dy), EPSILON));
+                outX[i] = cx[i] + dx * t;
+                outY[i] = cy[i] + dy * t;
+            }
+        }
+
+        static void diamond(int from, int to, double[] cx, double[] cy, double[] hw, double[] hh,
+                            double[] tx, double[] ty, double[] outX, double[] outY) {
+            for (int i = from; i < to; i++) {
+                double dx = tx[i] - cx[i];
+                double dy = ty[i] - cy[i];
+                double t = 1 / Math.max(Math.abs(dx) / hw[i] + Math.abs(dy) / hh[i], EPSILON);
+                outX[i] = cx[i] + dx * t;
+                outY[i] = cy[i] + dy * t;
+            }
+        }
+
+        static void ellipse(int from, int to, double[] cx, double[] cy, double[] hw, double[] hh,
+                            double[] tx, double[] ty, double[] outX, double[] outY) {
+            for (int i = from; i < to; i++) {
+                double dx = tx[i] - cx[i];
+                double dy = ty[i] - cy[i];
+                double nx = dx / hw[i];
+                double ny = dy / hh[i];
+                double t = 1 / Math.sqrt(Math.max(nx * nx + ny * ny, EPSILON));
+                outX[i] = cx[i] + dx * t;
+                outY[i] = cy[i] + dy * t;
+            }
+        }
+    }
+
+    private static Kernels loadKernels() {
+        try {
+            // Only present when compiled and run with --add-modules jdk.incubator.vector
+            return (Kernels) Class.forName("VectorEndpointKernels").getDeclaredConstructor().newInstance();
+        } catch (Exception | LinkageError e) {
+            return new ScalarKernels();
+        }
+    }
+
+    static boolean isVectorized() {
+        return !(KERNELS instanceof ScalarKernels);
+    }
+
+    /**
+     * Endpoint of a single connection, used when only one edge changes; x and y are written
+     * to out[0] and out[1]
+     */
+    static void solve(int kind, double cx, double cy, double hw, double hh, double offset,
+                      double tx, double ty, double[] out) {
+        double dx = tx - cx;
+        double dy = ty - cy;
+        double t;
+        switch (kind) {
+            case DIAMOND:
+                t = 1 / Math.max(Math.abs(dx) / hw + Math.abs(dy) / hh, EPSILON);
+                break;
+            case ELLIPSE:
+                double nx = dx / hw;
+                double ny = dy / hh;
+                t = 1 / Math.sqrt(Math.max(nx * nx + ny * ny, EPSILON));
+                break;
+            default:
+                double k = offset / (2 * hh);
+                double c = hw - offset / 2;
+                t = Math.min(hh / Math.max(Math.abs(dy), EPSILON), c / Math.max(Math.abs(dx + k * dy), EPSILON));
+                break;
+        }
+        out[0] = cx + dx * t;
+        out[1] = cy + dy * t;
+    }
+
+    /**
+     * Accumulates endpoint requests in structure-of-arrays form and solves them together
+     */
+    static final class Batch {
+        private final Group skewed = new Group();
+        private final Group diamonds = new Group();
+        private final Group ellipses = new Group();
+        private Group[] slotGroup = new Group[64];
+        private int[] slotIndex = new int[64];
+        private int size;
+
+        /**
+         * Queues one endpoint and returns the slot to read the answer from
+         */
+        int add(int kind, double cx, double cy, double hw, double hh, double offset, double tx, double ty) {
+            Group group = kind == DIAMOND ? diamonds : kind == ELLIPSE ? ellipses : skewed;
+            if (size == slotIndex.length) {
+                slotGroup = Arrays.copyOf(slotGroup, size * 2);
+                slotIndex = Arrays.copyOf(slotIndex, size * 2);
+            }
+            slotGroup[size] = group;
+            slotIndex[size] = group.add(cx, cy, hw, hh, offset / (2 * hh), hw - offset / 2, tx, ty);
+            return size++;
+        }
+
+        void solve() {
+            if (skewed.size > 0) {
+                KERNELS.skewedBox(skewed.size, skewed.cx, skewed.cy, skewed.hh, skewed.k, skewed.c,
+                    skewed.tx, skewed.ty, skewed.outX, skewed.outY);
+            }
+            if (diamonds.size > 0) {
+                KERNELS.diamond(diamonds.size, diamonds.cx, diamonds.cy, diamonds.hw, diamonds.hh,
+                    diamonds.tx, diamonds.ty, diamonds.outX, diamonds.outY);
+            }
+            if (ellipses.size > 0) {
+                KERNELS.ellipse(ellipses.size, ellipses.cx, ellipses.cy, ellipses.hw, ellipses.hh,
+                    ellipses.tx, ellipses.ty, ellipses.outX, ellipses.outY);
+            }
+        }
+
+        double x(int slot) {
+            return slotGroup[slot].outX[slotIndex[slot]];
+        }
+
+        double y(int slot) {
+            return slotGroup[slot].outY[slotIndex[slot]];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void clear() {
+            skewed.size = 0;
+            diamonds.size = 0;
+            ellipses.size = 0;
+            size = 0;
+        }
+    }
+
+    private static final class Group {
+        double[] cx = new double[16];
+        double[] cy = new double[16];
+        double[] hw = new double[16];
+        double[] hh = new double[16];
+        double[] k = new double[16];
+        double[] c = new double[16];
+        double[] tx = new double[16];
+        double[] ty = new double[16];
+        double[] outX = new double[16];
+        double[] outY = new double[16];
+        int size;
+
+        int add(double cx, double cy, double hw, double hh, double k, double c, double tx, double ty) {
+            if (size == this.cx.length) {
+                grow(size * 2);
+            }
+            this.cx[size] = cx;
+            this.cy[size] = cy;
+            this.hw[size] = hw;
+            this.hh[size] = hh;
+            this.k[size] = k;
+            this.c[size] = c;
+            this.tx[size] = tx;
+            this.ty[size] = ty;
+            return size++;
+        }
+
+        private void grow(int capacity) {
+            cx = Arrays.copyOf(cx, capacity);
+            cy = Arrays.copyOf(cy, capacity);
+            hw = Arrays.copyOf(hw, capacity);
+            hh = Arrays.copyOf(hh, capacity);
+            k = Arrays.copyOf(k, capacity);
+            c = Arrays.copyOf(c, capacity);
+            tx = Arrays.copyOf(tx, capacity);
+            ty = Arrays.copyOf(ty, capacity);
+            outX = Arrays.copyOf(outX, capacity);
+            outY = Arrays.copyOf(outY, capacity);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the per-object endpoint solve with the batch endpoint solver.
+ *
+ * All paths are warmed up together for at least {@link #WARMUP_MILLIS} and
+ * {@link #WARMUP_ROUNDS} rounds, so each is compiled before timing starts, and then timed
+ * in alternating rounds, so drift in machine load affects them alike.
+ *
+ * Usage: java [--add-modules jdk.incubator.vector] EndpointSolverBenchmark [endpoints] [rounds]
+ */
+class EndpointSolverBenchmark {
+    private static final int WARMUP_ROUNDS = 200;
+    private static final long WARMUP_MILLIS = 2000;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        Random random = new Random(42);
+        ProcessVisualizationTool.ProcessNode[] nodes = new ProcessVisualizationTool.ProcessNode[count];
+        Point[] targets = new Point[count];
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(10_000);
+            int y = random.nextInt(10_000);
+            switch (i % 4) {
+                case 0:
+                    nodes[i] = new ProcessVisualizationTool.ProcessNode(NodeType.PROCESS, x, y, "Process");
+                    break;
+                case 1:
+                    nodes[i] = new ProcessVisualizationTool.ProcessNode(NodeType.DECISION, x, y, "Decision");
+                    break;
+                case 2:
+                    nodes[i] = new ProcessVisualizationTool.ProcessNode(NodeType.START, x, y, "Start");
+                    break;
+                default:
+                    nodes[i] = new ProcessVisualizationTool.ProcessNode(NodeType.INPUT_OUTPUT, x, y, "Input/Output");
+                    break;
+            }
+            targets[i] = new Point(random.nextInt(10_000), random.nextInt(10_000));
+        }
+
+        EndpointSolver.Batch batch = new EndpointSolver.Batch();
+        int[] slots = new int[count];
+
+        // The per-object path solves into one reused array, as Connection.updateGeometry does
+        double[] point = new double[2];
+        Runnable perObject = () -> {
+            long checksum = 0;
+            for (int i = 0; i < count; i++) {
+                nodes[i].solveConnectionPoint(targets[i].x, targets[i].y, point);
+                checksum += (long) point[0];
+            }
+            blackhole(checksum);
+        };
+        Runnable batched = () -> {
+            batch.clear();
+            for (int i = 0; i < count; i++) {
+                slots[i] = nodes[i].addEndpoint(batch, targets[i]);
+            }
+            batch.solve();
+            blackhole((long) batch.x(slots[count - 1]));
+        };
+        Runnable solveOnly = () -> {
+            batch.solve();
+            blackhole((long) batch.x(slots[count - 1]));
+        };
+
+        System.out.println("Endpoints: " + count + ", kernels: "
+            + (EndpointSolver.isVectorized() ? "jdk.incubator.vector" : "scalar fallback"));
+        Runnable[] tasks = {perObject, batched, solveOnly};
+        long[][] times = measure(tasks, rounds);
+        report("per-object solve", times[0], count);
+        report("batch (fill + solve)", times[1], count);
+        report("batch (solve only)", times[2], count);
+
+        // Both paths must agree to within integer rounding
+        batched.run();
+        double worst = 0;
+        for (int i = 0; i < count; i++) {
+            Point p = nodes[i].getConnectionPoint(targets[i]);
+            worst = Math.max(worst, Math.max(Math.abs(p.x - batch.x(slots[i])), Math.abs(p.y - batch.y(slots[i]))));
+        }
+        System.out.printf("Largest difference between paths: %.3f px%n", worst);
+    }
+
+    private static long sink;
+
+    private static void blackhole(long value) {
+        sink ^= value;
+    }
+
+    private static long[][] measure(Runnable[] tasks, int rounds) {
+        long warmupEnd = System.nanoTime() + WARMUP_MILLIS * 1_000_000;
+        for (int i = 0; i < WARMUP_ROUNDS || System.nanoTime() < warmupEnd; i++) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+        }
+        long[][] times = new long[tasks.length][rounds];
+        for (int i = 0; i < rounds; i++) {
+            for (int t = 0; t < tasks.length; t++) {
+                long start = System.nanoTime();
+                tasks[t].run();
+                times[t][i] = System.nanoTime() - start;
+            }
+        }
+        for (long[] taskTimes : times) {
+            Arrays.sort(taskTimes);
+        }
+        return times;
+    }
+
+    private static void report(String name, long[] times, int count) {
+        double median = times[times.length / 2];
+        System.out.printf("%-32s median %8.3f ms  %6.2f ns/endpoint  (best %.3f ms)%n",
+            name, median / 1e6, median / count, times[0] / 1e6);
+    }
+}
@@ -0,0 +1,428 @@
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Whole-graph analyses over a {@link GraphSnapshot}.
+ * Independent analyses run concurrently and the heavy ones are parallel internally,
+ * so all cores are used on large diagrams.
+ */
+final class GraphAnalytics {
+    private static final int EXACT_BETWEENNESS_LIMIT = 2_000;
+    private static final long BETWEENNESS_WORK_BUDGET = 100_000_000L;
+    private static final int MIN_BETWEENNESS_SAMPLES = 16;
+    private static final int MAX_BETWEENNESS_SAMPLES = 256;
+    /** Betweenness workspaces together may take at most this fraction of the maximum heap */
+    private static final int BETWEENNESS_HEAP_SHARE = 8;
+    private static final long WORKSPACE_BYTES_PER_NODE = 36;
+    private static final int BOTTLENECK_COUNT = 5;
+    private static final int BFS_CHUNK = 4_096;
+
+    private GraphAnalytics() {
+    }
+
+    /**
+     * Outcome of {@link #analyze}, indexed like the snapshot
+     */
+    static final class Result {
+        final GraphSnapshot graph;
+        final int[] component;
+        final int[] componentSize;
+        final int cyclicComponents;
+        final boolean[] reachableFromStart;
+        final boolean[] reachesEnd;
+        final int[] criticalPath;
+        final double criticalPathLength;
+        final double[] betweenness;
+        final int[] bottlenecks;
+
+        Result(GraphSnapshot graph, int[] component, int[] componentSize, boolean[] reachableFromStart,
+               boolean[] reachesEnd, int[] criticalPath, double criticalPathLength,
+               double[] betweenness, int[] bottlenecks) {
+            this.graph = graph;
+            this.component = component;
+            this.componentSize = componentSize;
+            this.reachableFromStart = reachableFromStart;
+            this.reachesEnd = reachesEnd;
+            this.criticalPath = criticalPath;
+            this.criticalPathLength = criticalPathLength;
+            this.betweenness = betweenness;
+            this.bottlenecks = bottlenecks;
+
+            int cyclic = 0;
+            for (int size : componentSize) {
+                if (size > 1) {
+                    cyclic++;
+                }
+            }
+            this.cyclicComponents = cyclic;
+        }
+
+        boolean isCyclic(int n) {
+            return componentSize[component[n]] > 1;
+        }
+
+        int countUnreachable() {
+            return graph.startNodes.length == 0 ? 0 : count(reachableFromStart);
+        }
+
+        int countDeadEnds() {
+            return graph.endNodes.length == 0 ? 0 : count(reachesEnd);
+        }
+
+        private int count(boolean[] flags) {
+            int missing = 0;
+            for (boolean flag : flags) {
+                if (!flag) {
+                    missing++;
+                }
+            }
+            return missing;
+        }
+    }
+
+    static Result analyze(GraphSnapshot graph) {
+        CompletableFuture<int[]> scc = CompletableFuture.supplyAsync(() -> stronglyConnectedComponents(graph));
+        CompletableFuture<boolean[]> forward = CompletableFuture.supplyAsync(
+            () -> parallelReach(graph.nodeCount, graph.outOffsets, graph.outTargets, graph.startNodes));
+        CompletableFuture<boolean[]> backward = CompletableFuture.supplyAsync(
+            () -> parallelReach(graph.nodeCount, graph.inOffsets, graph.inSources, graph.endNodes));
+        CompletableFuture<double[]> centrality = CompletableFuture.supplyAsync(() -> betweenness(graph));
+
+        int[] component = scc.join();
+        int componentCount = 0;
+        for (int c : component) {
+            componentCount = Math.max(componentCount, c + 1);
+        }
+        int[] componentSize = new int[componentCount];
+        for (int c : component) {
+            componentSize[c]++;
+        }
+
+        double[] pathLength = new double[1];
+        int[] criticalPath = criticalPath(graph, component, componentCount, pathLength);
+        double[] scores = centrality.join();
+
+        return new Result(graph, component, componentSize, forward.join(), backward.join(),
+            criticalPath, pathLength[0], scores, topK(scores, BOTTLENECK_COUNT));
+    }
+
+    /**
+     * Iterative Tarjan; component ids come out in reverse topological order of the condensation
+     */
+    static int[] stronglyConnectedComponents(GraphSnapshot graph) {
+        int n = graph.nodeCount;
+        int[] index = new int[n];
+        int[] low = new int[n];
+        int[] component = new int[n];
+        int[] edgeCursor = new int[n];
+        int[] callStack = new int[n];
+        int[] sccStack = new int[n];
+        boolean[] onStack = new boolean[n];
+        Arrays.fill(index, -1);
+
+        int nextIndex = 0;
+        int nextComponent = 0;
+        int sccTop = 0;
+
+        for (int root = 0; root < n; root++) {
+            if (index[root] != -1) {
+                continue;
+            }
+            int callTop = 0;
+            callStack[callTop++] = root;
+            index[root] = low[root] = nextIndex++;
+            edgeCursor[root] = graph.outOffsets[root];
+            sccStack[sccTop++] = root;
+            onStack[root] = true;
+
+            while (callTop > 0) {
+                int v = callStack[callTop - 1];
+                if (edgeCursor[v] < graph.outOffsets[v + 1]) {
+                    int w = graph.outTargets[edgeCursor[v]++];
+                    if (index[w] == -1) {
+                        index[w] = low[w] = nextIndex++;
+                        edgeCursor[w] = graph.outOffsets[w];
+                        sccStack[sccTop++] = w;
+                        onStack[w] = true;
+                        callStack[callTop++] = w;
+                    } else if (onStack[w]) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+
+                callTop--;
+                if (callTop > 0) {
+                    int parent = callStack[callTop - 1];
+                    low[parent] = Math.min(low[parent], low[v]);
+                }
+                if (low[v] == index[v]) {
+                    int w;
+                    do {
+                        w = sccStack[--sccTop];
+                        onStack[w] = false;
+                        component[w] = nextComponent;
+                    } while (w != v);
+                    nextComponent++;
+                }
+            }
+        }
+        return component;
+    }
+
+    /**
+     * Level-synchronous BFS whose frontier is expanded in parallel chunks
+     */
+    static boolean[] parallelReach(int nodeCount, int[] offsets, int[] targets, int[] sources) {
+        AtomicLongArray seen = new AtomicLongArray((nodeCount + 63) >>> 6);
+        int[] frontier = Arrays.stream(sources).filter(s -> mark(seen, s)).toArray();
+
+        while (frontier.length > 0) {
+            final int[] current = frontier;
+            int chunks = (current.length + BFS_CHUNK - 1) / BFS_CHUNK;
+            frontier = IntStream.range(0, chunks).parallel().mapToObj(chunk -> {
+                int from = chunk * BFS_CHUNK;
+                int to = Math.min(current.length, from + BFS_CHUNK);
+                int[] next = new int[16];
+                int size = 0;
+                for (int i = from; i < to; i++) {
+                    int v = current[i];
+                    for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                        int w = targets[e];
+                        if (mark(seen, w)) {
+                            if (size == next.length) {
+                                next = Arrays.copyOf(next, size * 2);
+                            }
+                            next[size++] = w;
+                        }
+                    }
+                }
+                return Arrays.copyOf(next, size);
+            }).flatMapToInt(Arrays::stream).toArray();
+        }
+
+        boolean[] reached = new boolean[nodeCount];
+        for (int n = 0; n < nodeCount; n++) {
+            reached[n] = (seen.get(n >>> 6) & (1L << n)) != 0;
+        }
+        return reached;
+    }
+
+    private static boolean mark(AtomicLongArray seen, int n) {
+        int word = n >>> 6;
+        long bit = 1L << n;
+        while (true) {
+            long current = seen.get(word);
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (seen.compareAndSet(word, current, current | bit)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Longest duration-weighted path over the SCC condensation.
+     * A cyclic component counts the durations of all its nodes once.
+     */
+    static int[] criticalPath(GraphSnapshot graph, int[] component, int componentCount, double[] lengthOut) {
+        double[] weight = new double[componentCount];
+        for (int n = 0; n < graph.nodeCount; n++) {
+            weight[component[n]] += graph.durations[n];
+        }
+
+        // Successor components always have smaller ids, so ascending order is a valid DP order
+        int[] firstMember = new int[componentCount];
+        int[] nextMember = new int[graph.nodeCount];
+        Arrays.fill(firstMember, -1);
+        for (int n = graph.nodeCount - 1; n >= 0; n--) {
+            nextMember[n] = firstMember[component[n]];
+            firstMember[component[n]] = n;
+        }
+
+        double[] best = new double[componentCount];
+        int[] bestNext = new int[componentCount];
+        for (int c = 0; c < componentCount; c++) {
+            double tail = 0;
+            int tailComponent = -1;
+            for (int n = firstMember[c]; n != -1; n = nextMember[n]) {
+                for (int e = graph.outOffsets[n]; e < graph.outOffsets[n + 1]; e++) {
+                    int d = component[graph.outTargets[e]];
+                    if (d != c && best[d] > tail) {
+                        tail = best[d];
+                        tailComponent = d;
+                    }
+                }
+            }
+            best[c] = weight[c] + tail;
+            bestNext[c] = tailComponent;
+        }
+
+        // Prefer paths that begin at a Start node when the diagram has one
+        int head = -1;
+        if (graph.startNodes.length > 0) {
+            for (int s : graph.startNodes) {
+                if (head == -1 || best[component[s]] > best[head]) {
+                    head = component[s];
+                }
+            }
+        } else {
+            for (int c = 0; c < componentCount; c++) {
+                if (head == -1 || best[c] > best[head]) {
+                    head = c;
+                }
+            }
+        }
+        if (head == -1) {
+            lengthOut[0] = 0;
+            return new int[0];
+        }
+        lengthOut[0] = best[head];
+
+        int[] path = new int[16];
+        int size = 0;
+        for (int c = head; c != -1; c = bestNext[c]) {
+            for (int n = firstMember[c]; n != -1; n = nextMember[n]) {
+                if (size == path.length) {
+                    path = Arrays.copyOf(path, size * 2);
+                }
+                path[size++] = n;
+            }
+        }
+        return Arrays.copyOf(path, size);
+    }
+
+    /**
+     * Brandes betweenness, exact on small graphs and pivot-sampled within a work budget on large ones.
+     * Sources are pulled from a shared counter by a few parallel workers with one accumulator each,
+     * fewer than the cores when their workspaces would not fit the heap share.
+     */
+    static double[] betweenness(GraphSnapshot graph) {
+        int n = graph.nodeCount;
+        if (n == 0) {
+            return new double[0];
+        }
+
+        int[] sources;
+        double scale;
+        if (n <= EXACT_BETWEENNESS_LIMIT) {
+            sources = IntStream.range(0, n).toArray();
+            scale = 1;
+        } else {
+            // Each sampled source costs one traversal, so the sample count follows the graph size
+            long perSource = (long) n + graph.edgeCount;
+            int samples = (int) Math.max(MIN_BETWEENNESS_SAMPLES,
+                Math.min(MAX_BETWEENNESS_SAMPLES, BETWEENNESS_WORK_BUDGET / perSource));
+            sources = new Random(n).ints(samples, 0, n).toArray();
+            scale = (double) n / samples;
+        }
+
+        long affordable = Runtime.getRuntime().maxMemory() / BETWEENNESS_HEAP_SHARE / (WORKSPACE_BYTES_PER_NODE * n);
+        int workers = (int) Math.max(1, Math.min(affordable,
+            Math.min(sources.length, Runtime.getRuntime().availableProcessors())));
+        AtomicInteger next = new AtomicInteger();
+        List<double[]> partials = IntStream.range(0, workers).parallel().mapToObj(worker -> {
+            BrandesWorkspace workspace = new BrandesWorkspace(n);
+            for (int i = next.getAndIncrement(); i < sources.length; i = next.getAndIncrement()) {
+                workspace.accumulate(graph, sources[i]);
+            }
+            return workspace.centrality;
+        }).collect(Collectors.toList());
+
+        double[] total = new double[n];
+        for (double[] centrality : partials) {
+            for (int v = 0; v < n; v++) {
+                total[v] += centrality[v] * scale;
+            }
+        }
+        return total;
+    }
+
+    private static final class BrandesWorkspace {
+        final double[] centrality;
+        final int[] distance;
+        final long[] paths;
+        final double[] dependency;
+        final int[] order;
+        final int[] queue;
+
+        BrandesWorkspace(int n) {
+            centrality = new double[n];
+            distance = new int[n];
+            paths = new long[n];
+            dependency = new double[n];
+            order = new int[n];
+            queue = new int[n];
+            Arrays.fill(distance, -1);
+        }
+
+        void accumulate(GraphSnapshot graph, int source) {
+            int visited = 0;
+            int head = 0;
+            int tail = 0;
+            distance[source] = 0;
+            paths[source] = 1;
+            queue[tail++] = source;
+
+            while (head < tail) {
+                int v = queue[head++];
+                order[visited++] = v;
+                for (int e = graph.outOffsets[v]; e < graph.outOffsets[v + 1]; e++) {
+                    int w = graph.outTargets[e];
+                    if (distance[w] < 0) {
+                        distance[w] = distance[v] + 1;
+                        queue[tail++] = w;
+                    }
+                    if (distance[w] == distance[v] + 1) {
+                        paths[w] += paths[v];
+                    }
+                }
+            }
+
+            // Walk back in order of decreasing distance, predecessors found through the reverse index
+            for (int i = visited - 1; i >= 0; i--) {
+                int w = order[i];
+                for (int e = graph.inOffsets[w]; e < graph.inOffsets[w + 1]; e++) {
+                    int v = graph.inSources[e];
+                    if (distance[v] >= 0 && distance[v] == distance[w] - 1) {
+                        dependency[v] += (double) paths[v] / paths[w] * (1 + dependency[w]);
+                    }
+                }
+                if (w != source) {
+                    centrality[w] += dependency[w];
+                }
+            }
+
+            // Reset only what this source touched
+            for (int i = 0; i < visited; i++) {
+                int v = order[i];
+                distance[v] = -1;
+                paths[v] = 0;
+                dependency[v] = 0;
+            }
+        }
+    }
+
+    private static int[] topK(double[] scores, int k) {
+        PriorityQueue<Integer> heap = new PriorityQueue<>(Comparator.comparingDouble(n -> scores[n]));
+        for (int n = 0; n < scores.length; n++) {
+            if (scores[n] <= 0) {
+                continue;
+            }
+            heap.add(n);
+            if (heap.size() > k) {
+                heap.poll();
+            }
+        }
+        int[] top = new int[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--) {
+            top[i] = heap.poll();
+        }
+        return top;
+    }
+}
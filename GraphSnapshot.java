@@ -0,0 +1,61 @@
+import java.util.Arrays;
+
+/**
+ * Immutable compressed adjacency (CSR) view of the diagram.
+ * Nodes are addressed by dense index; {@link #nodeIds} maps them back to node ids.
+ */
+final class GraphSnapshot {
+    final int nodeCount;
+    final int edgeCount;
+    final int[] nodeIds;
+    final double[] durations;
+    final int[] startNodes;
+    final int[] endNodes;
+    final int[] outOffsets;
+    final int[] outTargets;
+    final int[] inOffsets;
+    final int[] inSources;
+    final long version;
+
+    /**
+     * Builds the snapshot from parallel edge arrays using a counting sort
+     */
+    GraphSnapshot(int[] nodeIds, double[] durations, int[] startNodes, int[] endNodes,
+                  int[] edgeSources, int[] edgeTargets, int edgeCount, long version) {
+        this.nodeCount = nodeIds.length;
+        this.edgeCount = edgeCount;
+        this.nodeIds = nodeIds;
+        this.durations = durations;
+        this.startNodes = startNodes;
+        this.endNodes = endNodes;
+        this.version = version;
+
+        outOffsets = new int[nodeCount + 1];
+        inOffsets = new int[nodeCount + 1];
+        for (int e = 0; e < edgeCount; e++) {
+            outOffsets[edgeSources[e] + 1]++;
+            inOffsets[edgeTargets[e] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            outOffsets[n + 1] += outOffsets[n];
+            inOffsets[n + 1] += inOffsets[n];
+        }
+
+        outTargets = new int[edgeCount];
+        inSources = new int[edgeCount];
+        int[] outFill = Arrays.copyOf(outOffsets, nodeCount);
+        int[] inFill = Arrays.copyOf(inOffsets, nodeCount);
+        for (int e = 0; e < edgeCount; e++) {
+            outTargets[outFill[edgeSources[e]]++] = edgeTargets[e];
+            inSources[inFill[edgeTargets[e]]++] = edgeSources[e];
+        }
+    }
+
+    int outDegree(int n) {
+        return outOffsets[n + 1] - outOffsets[n];
+    }
+
+    int inDegree(int n) {
+        return inOffsets[n + 1] - inOffsets[n];
+    }
+}
@@ -0,0 +1,323 @@
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Recorded mouse session on the drawing panel, replayed headlessly by {@link TraceReplay}.
+ *
+ * A trace is a text file. The first line is {@code trace 1 <nodeCount> <viewX> <viewY>
+ * <viewWidth> <viewHeight> <diagram>} with the diagram size and the visible canvas area when
+ * recording started; every further line is one event, {@code <micros> <kind> <x> <y> <button>
+ * <modifiers> <clicks> <wheel>}, in panel coordinates with the time since the first event.
+ *
+ * A recorded trace names the file next to it that holds the diagram it was recorded on, in
+ * the {@link DiagramStore} format, and is replayed against that. A synthesized trace has
+ * {@code -} there (older traces leave the field out) and is replayed against a synthetic grid
+ * diagram of the given size (see {@code DrawingPanel.generateGrid}).
+ */
+final class InteractionTrace {
+    // Grid layout of the synthetic diagram, the same as the RegionPager generator
+    static final int GRID_SPACING_X = 180;
+    static final int GRID_SPACING_Y = 120;
+
+    private static final String[] KINDS = {"press", "release", "move", "drag", "wheel"};
+    private static final int[] IDS = {MouseEvent.MOUSE_PRESSED, MouseEvent.MOUSE_RELEASED,
+        MouseEvent.MOUSE_MOVED, MouseEvent.MOUSE_DRAGGED, MouseEvent.MOUSE_WHEEL};
+
+    final int nodeCount;
+    final Rectangle view;
+    final List<Event> events;
+
+    /** Diagram the trace was recorded on, null for a synthesized trace */
+    final Path diagram;
+
+    InteractionTrace(int nodeCount, Rectangle view, List<Event> events, Path diagram) {
+        this.nodeCount = nodeCount;
+        this.view = view;
+        this.events = events;
+        this.diagram = diagram;
+    }
+
+    /**
+     * One recorded mouse event
+     */
+    static final class Event {
+        final long micros;
+        final int id;
+        final int x;
+        final int y;
+        final int button;
+        final int modifiers;
+        final int clicks;
+        final int wheel;
+
+        Event(long micros, int id, int x, int y, int button, int modifiers, int clicks, int wheel) {
+            this.micros = micros;
+            this.id = id;
+            this.x = x;
+            this.y = y;
+            this.button = button;
+            this.modifiers = modifiers;
+            this.clicks = clicks;
+            this.wheel = wheel;
+        }
+
+        String kind() {
+            return KINDS[indexOf(id)];
+        }
+
+        /**
+         * The event as Swing would deliver it to the given component
+         */
+        MouseEvent toMouseEvent(Component source, long when) {
+            if (id == MouseEvent.MOUSE_WHEEL) {
+                return new MouseWheelEvent(source, id, when, modifiers, x, y, clicks, false,
+                    MouseWheelEvent.WHEEL_UNIT_SCROLL, 3, wheel);
+            }
+            return new MouseEvent(source, id, when, modifiers, x, y, clicks, false, button);
+        }
+    }
+
+    /**
+     * Appends every mouse event of a panel to a trace file until closed
+     */
+    static final class Recorder extends MouseAdapter implements Closeable {
+        private final Component panel;
+        private final Writer writer;
+        private long firstEvent = -1;
+        private IOException failure;
+
+        private Recorder(Component panel, Writer writer) {
+            this.panel = panel;
+            this.writer = writer;
+        }
+
+        @Override
+        public void mousePressed(MouseEvent e) {
+            append(e);
+        }
+
+        @Override
+        public void mouseReleased(MouseEvent e) {
+            append(e);
+        }
+
+        @Override
+        public void mouseMoved(MouseEvent e) {
+            append(e);
+        }
+
+        @Override
+        public void mouseDragged(MouseEvent e) {
+            append(e);
+        }
+
+        @Override
+        public void mouseWheelMoved(MouseWheelEvent e) {
+            append(e);
+        }
+
+        private void append(MouseEvent e) {
+            if (failure != null) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (firstEvent < 0) {
+                firstEvent = now;
+            }
+            int wheel = e instanceof MouseWheelEvent ? ((MouseWheelEvent) e).getWheelRotation() : 0;
+            try {
+                writer.write(format(new Event((now - firstEvent) / 1000, e.getID(), e.getX(), e.getY(),
+                    e.getButton(), e.getModifiersEx(), e.getClickCount(), wheel)));
+            } catch (IOException ex) {
+                // Recording is best effort and must not disturb the session, the error is reported on close
+                failure = ex;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            panel.removeMouseListener(this);
+            panel.removeMouseMotionListener(this);
+            panel.removeMouseWheelListener(this);
+            writer.close();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * File next to a trace for the diagram it is recorded on
+     */
+    static Path diagramFileFor(Path trace) {
+        return trace.resolveSibling(trace.getFileName() + ".diagram");
+    }
+
+    /**
+     * Starts recording a panel showing a diagram of the given size, which the caller has
+     * saved to {@link #diagramFileFor} the trace file
+     */
+    static Recorder record(Component panel, Rectangle view, int nodeCount, Path file) throws IOException {
+        Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        writer.write(header(nodeCount, view, diagramFileFor(file).getFileName().toString()));
+        Recorder recorder = new Recorder(panel, writer);
+        panel.addMouseListener(recorder);
+        panel.addMouseMotionListener(recorder);
+        panel.addMouseWheelListener(recorder);
+        return recorder;
+    }
+
+    static InteractionTrace read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            String[] header = line == null ? new String[0] : line.trim().split(" +");
+            if (header.length != 7) {
+                header = split(line, 8, file);
+            }
+            if (!header[0].equals("trace") || !header[1].equals("1")) {
+                throw new IOException(file + " is not an interaction trace");
+            }
+            Path diagram = header.length == 8 && !header[7].equals("-") ? file.resolveSibling(header[7]) : null;
+            Rectangle view = new Rectangle(Integer.parseInt(header[3]), Integer.parseInt(header[4]),
+                Integer.parseInt(header[5]), Integer.parseInt(header[6]));
+            List<Event> events = new ArrayList<>();
+            for (line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = split(line, 8, file);
+                int kind = -1;
+                for (int i = 0; i < KINDS.length; i++) {
+                    if (KINDS[i].equals(fields[1])) {
+                        kind = i;
+                    }
+                }
+                if (kind < 0) {
+                    throw new IOException("Unknown event " + fields[1] + " in " + file);
+                }
+                events.add(new Event(Long.parseLong(fields[0]), IDS[kind], Integer.parseInt(fields[2]),
+                    Integer.parseInt(fields[3]), Integer.parseInt(fields[4]), Integer.parseInt(fields[5]),
+                    Integer.parseInt(fields[6]), Integer.parseInt(fields[7])));
+            }
+            return new InteractionTrace(Integer.parseInt(header[2]), view, events, diagram);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed trace " + file + ": " + e.getMessage(), e);
+        }
+    }
+
+    void write(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(header(nodeCount, view, diagram != null ? diagram.getFileName().toString() : "-"));
+            for (Event event : events) {
+                writer.write(format(event));
+            }
+        }
+    }
+
+    /**
+     * Session over the synthetic grid diagram: hover sweeps across the view, node drags and
+     * rubber-band selections in empty space, with events 8 ms apart like a typical mouse
+     */
+    static InteractionTrace synthesize(int nodeCount, int eventCount, long seed) {
+        Random random = new Random(seed);
+        Rectangle view = new Rectangle(0, 0, 1000, 600);
+        int columns = gridColumns(nodeCount);
+        int rows = (nodeCount + columns - 1) / columns;
+        int maxX = Math.min(view.width, columns * GRID_SPACING_X) - 1;
+        int maxY = Math.min(view.height, rows * GRID_SPACING_Y) - 1;
+        List<Event> events = new ArrayList<>(eventCount + 64);
+        long micros = 0;
+        while (events.size() < eventCount) {
+            int gesture = random.nextInt(10);
+            int steps = 20 + random.nextInt(40);
+            if (gesture < 5) {
+                // Hover from one point of the view to another
+                int x0 = random.nextInt(maxX + 1);
+                int y0 = random.nextInt(maxY + 1);
+                int x1 = random.nextInt(maxX + 1);
+                int y1 = random.nextInt(maxY + 1);
+                for (int i = 0; i <= steps; i++) {
+                    events.add(new Event(micros += 8000, MouseEvent.MOUSE_MOVED,
+                        x0 + (x1 - x0) * i / steps, y0 + (y1 - y0) * i / steps, 0, 0, 0, 0));
+                }
+                continue;
+            }
+            int column = random.nextInt(Math.max(1, Math.min(columns, view.width / GRID_SPACING_X)));
+            int row = random.nextInt(Math.max(1, Math.min(rows, view.height / GRID_SPACING_Y)));
+            // Node centres for a drag, the empty corner between nodes for a rubber band
+            int x = column * GRID_SPACING_X + (gesture < 8 ? GRID_SPACING_X / 2 : 4);
+            int y = row * GRID_SPACING_Y + (gesture < 8 ? GRID_SPACING_Y / 2 : 4);
+            int dx = random.nextInt(2 * GRID_SPACING_X) - GRID_SPACING_X;
+            int dy = random.nextInt(2 * GRID_SPACING_Y) - GRID_SPACING_Y;
+            events.add(new Event(micros += 8000, MouseEvent.MOUSE_PRESSED, x, y,
+                MouseEvent.BUTTON1, MouseEvent.BUTTON1_DOWN_MASK, 1, 0));
+            for (int i = 1; i <= steps; i++) {
+                events.add(new Event(micros += 8000, MouseEvent.MOUSE_DRAGGED, x + dx * i / steps, y + dy * i / steps,
+                    0, MouseEvent.BUTTON1_DOWN_MASK, 0, 0));
+            }
+            events.add(new Event(micros += 8000, MouseEvent.MOUSE_RELEASED, x + dx, y + dy,
+                MouseEvent.BUTTON1, 0, 1, 0));
+        }
+        return new InteractionTrace(nodeCount, view, events, null);
+    }
+
+    /**
+     * Columns of the synthetic grid, about one and a half times as many as rows
+     */
+    static int gridColumns(int nodeCount) {
+        return (int) Math.max(1, Math.ceil(Math.sqrt(nodeCount * 1.5)));
+    }
+
+    private static int indexOf(int id) {
+        for (int i = 0; i < IDS.length; i++) {
+            if (IDS[i] == id) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not a recorded mouse event: " + id);
+    }
+
+    private static String header(int nodeCount, Rectangle view, String diagram) {
+        return "trace 1 " + nodeCount + " " + view.x + " " + view.y + " " + view.width + " " + view.height
+            + " " + diagram + "\n";
+    }
+
+    private static String format(Event event) {
+        return event.micros + " " + event.kind() + " " + event.x + " " + event.y + " " + event.button + " "
+            + event.modifiers + " " + event.clicks + " " + event.wheel + "\n";
+    }
+
+    private static String[] split(String line, int fields, Path file) throws IOException {
+        String[] result = line == null ? new String[0] : line.trim().split(" +");
+        if (result.length != fields) {
+            throw new IOException("Malformed trace " + file + ": " + line);
+        }
+        return result;
+    }
+
+    /**
+     * Writes a synthetic trace for replaying without a recorded session
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: java InteractionTrace <trace> <nodeCount> <eventCount> [seed]");
+            System.exit(1);
+        }
+        int nodeCount = Integer.parseInt(args[1]);
+        int eventCount = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        InteractionTrace trace = synthesize(nodeCount, eventCount, seed);
+        trace.write(Paths.get(args[0]));
+        System.out.println("Wrote " + trace.events.size() + " events over a " + nodeCount + " node grid to " + args[0]);
+    }
+}
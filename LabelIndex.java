@@ -0,0 +1,296 @@
+import java.util.*;
+
+/**
+ * Search-as-you-type index over node labels, keyed by node id.
+ *
+ * Queries of three or more characters use trigram posting lists: only the ids in the
+ * shortest list among the query's trigrams are checked against their label, so a query
+ * costs the size of its rarest trigram rather than the number of nodes. Shorter queries
+ * use a sorted map of the words in each label and only find word prefixes.
+ *
+ * Posting lists hold slots rather than node ids: each indexed node gets a slot, and the
+ * slots of removed nodes are reused, so the index stays as large as the most nodes ever
+ * indexed at once however many ids have been handed out.
+ *
+ * Removing or renaming a node does not touch the posting lists. Stale entries are
+ * filtered out by the label check, and every list is rebuilt once stale entries
+ * outnumber live ones, which keeps updates constant time per trigram.
+ */
+final class LabelIndex {
+    static final int EXACT = 0;
+    static final int PREFIX = 1;
+    static final int WORD_PREFIX = 2;
+    static final int SUBSTRING = 3;
+
+    // Better rank, then shorter label, then older node
+    private static final Comparator<Match> BEST_FIRST = Comparator
+        .comparingInt((Match match) -> match.rank)
+        .thenComparingInt(match -> match.label.length())
+        .thenComparingInt(match -> match.id);
+
+    private static final int INITIAL_SLOTS = 1024;
+
+    // Normalised label and node id by slot, up to the highest slot in use
+    private String[] labels = new String[INITIAL_SLOTS];
+    private int[] ids = new int[INITIAL_SLOTS];
+    private int slotCount;
+    private final Map<Integer, Integer> slotById = new HashMap<>();
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private final Map<Long, Posting> trigrams = new HashMap<>();
+    private final TreeMap<String, Posting> words = new TreeMap<>();
+    private long entries;
+    private long staleEntries;
+
+    /**
+     * One ranked hit; lower ranks are better matches
+     */
+    static final class Match {
+        final int id;
+        final String label;
+        final int rank;
+
+        Match(int id, String label, int rank) {
+            this.id = id;
+            this.label = label;
+            this.rank = rank;
+        }
+    }
+
+    /**
+     * Best matches of a query with the total number of matching nodes
+     */
+    static final class Result {
+        final List<Match> matches;
+        final int total;
+
+        Result(List<Match> matches, int total) {
+            this.matches = matches;
+            this.total = total;
+        }
+    }
+
+    int size() {
+        return slotById.size();
+    }
+
+    void add(int id, String label) {
+        String key = normalize(label);
+        Integer slot = slotById.get(id);
+        if (slot != null) {
+            staleEntries += postingCount(labels[slot]);
+        } else {
+            slot = allocateSlot();
+            slotById.put(id, slot);
+            ids[slot] = id;
+        }
+        labels[slot] = key;
+        index(slot, key);
+    }
+
+    void rename(int id, String label) {
+        add(id, label);
+        compactIfStale();
+    }
+
+    void remove(int id) {
+        Integer slot = slotById.remove(id);
+        if (slot != null) {
+            staleEntries += postingCount(labels[slot]);
+            labels[slot] = null;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            compactIfStale();
+        }
+    }
+
+    void clear() {
+        labels = new String[INITIAL_SLOTS];
+        ids = new int[INITIAL_SLOTS];
+        slotCount = 0;
+        slotById.clear();
+        freeCount = 0;
+        trigrams.clear();
+        words.clear();
+        entries = 0;
+        staleEntries = 0;
+    }
+
+    /**
+     * Ranked matches of the query, at most limit of them: exact labels first, then labels
+     * starting with it, then words starting with it, then any other substring
+     */
+    Result search(String query, int limit) {
+        String key = normalize(query).trim();
+        if (key.isEmpty()) {
+            return new Result(Collections.emptyList(), 0);
+        }
+        // Worst match first, so the head is the one to drop when the queue is full
+        PriorityQueue<Match> best = new PriorityQueue<>(Math.max(1, limit + 1), BEST_FIRST.reversed());
+        BitSet seen = new BitSet(slotCount);
+        int total = 0;
+        Match worst = null;
+
+        for (Posting posting : candidates(key)) {
+            int[] slots = posting.slots;
+            for (int i = 0; i < posting.size; i++) {
+                int slot = slots[i];
+                String label = labels[slot];
+                // A reused slot matches on its current label, found once whichever list holds it
+                if (label == null || seen.get(slot)) {
+                    continue;
+                }
+                int rank = rank(label, key);
+                if (rank < 0) {
+                    continue;
+                }
+                seen.set(slot);
+                total++;
+                int id = ids[slot];
+                // Most hits of a broad query cannot beat the current worst and are not allocated
+                if (worst != null && best.size() == limit && !beats(rank, label.length(), id, worst)) {
+                    continue;
+                }
+                best.add(new Match(id, label, rank));
+                if (best.size() > limit) {
+                    best.poll();
+                }
+                worst = best.peek();
+            }
+        }
+        List<Match> matches = new ArrayList<>(best);
+        matches.sort(BEST_FIRST);
+        return new Result(matches, total);
+    }
+
+    private static boolean beats(int rank, int length, int id, Match other) {
+        if (rank != other.rank) {
+            return rank < other.rank;
+        }
+        if (length != other.label.length()) {
+            return length < other.label.length();
+        }
+        return id < other.id;
+    }
+
+    /**
+     * Posting lists that together contain every slot whose label can match the query
+     */
+    private List<Posting> candidates(String key) {
+        if (key.length() >= 3) {
+            Posting rarest = null;
+            for (int i = 0; i + 3 <= key.length(); i++) {
+                Posting posting = trigrams.get(trigram(key, i));
+                if (posting == null) {
+                    return Collections.emptyList();
+                }
+                if (rarest == null || posting.size < rarest.size) {
+                    rarest = posting;
+                }
+            }
+            return Collections.singletonList(rarest);
+        }
+        return new ArrayList<>(words.subMap(key, true, key + Character.MAX_VALUE, false).values());
+    }
+
+    private static int rank(String label, String key) {
+        int at = label.indexOf(key);
+        if (at < 0) {
+            return -1;
+        }
+        if (at == 0) {
+            return label.length() == key.length() ? EXACT : PREFIX;
+        }
+        // Any later occurrence may still start a word even if the first one does not
+        for (; at >= 0; at = label.indexOf(key, at + 1)) {
+            if (!Character.isLetterOrDigit(label.charAt(at - 1))) {
+                return WORD_PREFIX;
+            }
+        }
+        return SUBSTRING;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == labels.length) {
+            labels = Arrays.copyOf(labels, slotCount * 2);
+            ids = Arrays.copyOf(ids, slotCount * 2);
+        }
+        return slotCount++;
+    }
+
+    private void index(int slot, String key) {
+        for (int i = 0; i + 3 <= key.length(); i++) {
+            trigrams.computeIfAbsent(trigram(key, i), k -> new Posting()).add(slot);
+            entries++;
+        }
+        for (String word : splitWords(key)) {
+            words.computeIfAbsent(word, k -> new Posting()).add(slot);
+            entries++;
+        }
+    }
+
+    private static long postingCount(String key) {
+        return Math.max(0, key.length() - 2) + splitWords(key).size();
+    }
+
+    private void compactIfStale() {
+        if (staleEntries * 2 <= entries || staleEntries < 1024) {
+            return;
+        }
+        trigrams.clear();
+        words.clear();
+        entries = 0;
+        staleEntries = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (labels[slot] != null) {
+                index(slot, labels[slot]);
+            }
+        }
+    }
+
+    private static String normalize(String label) {
+        return label.toLowerCase(Locale.ROOT);
+    }
+
+    private static long trigram(String key, int at) {
+        return (long) key.charAt(at) << 32 | (long) key.charAt(at + 1) << 16 | key.charAt(at + 2);
+    }
+
+    /**
+     * Distinct words of a label; a repeated word would only add duplicate postings
+     */
+    private static Set<String> splitWords(String key) {
+        Set<String> result = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= key.length(); i++) {
+            boolean inWord = i < key.length() && Character.isLetterOrDigit(key.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                result.add(key.substring(start, i));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Growable list of slots sharing one trigram or word
+     */
+    private static final class Posting {
+        int[] slots = new int[4];
+        int size;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+    }
+}
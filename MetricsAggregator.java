@@ -0,0 +1,133 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free accumulator for live node and connection metrics.
+ * Ingest threads call the record methods; the EDT drains the deltas once per frame.
+ * Nodes are published by their stable uid, and each uid gets a dense slot on first sight,
+ * so the arrays stay as small as the number of distinct nodes actually reported.
+ */
+class MetricsAggregator {
+    private final int capacity;
+    private final Map<Long, Integer> slotByUid = new ConcurrentHashMap<>();
+    private final AtomicInteger slotCount = new AtomicInteger();
+    private final AtomicLongArray uidBySlot;
+    private final AtomicLongArray counts;
+    private final AtomicLongArray latencies;
+    private final AtomicLongArray dirty;
+    private final Map<Long, LongAdder> edgeCounts = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Receives the per-frame deltas of one node
+     */
+    interface NodeDeltaConsumer {
+        void accept(long uid, long count, long latencyMicros);
+    }
+
+    /**
+     * Receives the per-frame deltas of one connection
+     */
+    interface EdgeDeltaConsumer {
+        void accept(long sourceUid, long destinationUid, long count);
+    }
+
+    public MetricsAggregator(int capacity) {
+        this.capacity = capacity;
+        this.uidBySlot = new AtomicLongArray(capacity);
+        this.counts = new AtomicLongArray(capacity);
+        this.latencies = new AtomicLongArray(capacity);
+        this.dirty = new AtomicLongArray((capacity + 63) >>> 6);
+    }
+
+    public void recordNode(long uid, long count, long latencyMicros) {
+        int slot = slotOf(uid);
+        if (slot < 0) {
+            dropped.increment();
+            return;
+        }
+        counts.addAndGet(slot, count);
+        latencies.addAndGet(slot, latencyMicros);
+
+        // Only touch the shared dirty word when the bit is not already set
+        int word = slot >>> 6;
+        long bit = 1L << slot;
+        long current = dirty.get(word);
+        while ((current & bit) == 0 && !dirty.compareAndSet(word, current, current | bit)) {
+            current = dirty.get(word);
+        }
+    }
+
+    public void recordEdge(long sourceUid, long destinationUid, long count) {
+        int source = slotOf(sourceUid);
+        int destination = slotOf(destinationUid);
+        if (source < 0 || destination < 0) {
+            dropped.increment();
+            return;
+        }
+        edgeCounts.computeIfAbsent(edgeKey(source, destination), k -> new LongAdder()).add(count);
+    }
+
+    /**
+     * Returns the slot of a uid, assigning the next free one on first sight, or -1 once all are taken
+     */
+    private int slotOf(long uid) {
+        Integer slot = slotByUid.get(uid);
+        if (slot == null) {
+            // Checked before inserting so unknown uids cannot grow the map without bound
+            if (slotCount.get() >= capacity) {
+                return -1;
+            }
+            slot = slotByUid.computeIfAbsent(uid, k -> {
+                int next = slotCount.getAndIncrement();
+                if (next < capacity) {
+                    uidBySlot.set(next, k);
+                }
+                return next;
+            });
+        }
+        return slot < capacity ? slot : -1;
+    }
+
+    /**
+     * Hands every node that received updates since the last drain to the consumer
+     */
+    public void drainNodes(NodeDeltaConsumer consumer) {
+        for (int word = 0; word < dirty.length(); word++) {
+            long bits = dirty.get(word) == 0 ? 0 : dirty.getAndSet(word, 0);
+            while (bits != 0) {
+                int slot = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                long count = counts.getAndSet(slot, 0);
+                long latency = latencies.getAndSet(slot, 0);
+                if (count > 0) {
+                    consumer.accept(uidBySlot.get(slot), count, latency);
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands every connection that received updates since the last drain to the consumer
+     */
+    public void drainEdges(EdgeDeltaConsumer consumer) {
+        for (Map.Entry<Long, LongAdder> entry : edgeCounts.entrySet()) {
+            long count = entry.getValue().sumThenReset();
+            if (count > 0) {
+                long key = entry.getKey();
+                consumer.accept(uidBySlot.get((int) (key >>> 32)), uidBySlot.get((int) key), count);
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private static long edgeKey(int sourceSlot, int destinationSlot) {
+        return ((long) sourceSlot << 32) | (destinationSlot & 0xFFFFFFFFL);
+    }
+}
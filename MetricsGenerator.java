@@ -0,0 +1,166 @@
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Stand-in for a running system that publishes node and connection metrics.
+ * Serves the {@link MetricsSource} line format on a local socket or appends it to a file.
+ *
+ * Usage: java MetricsGenerator &lt;port|file&gt; &lt;diagram&gt; [updatesPerSecond]
+ */
+class MetricsGenerator implements Runnable {
+    private static final int BATCHES_PER_SECOND = 100;
+
+    private final long[] nodeUids;
+    private final long[] edgeSources;
+    private final long[] edgeTargets;
+    private final int updatesPerSecond;
+    private final ServerSocket server;
+    private final File file;
+    private volatile boolean running = true;
+
+    private MetricsGenerator(long[] nodeUids, long[] edgeSources, long[] edgeTargets, int updatesPerSecond,
+                             ServerSocket server, File file) {
+        this.nodeUids = nodeUids;
+        this.edgeSources = edgeSources;
+        this.edgeTargets = edgeTargets;
+        this.updatesPerSecond = updatesPerSecond;
+        this.server = server;
+        this.file = file;
+    }
+
+    /**
+     * Creates a generator listening on the given port, or on a free port when 0
+     *
+     * @param edgeSources source uid of each connection, parallel to edgeTargets
+     */
+    public static MetricsGenerator onSocket(int port, long[] nodeUids, long[] edgeSources, long[] edgeTargets,
+                                            int updatesPerSecond) throws IOException {
+        return new MetricsGenerator(nodeUids, edgeSources, edgeTargets, updatesPerSecond,
+            new ServerSocket(port), null);
+    }
+
+    public static MetricsGenerator toFile(File file, long[] nodeUids, long[] edgeSources, long[] edgeTargets,
+                                          int updatesPerSecond) {
+        return new MetricsGenerator(nodeUids, edgeSources, edgeTargets, updatesPerSecond, null, file);
+    }
+
+    public int getPort() {
+        return server != null ? server.getLocalPort() : -1;
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "metrics-generator");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (server != null) {
+            try {
+                server.close();
+            } catch (IOException ignored) {
+                // Only unblocks accept()
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (server != null) {
+                try (Socket client = server.accept();
+                     OutputStream out = new BufferedOutputStream(client.getOutputStream(), 1 << 16)) {
+                    publish(out);
+                }
+            } else {
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16)) {
+                    publish(out);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                System.err.println("Metrics generator stopped: " + e.getMessage());
+            }
+        }
+    }
+
+    private void publish(OutputStream out) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int perBatch = Math.max(1, updatesPerSecond / BATCHES_PER_SECOND);
+        long batchNanos = 1_000_000_000L / BATCHES_PER_SECOND;
+        long next = System.nanoTime();
+        StringBuilder batch = new StringBuilder(perBatch * 24);
+
+        // Every node gets a slowly drifting base latency so the heat map has structure
+        long[] baseLatency = new long[nodeUids.length];
+        for (int i = 0; i < baseLatency.length; i++) {
+            baseLatency[i] = 200 + random.nextInt(5000);
+        }
+
+        while (running) {
+            batch.setLength(0);
+            for (int i = 0; i < perBatch; i++) {
+                if (edgeSources.length > 0 && random.nextInt(3) == 0) {
+                    int edge = random.nextInt(edgeSources.length);
+                    batch.append("e ").append(edgeSources[edge]).append(' ').append(edgeTargets[edge]).append(" 1\n");
+                } else if (nodeUids.length > 0) {
+                    int index = random.nextInt(nodeUids.length);
+                    baseLatency[index] = Math.max(50, baseLatency[index] + random.nextInt(41) - 20);
+                    long latency = baseLatency[index] + random.nextInt(200);
+                    batch.append("n ").append(nodeUids[index]).append(" 1 ").append(latency).append('\n');
+                }
+            }
+            out.write(batch.toString().getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            next += batchNanos;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    Thread.sleep(sleep / 1_000_000, (int) (sleep % 1_000_000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: java MetricsGenerator <port|file> <diagram> [updatesPerSecond]");
+            System.exit(1);
+        }
+        int rate = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        // Publish under the uids of a diagram saved with "Save Version", which survive reloading it
+        DiagramStore.Diagram diagram = DiagramStore.readFile(Paths.get(args[1]));
+        long[] edgeSources = new long[diagram.edgeCount];
+        long[] edgeTargets = new long[diagram.edgeCount];
+        for (int e = 0; e < diagram.edgeCount; e++) {
+            edgeSources[e] = endpointUid(diagram, diagram.edgeSources[e], diagram.sourcePaths[e]);
+            edgeTargets[e] = endpointUid(diagram, diagram.edgeTargets[e], diagram.targetPaths[e]);
+        }
+
+        MetricsGenerator generator;
+        if (args[0].matches("\\d+")) {
+            generator = onSocket(Integer.parseInt(args[0]), diagram.uids, edgeSources, edgeTargets, rate);
+            System.out.println("Serving metrics on localhost:" + generator.getPort());
+        } else {
+            generator = toFile(new File(args[0]), diagram.uids, edgeSources, edgeTargets, rate);
+            System.out.println("Appending metrics to " + args[0]);
+        }
+        generator.run();
+    }
+
+    /**
+     * Returns the uid of a connection endpoint, following the path into collapsed subprocesses
+     */
+    private static long endpointUid(DiagramStore.Diagram diagram, int index, long[] path) {
+        return path.length > 0 ? path[path.length - 1] : diagram.uids[index];
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.*;
+import java.net.Socket;
+import java.util.function.Consumer;
+
+/**
+ * Background reader that feeds a metrics line stream into a {@link MetricsAggregator}.
+ *
+ * Each line is either {@code n <uid> <count> <latencyMicros>} for a node update or
+ * {@code e <sourceUid> <destinationUid> <count>} for a connection update.
+ * Lines are parsed straight from the byte buffer so no String is allocated per update.
+ */
+class MetricsSource implements Runnable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long TAIL_POLL_MILLIS = 20;
+
+    private final String description;
+    private final StreamOpener opener;
+    private final boolean tail;
+    private final MetricsAggregator aggregator;
+    private final long[] fields = new long[3];
+    private volatile boolean running = true;
+    private volatile Closeable openStream;
+    private volatile Consumer<IOException> failureListener;
+    private Thread thread;
+
+    private interface StreamOpener {
+        InputStream open() throws IOException;
+    }
+
+    private MetricsSource(String description, StreamOpener opener, boolean tail,
+                          MetricsAggregator aggregator) {
+        this.description = description;
+        this.opener = opener;
+        this.tail = tail;
+        this.aggregator = aggregator;
+    }
+
+    /**
+     * Reads updates from a socket on the local machine
+     */
+    public static MetricsSource fromSocket(int port, MetricsAggregator aggregator) {
+        return new MetricsSource("localhost:" + port, () -> {
+            Socket socket = new Socket("localhost", port);
+            return socket.getInputStream();
+        }, false, aggregator);
+    }
+
+    /**
+     * Follows a file that another process keeps appending to
+     */
+    public static MetricsSource tailFile(File file, MetricsAggregator aggregator) {
+        return new MetricsSource(file.getPath(), () -> new FileInputStream(file), true, aggregator);
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Called on the reader thread when the stream cannot be opened, fails, or a socket is
+     * closed by the publisher; not called after {@link #stop}
+     */
+    public void setFailureListener(Consumer<IOException> failureListener) {
+        this.failureListener = failureListener;
+    }
+
+    public void start() {
+        thread = new Thread(this, "metrics-source " + description);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        Closeable stream = openStream;
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ignored) {
+                // Closing only unblocks the reader thread
+            }
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try (InputStream in = opener.open()) {
+            openStream = in;
+            readLoop(in);
+            if (running) {
+                throw new EOFException("closed by the publisher");
+            }
+        } catch (IOException e) {
+            if (running) {
+                Consumer<IOException> listener = failureListener;
+                if (listener != null) {
+                    listener.accept(e);
+                } else {
+                    System.err.println("Metrics source " + description + " failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readLoop(InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int start = 0;
+        int end = 0;
+
+        while (running) {
+            if (end == buffer.length) {
+                // Keep the partial line and make room for the rest of it
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                if (end == buffer.length) {
+                    // A single line larger than the buffer is garbage, drop it
+                    end = 0;
+                }
+            }
+
+            int read = in.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                if (!tail) {
+                    return;
+                }
+                try {
+                    Thread.sleep(TAIL_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+            end += read;
+
+            int lineStart = start;
+            for (int i = start; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    parseLine(buffer, lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            start = lineStart;
+            if (start == end) {
+                start = 0;
+                end = 0;
+            }
+        }
+    }
+
+    private void parseLine(byte[] buffer, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        byte kind = buffer[from];
+        int pos = from + 1;
+        for (int f = 0; f < fields.length; f++) {
+            while (pos < to && buffer[pos] == ' ') {
+                pos++;
+            }
+            if (pos == to) {
+                return;
+            }
+            long value = 0;
+            while (pos < to && buffer[pos] >= '0' && buffer[pos] <= '9') {
+                value = value * 10 + (buffer[pos++] - '0');
+            }
+            fields[f] = value;
+        }
+
+        if (kind == 'n') {
+            aggregator.recordNode(fields[0], fields[1], fields[2]);
+        } else if (kind == 'e') {
+            aggregator.recordEdge(fields[0], fields[1], fields[2]);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleSupplier;
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+
+/**
+ * Overview of the whole canvas with the visible area outlined; click or drag to scroll there.
+ * Everything here is in canvas (unzoomed) coordinates, so zooming the canvas does not
+ * invalidate the pyramid.
+ *
+ * The canvas is rendered once into a base image of at most {@link #BASE_SIZE} pixels per
+ * side, and each further pyramid level is a 2x2 box-filtered half of the one before, down
+ * to {@link #MIN_LEVEL_SIZE}. The minimap shows the smallest level that is still at least
+ * as large as the panel. Edits only report the canvas areas they touched: those areas are
+ * redrawn into the base image and averaged up through the levels, so the diagram is never
+ * redrawn as a whole unless the canvas changes size. Only the part of an area the painter
+ * can draw completely is cleared first, so regions that are no longer in memory (see
+ * {@link RegionPager}) keep their last drawing.
+ */
+class MinimapPanel extends JComponent {
+    private static final int BASE_SIZE = 1024;
+    private static final int MIN_LEVEL_SIZE = 32;
+    private static final double MAX_SCALE = 0.25;
+    private static final int MAX_DIRTY_REGIONS = 32;
+    private static final int BACKGROUND = 0xFFFFFF;
+
+    /**
+     * Draws the part of the canvas inside an area, in canvas coordinates, at overview detail
+     */
+    interface Painter {
+        void paintOverview(Graphics2D g2d, Rectangle area);
+
+        /**
+         * Part of an area, in canvas coordinates, whose whole contents paintOverview draws;
+         * the minimap keeps its pixels outside it
+         */
+        default Shape clearableArea(Rectangle area) {
+            return area;
+        }
+    }
+
+    private final JViewport viewport;
+    private final DoubleSupplier zoom;
+    private final Painter painter;
+    private final List<Rectangle> dirty = new ArrayList<>();
+    private boolean allDirty = true;
+
+    // Level 0 is the base image, each following level half the size of the previous one
+    private BufferedImage[] levels;
+    private Dimension world;
+    private double scale;
+
+    MinimapPanel(JViewport viewport, DoubleSupplier zoom, Painter painter) {
+        this.viewport = viewport;
+        this.zoom = zoom;
+        this.painter = painter;
+        setPreferredSize(new Dimension(200, 160));
+        setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        viewport.addChangeListener(e -> repaint());
+
+        MouseAdapter scroller = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                centerViewportOn(e.getPoint());
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                centerViewportOn(e.getPoint());
+            }
+        };
+        addMouseListener(scroller);
+        addMouseMotionListener(scroller);
+    }
+
+    /**
+     * Marks a canvas area as changed, or the whole canvas when the area is null
+     */
+    void regionChanged(Rectangle area) {
+        if (area == null) {
+            allDirty = true;
+            dirty.clear();
+        } else if (!allDirty) {
+            if (dirty.size() == MAX_DIRTY_REGIONS) {
+                // Many small edits, such as a bulk move, are redrawn as one union
+                Rectangle union = new Rectangle(area);
+                for (Rectangle region : dirty) {
+                    union.add(region);
+                }
+                dirty.clear();
+                dirty.add(union);
+            } else {
+                dirty.add(new Rectangle(area));
+            }
+        }
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Graphics2D g2d = (Graphics2D) g;
+        g2d.setColor(new Color(BACKGROUND));
+        g2d.fillRect(0, 0, getWidth(), getHeight());
+        Dimension canvas = canvasSize();
+        if (canvas.width <= 0 || canvas.height <= 0) {
+            return;
+        }
+        refresh(canvas);
+
+        // Coarsest level that still has at least one image pixel per screen pixel
+        double fit = fitScale();
+        int level = levels.length - 1;
+        while (level > 0 && levels[level].getWidth() < world.width * fit) {
+            level--;
+        }
+        BufferedImage image = levels[level];
+        int width = (int) Math.round(world.width * fit);
+        int height = (int) Math.round(world.height * fit);
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(image, 0, 0, width, height, null);
+        g2d.setColor(Color.LIGHT_GRAY);
+        g2d.drawRect(0, 0, width - 1, height - 1);
+
+        Rectangle view = viewport.getViewRect();
+        double factor = fit / zoom.getAsDouble();
+        g2d.setColor(new Color(30, 90, 200));
+        g2d.drawRect((int) (view.x * factor), (int) (view.y * factor),
+            Math.max(2, (int) (view.width * factor)), Math.max(2, (int) (view.height * factor)));
+    }
+
+    private Dimension canvasSize() {
+        Dimension viewSize = viewport.getViewSize();
+        double scale = zoom.getAsDouble();
+        return new Dimension((int) Math.ceil(viewSize.width / scale), (int) Math.ceil(viewSize.height / scale));
+    }
+
+    private double fitScale() {
+        return Math.min((double) getWidth() / world.width, (double) getHeight() / world.height);
+    }
+
+    private void centerViewportOn(Point point) {
+        if (world == null) {
+            return;
+        }
+        double factor = zoom.getAsDouble() / fitScale();
+        Rectangle view = viewport.getViewRect();
+        Dimension viewSize = viewport.getViewSize();
+        int x = (int) (point.x * factor) - view.width / 2;
+        int y = (int) (point.y * factor) - view.height / 2;
+        x = Math.max(0, Math.min(x, viewSize.width - view.width));
+        y = Math.max(0, Math.min(y, viewSize.height - view.height));
+        viewport.setViewPosition(new Point(x, y));
+    }
+
+    /**
+     * Brings the pyramid up to date with the reported edits
+     */
+    private void refresh(Dimension canvas) {
+        if (!canvas.equals(world)) {
+            rebuild(canvas);
+        }
+        if (allDirty) {
+            redraw(new Rectangle(0, 0, levels[0].getWidth(), levels[0].getHeight()), true);
+            allDirty = false;
+            dirty.clear();
+            return;
+        }
+        for (Rectangle area : dirty) {
+            // One base pixel of slack covers antialiasing that bleeds over the edge
+            int x0 = (int) Math.floor(area.x * scale) - 1;
+            int y0 = (int) Math.floor(area.y * scale) - 1;
+            int x1 = (int) Math.ceil((area.x + area.width) * scale) + 1;
+            int y1 = (int) Math.ceil((area.y + area.height) * scale) + 1;
+            Rectangle pixels = new Rectangle(x0, y0, x1 - x0, y1 - y0)
+                .intersection(new Rectangle(0, 0, levels[0].getWidth(), levels[0].getHeight()));
+            if (!pixels.isEmpty()) {
+                redraw(pixels, true);
+            }
+        }
+        dirty.clear();
+    }
+
+    /**
+     * New pyramid for a canvas of another size. The old base image is resampled into the new
+     * one before the resident diagram is drawn over it, so regions that are no longer in
+     * memory (see {@link RegionPager}) stay visible.
+     */
+    private void rebuild(Dimension canvas) {
+        BufferedImage old = levels != null ? levels[0] : null;
+        double oldScale = scale;
+        world = new Dimension(canvas);
+        scale = Math.min(MAX_SCALE, (double) BASE_SIZE / Math.max(world.width, world.height));
+
+        List<BufferedImage> built = new ArrayList<>();
+        int width = Math.max(1, (int) Math.ceil(world.width * scale));
+        int height = Math.max(1, (int) Math.ceil(world.height * scale));
+        while (true) {
+            built.add(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+            if (Math.max(width, height) <= MIN_LEVEL_SIZE) {
+                break;
+            }
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+        }
+        levels = built.toArray(new BufferedImage[0]);
+
+        Graphics2D g2d = levels[0].createGraphics();
+        g2d.setColor(new Color(BACKGROUND));
+        g2d.fillRect(0, 0, levels[0].getWidth(), levels[0].getHeight());
+        if (old != null) {
+            double ratio = scale / oldScale;
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2d.drawImage(old, 0, 0, (int) Math.round(old.getWidth() * ratio),
+                (int) Math.round(old.getHeight() * ratio), null);
+        }
+        g2d.dispose();
+        if (old != null && !allDirty) {
+            redraw(new Rectangle(0, 0, levels[0].getWidth(), levels[0].getHeight()), false);
+        }
+    }
+
+    /**
+     * Redraws an area of the base image from the canvas and propagates it up the pyramid
+     */
+    private void redraw(Rectangle pixels, boolean clear) {
+        Graphics2D g2d = levels[0].createGraphics();
+        g2d.clip(pixels);
+        g2d.scale(scale, scale);
+        Rectangle area = new Rectangle((int) Math.floor(pixels.x / scale), (int) Math.floor(pixels.y / scale),
+            (int) Math.ceil(pixels.width / scale) + 1, (int) Math.ceil(pixels.height / scale) + 1);
+        if (clear) {
+            g2d.setColor(new Color(BACKGROUND));
+            g2d.fill(painter.clearableArea(area));
+        }
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        painter.paintOverview(g2d, area);
+        g2d.dispose();
+
+        Rectangle region = pixels;
+        for (int level = 1; level < levels.length; level++) {
+            region = downsample(levels[level - 1], levels[level], region);
+        }
+    }
+
+    /**
+     * Averages 2x2 blocks of the source covering a region into the next level, returning
+     * the region that changed there
+     */
+    private static Rectangle downsample(BufferedImage source, BufferedImage target, Rectangle region) {
+        int[] from = ((DataBufferInt) source.getRaster().getDataBuffer()).getData();
+        int[] to = ((DataBufferInt) target.getRaster().getDataBuffer()).getData();
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        int targetWidth = target.getWidth();
+        int x0 = region.x / 2;
+        int y0 = region.y / 2;
+        int x1 = Math.min(target.getWidth(), (region.x + region.width + 1) / 2);
+        int y1 = Math.min(target.getHeight(), (region.y + region.height + 1) / 2);
+
+        for (int y = y0; y < y1; y++) {
+            int top = 2 * y * sourceWidth;
+            int bottom = Math.min(2 * y + 1, sourceHeight - 1) * sourceWidth;
+            for (int x = x0; x < x1; x++) {
+                int left = 2 * x;
+                int right = Math.min(left + 1, sourceWidth - 1);
+                int a = from[top + left];
+                int b = from[top + right];
+                int c = from[bottom + left];
+                int d = from[bottom + right];
+                int red = ((a >> 16 & 0xFF) + (b >> 16 & 0xFF) + (c >> 16 & 0xFF) + (d >> 16 & 0xFF) + 2) >> 2;
+                int green = ((a >> 8 & 0xFF) + (b >> 8 & 0xFF) + (c >> 8 & 0xFF) + (d >> 8 & 0xFF) + 2) >> 2;
+                int blue = ((a & 0xFF) + (b & 0xFF) + (c & 0xFF) + (d & 0xFF) + 2) >> 2;
+                to[y * targetWidth + x] = red << 16 | green << 8 | blue;
+            }
+        }
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+}
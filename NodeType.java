@@ -0,0 +1,171 @@
+import java.awt.*;
+import java.awt.geom.*;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Shared description of one kind of node: outline, colour, default size and hit test.
+ * The outline is built once in local coordinates (origin at the top-left corner) and
+ * every node of the type draws it translated to its own position, so a node only
+ * carries its position, size and label. Custom types are added with {@link #register}.
+ */
+final class NodeType {
+    private static final Map<String, NodeType> REGISTRY = new LinkedHashMap<>();
+
+    static final NodeType PROCESS = register(new NodeType("Process", 120, 60,
+        new Color(173, 216, 230), EndpointSolver.RECTANGLE, 0, new Rectangle2D.Double(0, 0, 120, 60)));
+    static final NodeType DECISION = register(new NodeType("Decision", 100, 100,
+        new Color(255, 255, 153), EndpointSolver.DIAMOND, 0,
+        polygon(new int[] {50, 100, 50, 0}, new int[] {0, 50, 100, 50})));
+    static final NodeType START = register(new NodeType("Start", 80, 40,
+        new Color(144, 238, 144), EndpointSolver.ELLIPSE, 0, new Ellipse2D.Double(0, 0, 80, 40)));
+    static final NodeType END = register(new NodeType("End", 80, 40,
+        new Color(255, 204, 204), EndpointSolver.ELLIPSE, 0, new Ellipse2D.Double(0, 0, 80, 40)));
+    static final NodeType INPUT_OUTPUT = register(new NodeType("Input/Output", 120, 60,
+        new Color(204, 204, 255), EndpointSolver.PARALLELOGRAM, 20,
+        polygon(new int[] {20, 120, 100, 0}, new int[] {0, 0, 60, 60})));
+    static final NodeType SUBPROCESS = register(new NodeType("Subprocess", 140, 70,
+        new Color(255, 228, 181), EndpointSolver.RECTANGLE, 0, subprocessOutline(140, 70)));
+
+    /** Used for unknown type names, deliberately not offered in the toolbar */
+    static final NodeType GENERIC = new NodeType("Generic", 120, 60,
+        Color.lightGray, EndpointSolver.RECTANGLE, 0, new Rectangle2D.Double(0, 0, 120, 60));
+
+    private final String name;
+    private final int width;
+    private final int height;
+    private final Color color;
+    private final int shapeKind;
+    private final int shapeOffset;
+    private final Shape template;
+
+    /**
+     * @param shapeKind   endpoint family from {@link EndpointSolver} closest to the outline
+     * @param shapeOffset horizontal slant at the default width, only used by parallelograms
+     * @param template    outline at the default size with its top-left corner at the origin
+     */
+    NodeType(String name, int width, int height, Color color, int shapeKind, int shapeOffset, Shape template) {
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.color = color;
+        this.shapeKind = shapeKind;
+        this.shapeOffset = shapeOffset;
+        // Private copy so callers cannot mutate the shared outline
+        this.template = new Path2D.Double(template);
+    }
+
+    private static Shape polygon(int[] xs, int[] ys) {
+        return new Polygon(xs, ys, xs.length);
+    }
+
+    /**
+     * Rounded box with a boxed plus at the bottom, the usual marker for a collapsed subprocess
+     */
+    private static Shape subprocessOutline(int width, int height) {
+        Path2D.Double outline = new Path2D.Double(new RoundRectangle2D.Double(0, 0, width, height, 16, 16));
+        double left = width / 2.0 - 6;
+        double top = height - 16;
+        outline.append(new Rectangle2D.Double(left, top, 12, 12), false);
+        outline.moveTo(left + 3, top + 6);
+        outline.lineTo(left + 9, top + 6);
+        outline.moveTo(left + 6, top + 3);
+        outline.lineTo(left + 6, top + 9);
+        return outline;
+    }
+
+    /**
+     * Adds a type to the registry, replacing any type with the same name
+     */
+    static NodeType register(NodeType type) {
+        synchronized (REGISTRY) {
+            REGISTRY.put(type.name, type);
+        }
+        return type;
+    }
+
+    /**
+     * Registered type with the given name, or {@link #GENERIC} when there is none
+     */
+    static NodeType get(String name) {
+        synchronized (REGISTRY) {
+            NodeType type = REGISTRY.get(name);
+            return type != null ? type : GENERIC;
+        }
+    }
+
+    static List<String> getNames() {
+        synchronized (REGISTRY) {
+            return new ArrayList<>(REGISTRY.keySet());
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    Color getColor() {
+        return color;
+    }
+
+    int getShapeKind() {
+        return shapeKind;
+    }
+
+    double getShapeOffset(int nodeWidth) {
+        return nodeWidth == width ? shapeOffset : shapeOffset * (double) nodeWidth / width;
+    }
+
+    /**
+     * Hit test in local coordinates of a node of the given size
+     */
+    boolean contains(double localX, double localY, int nodeWidth, int nodeHeight) {
+        if (nodeWidth != width || nodeHeight != height) {
+            localX = localX * width / nodeWidth;
+            localY = localY * height / nodeHeight;
+        }
+        return template.contains(localX, localY);
+    }
+
+    /**
+     * Fills and outlines the shared template at the given position and size
+     */
+    void paint(Graphics2D g2d, int x, int y, int nodeWidth, int nodeHeight, Color fill) {
+        Shape shape = scaled(nodeWidth, nodeHeight);
+        g2d.translate(x, y);
+        g2d.setColor(fill);
+        g2d.fill(shape);
+        g2d.setColor(Color.BLACK);
+        g2d.draw(shape);
+        g2d.translate(-x, -y);
+    }
+
+    /**
+     * Outline exactly as {@link #paint} draws it, placed at the given position
+     */
+    Shape outline(int x, int y, int nodeWidth, int nodeHeight) {
+        return AffineTransform.getTranslateInstance(x, y).createTransformedShape(scaled(nodeWidth, nodeHeight));
+    }
+
+    private Shape scaled(int nodeWidth, int nodeHeight) {
+        if (nodeWidth == width && nodeHeight == height) {
+            return template;
+        }
+        // Scaling the shape rather than the graphics keeps the outline stroke width
+        return AffineTransform.getScaleInstance((double) nodeWidth / width, (double) nodeHeight / height)
+            .createTransformedShape(template);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -2,6 +2,11 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.geom.*;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.List;
 
@@ -10,18 +15,35 @@ import java.util.List;
  * Allows users to create, connect, and manage process nodes in a visual workflow
  */
 public class ProcessVisualizationTool extends JFrame {
+    // Cap on the nodes DrawingPanel keeps on the canvas before collapsing subprocesses again
+    private static final int MAX_RESIDENT_NODES = Integer.getInteger("pvt.maxResidentNodes", 200_000);
+    
     private JPanel toolPanel;
     private DrawingPanel drawingPanel;
     private JButton addNodeButton;
     private JButton connectNodesButton;
     private JButton deleteButton;
     private JButton clearButton;
+    private JButton liveMetricsButton;
+    private JButton analyzeButton;
+    private JToggleButton bundleButton;
+    private JButton openPagesButton;
+    private JButton saveVersionButton;
+    private JButton compareButton;
+    private JButton exportButton;
+    private JButton recordButton;
+    private JToggleButton wallboardButton;
     private JComboBox<String> nodeTypeComboBox;
+    private JTextField searchField;
+    private JList<ProcessNode> searchResults;
+    private JLabel searchCount;
+    private InteractionTrace.Recorder traceRecorder;
+    private WallboardRenderer wallboard;
 
     public ProcessVisualizationTool() {
         setTitle("Process Visualization Tool");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        setSize(800, 600);
+        setSize(1000, 600);
         setLocationRelativeTo(null);
 
         // Initialize components
@@ -29,6 +51,11 @@ public class ProcessVisualizationTool extends JFrame {
         
         // Make the frame visible
         setVisible(true);
+        
+        // A wallboard can start straight into active rendering
+        if (Boolean.getBoolean("pvt.wallboard")) {
+            wallboardButton.doClick();
+        }
     }
 
     private void initComponents() {
@@ -40,14 +67,22 @@ public class ProcessVisualizationTool extends JFrame {
         toolPanel.setBackground(new Color(240, 240, 240));
         
         // Create node types dropdown
-        String[] nodeTypes = {"Process", "Decision", "Start", "End", "Input/Output"};
-        nodeTypeComboBox = new JComboBox<>(nodeTypes);
+        nodeTypeComboBox = new JComboBox<>(NodeType.getNames().toArray(new String[0]));
         
         // Create buttons
         addNodeButton = new JButton("Add Node");
         connectNodesButton = new JButton("Connect Nodes");
         deleteButton = new JButton("Delete");
         clearButton = new JButton("Clear All");
+        liveMetricsButton = new JButton("Live Metrics");
+        analyzeButton = new JButton("Analyze");
+        bundleButton = new JToggleButton("Bundle Edges");
+        openPagesButton = new JButton("Open Pages...");
+        saveVersionButton = new JButton("Save Version...");
+        compareButton = new JButton("Compare...");
+        exportButton = new JButton("Export...");
+        recordButton = new JButton("Record Trace...");
+        wallboardButton = new JToggleButton("Wallboard");
         
         // Add components to the toolbar
         toolPanel.add(new JLabel("Node Type:"));
@@ -56,6 +91,15 @@ public class ProcessVisualizationTool extends JFrame {
         toolPanel.add(connectNodesButton);
         toolPanel.add(deleteButton);
         toolPanel.add(clearButton);
+        toolPanel.add(liveMetricsButton);
+        toolPanel.add(analyzeButton);
+        toolPanel.add(bundleButton);
+        toolPanel.add(openPagesButton);
+        toolPanel.add(saveVersionButton);
+        toolPanel.add(compareButton);
+        toolPanel.add(exportButton);
+        toolPanel.add(recordButton);
+        toolPanel.add(wallboardButton);
         
         // Create drawing panel
         drawingPanel = new DrawingPanel();
@@ -63,7 +107,41 @@ public class ProcessVisualizationTool extends JFrame {
         
         // Add components to the frame
         add(toolPanel, BorderLayout.NORTH);
-        add(new JScrollPane(drawingPanel), BorderLayout.CENTER);
+        JScrollPane scrollPane = new JScrollPane(drawingPanel);
+        scrollPane.getViewport().addChangeListener(e -> drawingPanel.viewportChanged());
+        add(scrollPane, BorderLayout.CENTER);
+        
+        // Minimap in the top right corner, clicking or dragging in it scrolls the canvas
+        MinimapPanel minimap = new MinimapPanel(scrollPane.getViewport(), drawingPanel::getZoom, drawingPanel);
+        JPanel minimapHolder = new JPanel(new BorderLayout());
+        minimapHolder.setBorder(BorderFactory.createTitledBorder("Overview"));
+        minimapHolder.add(minimap, BorderLayout.CENTER);
+        drawingPanel.setMinimap(minimap);
+        
+        // Label search below the minimap, picking a result jumps to the node
+        searchField = new JTextField();
+        searchResults = new JList<>(new DefaultListModel<>());
+        searchResults.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        searchResults.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                ProcessNode node = (ProcessNode) value;
+                return super.getListCellRendererComponent(list, node.label + "  (" + node.type + ")",
+                    index, isSelected, cellHasFocus);
+            }
+        });
+        searchCount = new JLabel(" ");
+        JPanel searchPanel = new JPanel(new BorderLayout(0, 4));
+        searchPanel.setBorder(BorderFactory.createTitledBorder("Find"));
+        searchPanel.add(searchField, BorderLayout.NORTH);
+        searchPanel.add(new JScrollPane(searchResults), BorderLayout.CENTER);
+        searchPanel.add(searchCount, BorderLayout.SOUTH);
+        
+        JPanel sidePanel = new JPanel(new BorderLayout());
+        sidePanel.add(minimapHolder, BorderLayout.NORTH);
+        sidePanel.add(searchPanel, BorderLayout.CENTER);
+        add(sidePanel, BorderLayout.EAST);
         
         // Set up event listeners
         setupEventListeners();
@@ -79,8 +157,11 @@ public class ProcessVisualizationTool extends JFrame {
             drawingPanel.setConnectingMode(true);
         });
         
+        // Several selected nodes go at once, otherwise the button still asks what to delete
         deleteButton.addActionListener(e -> {
-            drawingPanel.prepareToDelete();
+            if (drawingPanel.getSelectionSize() < 2 || !drawingPanel.deleteSelection()) {
+                drawingPanel.prepareToDelete();
+            }
         });
         
         clearButton.addActionListener(e -> {
@@ -95,6 +176,210 @@ public class ProcessVisualizationTool extends JFrame {
                 drawingPanel.clearAll();
             }
         });
+        
+        // Metrics can also stop by themselves when their source fails
+        drawingPanel.addPropertyChangeListener("metricsRunning", e ->
+            liveMetricsButton.setText(drawingPanel.isMetricsRunning() ? "Stop Metrics" : "Live Metrics"));
+        liveMetricsButton.addActionListener(e -> {
+            if (drawingPanel.isMetricsRunning()) {
+                drawingPanel.stopMetrics();
+                return;
+            }
+            
+            String source = JOptionPane.showInputDialog(
+                this,
+                "Metrics source (local port, file to tail, or \"demo\"):",
+                "Live Metrics",
+                JOptionPane.PLAIN_MESSAGE
+            );
+            if (source == null || source.trim().isEmpty()) {
+                return;
+            }
+            
+            try {
+                drawingPanel.startMetrics(source.trim());
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not start metrics: " + ex.getMessage(),
+                    "Live Metrics", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        
+        analyzeButton.addActionListener(e -> {
+            drawingPanel.runAnalysis();
+        });
+        
+        bundleButton.addActionListener(e -> drawingPanel.setBundling(bundleButton.isSelected()));
+        // Bundling switches itself off when it fails
+        drawingPanel.addPropertyChangeListener("bundling", e -> bundleButton.setSelected(drawingPanel.isBundling()));
+        
+        openPagesButton.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Open page directory");
+            chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            try {
+                drawingPanel.openPages(chooser.getSelectedFile());
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not open pages: " + ex.getMessage(),
+                    "Open Pages", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        
+        saveVersionButton.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Save version");
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            try {
+                drawingPanel.saveVersion(chooser.getSelectedFile());
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not save version: " + ex.getMessage(),
+                    "Save Version", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        
+        compareButton.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Compare with saved version");
+            if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            try {
+                drawingPanel.compareWith(chooser.getSelectedFile());
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not compare: " + ex.getMessage(),
+                    "Compare", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        
+        exportButton.addActionListener(e -> {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Export as SVG or PDF");
+            chooser.addChoosableFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("PDF document", "pdf"));
+            chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("SVG image", "svg"));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            File file = chooser.getSelectedFile();
+            if (!file.getName().contains(".")) {
+                String extension = chooser.getFileFilter() instanceof javax.swing.filechooser.FileNameExtensionFilter
+                    ? ((javax.swing.filechooser.FileNameExtensionFilter) chooser.getFileFilter()).getExtensions()[0]
+                    : "svg";
+                file = new File(file.getPath() + "." + extension);
+            }
+            try {
+                drawingPanel.exportVector(file);
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not export: " + ex.getMessage(),
+                    "Export", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        
+        recordButton.addActionListener(e -> {
+            if (traceRecorder != null) {
+                stopRecording();
+                return;
+            }
+            JFileChooser chooser = new JFileChooser();
+            chooser.setDialogTitle("Record mouse session to");
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+                return;
+            }
+            try {
+                // The trace is replayed on the diagram as it is now
+                Path trace = chooser.getSelectedFile().toPath();
+                drawingPanel.writeDiagram(InteractionTrace.diagramFileFor(trace));
+                traceRecorder = InteractionTrace.record(drawingPanel, drawingPanel.getVisibleRect(),
+                    drawingPanel.getNodeCount(), trace);
+                recordButton.setText("Stop Recording");
+            } catch (IOException ex) {
+                JOptionPane.showMessageDialog(this, "Could not record: " + ex.getMessage(),
+                    "Record Trace", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+        
+        wallboardButton.addActionListener(e -> {
+            if (wallboardButton.isSelected()) {
+                wallboard = new WallboardRenderer(drawingPanel::getSceneVersion, drawingPanel::snapshotScene, () -> {
+                    wallboard = null;
+                    wallboardButton.setSelected(false);
+                });
+                wallboard.start();
+            } else if (wallboard != null) {
+                wallboard.stop();
+                wallboard = null;
+            }
+        });
+        
+        searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                runSearch();
+            }
+            
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                runSearch();
+            }
+            
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                runSearch();
+            }
+        });
+        // Enter jumps to the best match, Down moves into the result list
+        searchField.addActionListener(e -> {
+            if (searchResults.getModel().getSize() > 0) {
+                searchResults.setSelectedIndex(0);
+            }
+        });
+        searchField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_DOWN && searchResults.getModel().getSize() > 0) {
+                    searchResults.requestFocusInWindow();
+                    searchResults.setSelectedIndex(Math.max(0, searchResults.getSelectedIndex()));
+                }
+            }
+        });
+        searchResults.addListSelectionListener(e -> {
+            ProcessNode node = searchResults.getSelectedValue();
+            if (!e.getValueIsAdjusting() && node != null) {
+                drawingPanel.jumpTo(node);
+            }
+        });
+        // Deleted or evicted nodes leave the results, so picking one never jumps to a dead node
+        drawingPanel.addPropertyChangeListener("searchHitsRemoved", e ->
+            SwingUtilities.invokeLater(this::runSearch));
+        
+        // Edited pages are written back before the JVM exits
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                drawingPanel.closePages();
+                stopRecording();
+                if (wallboard != null) {
+                    wallboard.stop();
+                }
+            }
+        });
+    }
+    
+    private void stopRecording() {
+        if (traceRecorder == null) {
+            return;
+        }
+        try {
+            traceRecorder.close();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(this, "Trace is incomplete: " + ex.getMessage(),
+                "Record Trace", JOptionPane.ERROR_MESSAGE);
+        }
+        traceRecorder = null;
+        recordButton.setText("Record Trace...");
     }
     
     public static void main(String[] args) {
@@ -112,11 +397,38 @@ public class ProcessVisualizationTool extends JFrame {
     }
     
     /**
-     * Panel for drawing and interacting with process nodes
+     * Panel for drawing and interacting with process nodes; it needs no frame, so
+     * {@link TraceReplay} can drive one headlessly
      */
-    private class DrawingPanel extends JPanel {
+    static class DrawingPanel extends JPanel implements MinimapPanel.Painter {
+        private static final int METRICS_FRAME_MILLIS = 33;
+        private static final int METRICS_CAPACITY = 1 << 20;
+        private static final int DEMO_UPDATES_PER_SECOND = 200_000;
+        private static final int GRID_CELL_SIZE = 128;
+        private static final int PASTE_OFFSET = 20;
+        private static final int EDGE_PICK_TOLERANCE = 5;
+        private static final int FRAME_PADDING = 20;
+        private static final int FRAME_HEADER = 24;
+        private static final int PAGE_MARGIN = 512;
+        private static final int WRITEBACK_DELAY_MILLIS = 2000;
+        // Connections must stay put this long before they are bundled again, so a drag rebundles once
+        private static final int REBUNDLE_DELAY_MILLIS = 300;
+        private static final double MIN_ZOOM = 0.1;
+        private static final double MAX_ZOOM = 4;
+        private static final double WHEEL_ZOOM_STEP = 1.15;
+        private static final int JUMP_CONTEXT = 6;
+        private static final int SEARCH_LIMIT = 200;
+        private static final int EXPORT_MARGIN = 20;
+        // Node outlines on screen inherit the round 1.5 stroke the connections leave behind
+        private static final float EXPORT_OUTLINE_WIDTH = 1.5f;
+        
         private List<ProcessNode> nodes;
         private List<Connection> connections;
+        private Map<Integer, ProcessNode> nodesById;
+        /** Live metrics are published by uid, which stays the same across reloads and paging */
+        private Map<Long, ProcessNode> nodesByUid;
+        private Map<Long, Connection> connectionsByKey;
+        private int nextNodeId = 1;
         private ProcessNode selectedNode;
         private ProcessNode sourceNode;
         private ProcessNode destinationNode;
@@ -125,45 +437,231 @@ public class ProcessVisualizationTool extends JFrame {
         private boolean connectingMode;
         private boolean deleteMode;
         
+        // Multi-selection, rubber band and batched moves
+        private SpatialGrid<ProcessNode> nodeGrid;
+        private SpatialGrid<Connection> edgeGrid;
+        private Connection selectedConnection;
+        private Set<ProcessNode> selection;
+        private Point rubberBandStart;
+        private Rectangle rubberBand;
+        private int pendingDx, pendingDy;
+        private boolean moveScheduled;
+        private List<ProcessNode> clipboardNodes;
+        private List<int[]> clipboardConnections;
+        private int pasteCount;
+        private final EndpointSolver.Batch endpointBatch = new EndpointSolver.Batch();
+        private final Color frameFill = new Color(255, 250, 240);
+        private final float[] frameDash = {6f, 4f};
+        
+        // Live metrics state, only touched on the EDT apart from the aggregator itself
+        private MetricsAggregator metrics;
+        private MetricsSource metricsSource;
+        private MetricsGenerator metricsGenerator;
+        private javax.swing.Timer metricsTimer;
+        private long lastMetricsFold;
+        private double maxNodeLatency = 1;
+        private double maxEdgeRate = 1;
+        
+        // Bumped on every structural edit so stale analysis results can be discarded
+        private long graphVersion;
+        private GraphAnalytics.Result analysis;
+        // Position of each critical path node along the path, by node id
+        private Map<Integer, Integer> criticalPathPosition;
+        private boolean analysisRunning;
+        
+        // Edge bundling, recomputed in the background once connections stop being added, removed or moved
+        private boolean bundling;
+        private long edgeLayoutVersion;
+        private EdgeBundler.Result bundles;
+        private boolean bundlingRunning;
+        private javax.swing.Timer rebundleTimer;
+        
+        // Hover and selection highlighting, answered from a cached primitive index
+        private ReachabilityIndex reachability;
+        private ProcessNode hoverNode;
+        private ProcessNode pathAnchor;
+        
+        // Subprocesses: children of collapsed ones stay in the store, expanded ones are evicted LRU
+        private DiagramStore store;
+        /** Store used outside paged mode; a page directory brings its own, so its pages can be reopened */
+        private DiagramStore defaultStore;
+        private Map<ProcessNode, Subprocess> subprocesses;
+        private Map<ProcessNode, ProcessNode> parentOf;
+        private Set<ProcessNode> expandedOrder;
+        private long nextUid = System.currentTimeMillis() << 16;
+        
+        // Out-of-core paging of the top-level diagram, all null unless a page directory is open
+        private RegionPager pager;
+        private Map<ProcessNode, RegionPager.Page> pageOf;
+        private Map<Long, List<RegionPager.PendingEdge>> pendingEdges;
+        private javax.swing.Timer writebackTimer;
+        private boolean installingPages;
+        private boolean evictingPage;
+        
+        // Overview of the whole canvas, told about every area whose contents change
+        private MinimapPanel minimap;
+        
+        // Bumped on the EDT by every change to what the wallboard draws, which copies the diagram again then
+        private long sceneVersion;
+        
+        // Label search and zoom; model coordinates are screen coordinates divided by zoom
+        private final LabelIndex labelIndex = new LabelIndex();
+        private Set<ProcessNode> searchHits = Collections.emptySet();
+        private ProcessNode jumpTarget;
+        private int searchTotal;
+        private double zoom = 1;
+        
+        // Structural diff against a saved version, drawn over the canvas until Escape
+        private DiagramDiff.Result diff;
+        private DiagramStore.Diagram diffBefore;
+        private DiagramStore.Diagram diffAfter;
+        private List<ProcessNode> diffNodes;
+        
         public DrawingPanel() {
             nodes = new ArrayList<>();
             connections = new ArrayList<>();
+            nodesById = new HashMap<>();
+            nodesByUid = new HashMap<>();
+            connectionsByKey = new HashMap<>();
+            nodeGrid = new SpatialGrid<>(GRID_CELL_SIZE);
+            edgeGrid = new SpatialGrid<>(GRID_CELL_SIZE);
+            nodeGrid.setChangeListener(this::contentsChanged);
+            edgeGrid.setChangeListener(area -> {
+                edgeLayoutVersion++;
+                if (bundling) {
+                    rebundleTimer.restart();
+                }
+                contentsChanged(area);
+            });
+            rebundleTimer = new javax.swing.Timer(REBUNDLE_DELAY_MILLIS, e -> rebundle());
+            rebundleTimer.setRepeats(false);
+            selection = new LinkedHashSet<>();
+            clipboardNodes = new ArrayList<>();
+            clipboardConnections = new ArrayList<>();
+            subprocesses = new IdentityHashMap<>();
+            parentOf = new IdentityHashMap<>();
+            expandedOrder = new LinkedHashSet<>();
             selectedNode = null;
             connectingMode = false;
             deleteMode = false;
+            setFocusable(true);
             
             // Mouse listeners for node interactions
             MouseAdapter mouseAdapter = new MouseAdapter() {
                 @Override
                 public void mousePressed(MouseEvent e) {
-                    handleMousePressed(e);
+                    handleMousePressed(toModel(e));
                 }
                 
                 @Override
                 public void mouseReleased(MouseEvent e) {
-                    handleMouseReleased(e);
+                    handleMouseReleased(toModel(e));
                 }
                 
                 @Override
                 public void mouseDragged(MouseEvent e) {
-                    handleMouseDragged(e);
+                    handleMouseDragged(toModel(e));
                 }
                 
                 @Override
                 public void mouseMoved(MouseEvent e) {
-                    repaint();
+                    handleMouseMoved(toModel(e));
+                }
+                
+                @Override
+                public void mouseWheelMoved(MouseWheelEvent e) {
+                    handleMouseWheel(e);
                 }
             };
             
             addMouseListener(mouseAdapter);
             addMouseMotionListener(mouseAdapter);
+            addMouseWheelListener(mouseAdapter);
+            setupKeyBindings();
+        }
+        
+        private void setupKeyBindings() {
+            InputMap inputMap = getInputMap(JComponent.WHEN_FOCUSED);
+            ActionMap actionMap = getActionMap();
+            int shortcut = InputEvent.CTRL_DOWN_MASK;
+            
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0), "deleteSelection");
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_BACK_SPACE, 0), "deleteSelection");
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_C, shortcut), "copySelection");
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_V, shortcut), "pasteSelection");
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_A, shortcut), "selectAll");
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_G, shortcut), "groupSelection");
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_ESCAPE, 0), "clearSelection");
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_F2, 0), "renameSelection");
+            inputMap.put(KeyStroke.getKeyStroke(KeyEvent.VK_0, shortcut), "resetZoom");
+            
+            actionMap.put("deleteSelection", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    if (!deleteSelectedConnection()) {
+                        deleteSelection();
+                    }
+                }
+            });
+            actionMap.put("copySelection", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    copySelection();
+                }
+            });
+            actionMap.put("pasteSelection", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    pasteSelection();
+                }
+            });
+            actionMap.put("selectAll", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    selection.addAll(nodes);
+                    repaint();
+                }
+            });
+            actionMap.put("groupSelection", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    groupSelection();
+                }
+            });
+            actionMap.put("renameSelection", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    if (selection.size() == 1) {
+                        promptRename(selection.iterator().next());
+                    }
+                }
+            });
+            actionMap.put("resetZoom", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    Rectangle visible = getVisibleRect();
+                    zoomAt(new Point(visible.x + visible.width / 2, visible.y + visible.height / 2), 1);
+                }
+            });
+            actionMap.put("clearSelection", new AbstractAction() {
+                @Override
+                public void actionPerformed(ActionEvent e) {
+                    selection.clear();
+                    selectedConnection = null;
+                    diff = null;
+                    repaint();
+                }
+            });
         }
         
         private void handleMousePressed(MouseEvent e) {
+            requestFocusInWindow();
             if (nodeToAdd != null) {
                 // Add a new node
                 ProcessNode node = createNode(nodeToAdd, e.getX(), e.getY());
-                nodes.add(node);
+                addNode(node);
+                adoptIntoFrame(node);
+                pageTouched(node);
                 nodeToAdd = null;
                 repaint();
                 return;
@@ -171,13 +669,17 @@ public class ProcessVisualizationTool extends JFrame {
             
             ProcessNode clickedNode = getNodeAt(e.getX(), e.getY());
             
+            // Nodes are drawn above connections, so they win the pick
+            Connection clickedConnection = clickedNode == null ? getConnectionAt(e.getX(), e.getY()) : null;
+            
             if (deleteMode) {
                 if (clickedNode != null) {
                     // Delete node and its connections
-                    nodes.remove(clickedNode);
-                    connections.removeIf(connection -> 
-                        connection.getSource() == clickedNode || 
-                        connection.getDestination() == clickedNode);
+                    deleteNodes(Collections.singleton(clickedNode));
+                    deleteMode = false;
+                    repaint();
+                } else if (clickedConnection != null) {
+                    removeConnection(clickedConnection);
                     deleteMode = false;
                     repaint();
                 }
@@ -190,8 +692,12 @@ public class ProcessVisualizationTool extends JFrame {
                         sourceNode = clickedNode;
                     } else {
                         destinationNode = clickedNode;
-                        if (sourceNode != destinationNode) {
-                            connections.add(new Connection(sourceNode, destinationNode));
+                        if (isAncestor(sourceNode, destinationNode) || isAncestor(destinationNode, sourceNode)) {
+                            // A subprocess cannot be wired to its own contents
+                            Toolkit.getDefaultToolkit().beep();
+                            destinationNode = null;
+                        } else if (sourceNode != destinationNode) {
+                            addConnection(new Connection(sourceNode, destinationNode));
                             sourceNode = null;
                             destinationNode = null;
                             connectingMode = false;
@@ -202,14 +708,72 @@ public class ProcessVisualizationTool extends JFrame {
                 return;
             }
             
-            selectedNode = clickedNode;
-            if (selectedNode != null) {
+            if (clickedNode != null && e.getClickCount() == 2 && subprocesses.containsKey(clickedNode)) {
+                toggleSubprocess(clickedNode);
+                repaint();
+                return;
+            }
+            if (clickedNode != null && e.getClickCount() == 2) {
+                promptRename(clickedNode);
+                return;
+            }
+            
+            pathAnchor = clickedNode;
+            selectedConnection = clickedConnection;
+            if (clickedConnection != null) {
+                if (!e.isShiftDown()) {
+                    selection.clear();
+                }
+            } else if (clickedNode == null) {
+                // Start a rubber band selection on empty canvas
+                if (!e.isShiftDown()) {
+                    selection.clear();
+                }
+                rubberBandStart = e.getPoint();
+                rubberBand = new Rectangle(rubberBandStart);
+            } else if (e.isShiftDown()) {
+                if (!selection.remove(clickedNode)) {
+                    selection.add(clickedNode);
+                }
+            } else {
+                if (!selection.contains(clickedNode)) {
+                    selection.clear();
+                    selection.add(clickedNode);
+                }
+                selectedNode = clickedNode;
                 dragStartPoint = e.getPoint();
             }
+            repaint();
+        }
+        
+        private void handleMouseMoved(MouseEvent e) {
+            // The temporary connection line follows the mouse
+            if (connectingMode && sourceNode != null) {
+                repaint();
+            }
+            
+            ProcessNode hovered = getNodeAt(e.getX(), e.getY());
+            if (hovered != hoverNode) {
+                hoverNode = hovered;
+                repaint();
+            }
         }
         
         private void handleMouseReleased(MouseEvent e) {
+            if (rubberBand != null) {
+                // Range query against the grid instead of scanning every node
+                Rectangle area = rubberBand;
+                nodeGrid.query(area, node -> {
+                    if (area.contains(node.getBounds())) {
+                        selection.add(node);
+                    }
+                });
+                rubberBand = null;
+                rubberBandStart = null;
+                repaint();
+            }
             if (selectedNode != null) {
+                flushPendingMove();
                 selectedNode = null;
                 dragStartPoint = null;
                 repaint();
@@ -217,140 +781,2368 @@ public class ProcessVisualizationTool extends JFrame {
         }
         
         private void handleMouseDragged(MouseEvent e) {
+            if (rubberBand != null) {
+                rubberBand = new Rectangle(rubberBandStart);
+                rubberBand.add(e.getPoint());
+                repaint();
+                return;
+            }
             if (selectedNode != null && dragStartPoint != null) {
-                int dx = e.getX() - dragStartPoint.x;
-                int dy = e.getY() - dragStartPoint.y;
-                selectedNode.move(dx, dy);
+                pendingDx += e.getX() - dragStartPoint.x;
+                pendingDy += e.getY() - dragStartPoint.y;
                 dragStartPoint = e.getPoint();
-                repaint();
+                
+                // Coalesce drag events into one model update and one repaint per frame
+                if (!moveScheduled) {
+                    moveScheduled = true;
+                    SwingUtilities.invokeLater(this::flushPendingMove);
+                }
             }
         }
         
-        private ProcessNode getNodeAt(int x, int y) {
-            // Check from last (top) to first (bottom) to handle overlapping nodes
-            for (int i = nodes.size() - 1; i >= 0; i--) {
-                ProcessNode node = nodes.get(i);
-                if (node.contains(x, y)) {
-                    return node;
+        private void flushPendingMove() {
+            moveScheduled = false;
+            if (pendingDx == 0 && pendingDy == 0) {
+                return;
+            }
+            // Expanded subprocesses carry their contents along
+            Set<ProcessNode> moved = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (ProcessNode node : selection) {
+                addWithDescendants(node, moved);
+            }
+            Set<Connection> touched = Collections.newSetFromMap(new IdentityHashMap<>());
+            Set<ProcessNode> frames = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (ProcessNode node : moved) {
+                node.move(pendingDx, pendingDy);
+                nodeGrid.put(node, node.getBounds());
+                pageTouched(node);
+                touched.addAll(node.incident);
+                ProcessNode parent = parentOf.get(node);
+                if (parent != null && !moved.contains(parent)) {
+                    frames.add(parent);
                 }
             }
-            return null;
+            updateConnectionGeometry(touched);
+            for (ProcessNode frame : frames) {
+                fitFrame(frame);
+            }
+            pendingDx = 0;
+            pendingDy = 0;
+            diff = null;
+            repaint();
         }
         
-        public void prepareToAddNode(String nodeType) {
-            nodeToAdd = nodeType;
-            connectingMode = false;
-            deleteMode = false;
-            sourceNode = null;
-            destinationNode = null;
-            setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
+        /**
+         * Recomputes the endpoints of many connections, in one batch when the vector kernels
+         * are available, and re-indexes them
+         */
+        private void updateConnectionGeometry(Collection<Connection> changed) {
+            if (changed.size() == 1 || !EndpointSolver.isVectorized()) {
+                // Filling the batch arrays only pays off with the vector kernels, see EndpointSolverBenchmark
+                for (Connection connection : changed) {
+                    connection.updateGeometry();
+                    indexConnection(connection);
+                }
+                return;
+            }
+            
+            endpointBatch.clear();
+            int[] slots = new int[changed.size() * 2];
+            int i = 0;
+            for (Connection connection : changed) {
+                ProcessNode source = connection.getSource();
+                ProcessNode destination = connection.getDestination();
+                slots[i++] = source.addEndpoint(endpointBatch, destination.getCenter());
+                slots[i++] = destination.addEndpoint(endpointBatch, source.getCenter());
+            }
+            endpointBatch.solve();
+            
+            i = 0;
+            for (Connection connection : changed) {
+                int startSlot = slots[i++];
+                int endSlot = slots[i++];
+                connection.setEndpoints((int) endpointBatch.x(startSlot), (int) endpointBatch.y(startSlot),
+                    (int) endpointBatch.x(endSlot), (int) endpointBatch.y(endSlot));
+                indexConnection(connection);
+            }
         }
         
-        public void setConnectingMode(boolean connecting) {
-            connectingMode = connecting;
-            deleteMode = false;
-            nodeToAdd = null;
-            sourceNode = null;
-            destinationNode = null;
-            if (connecting) {
-                setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
-            } else {
-                setCursor(Cursor.getDefaultCursor());
-            }
+        /**
+         * Indexes a connection by the cells along its line rather than its bounding box
+         */
+        private void indexConnection(Connection connection) {
+            Point start = connection.getStart();
+            Point end = connection.getEnd();
+            edgeGrid.putSegment(connection, start.x, start.y, end.x, end.y, Connection.MARGIN);
         }
         
-        public void prepareToDelete() {
-            deleteMode = true;
-            connectingMode = false;
-            nodeToAdd = null;
-            sourceNode = null;
-            destinationNode = null;
-            setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        /**
+         * Closest connection within the pick tolerance of the point, or null
+         */
+        private Connection getConnectionAt(int x, int y) {
+            Connection[] closest = new Connection[1];
+            double[] best = {EDGE_PICK_TOLERANCE};
+            Rectangle area = new Rectangle(x - EDGE_PICK_TOLERANCE, y - EDGE_PICK_TOLERANCE,
+                EDGE_PICK_TOLERANCE * 2 + 1, EDGE_PICK_TOLERANCE * 2 + 1);
+            edgeGrid.query(area, connection -> {
+                double distance = connection.distanceTo(x, y);
+                if (distance <= best[0]) {
+                    best[0] = distance;
+                    closest[0] = connection;
+                }
+            });
+            return closest[0];
         }
         
-        public void clearAll() {
-            nodes.clear();
-            connections.clear();
-            selectedNode = null;
-            sourceNode = null;
-            destinationNode = null;
-            connectingMode = false;
-            deleteMode = false;
-            nodeToAdd = null;
-            setCursor(Cursor.getDefaultCursor());
+        /**
+         * Deletes the selected connection, returns false if none was selected
+         */
+        public boolean deleteSelectedConnection() {
+            if (selectedConnection == null) {
+                return false;
+            }
+            removeConnection(selectedConnection);
             repaint();
+            return true;
         }
         
-        private ProcessNode createNode(String type, int x, int y) {
-            switch (type) {
-                case "Process":
-                    return new ProcessNode(x, y, 120, 60, type, new Color(173, 216, 230));
-                case "Decision":
-                    return new DiamondNode(x, y, 100, 100, type, new Color(255, 255, 153));
-                case "Start":
-                case "End":
-                    return new OvalNode(x, y, 80, 40, type, type.equals("Start") ? 
-                          new Color(144, 238, 144) : new Color(255, 204, 204));
-                case "Input/Output":
-                    return new ParallelogramNode(x, y, 120, 60, type, new Color(204, 204, 255));
-                default:
-                    return new ProcessNode(x, y, 120, 60, "Generic", Color.lightGray);
+        private void removeConnection(Connection connection) {
+            if (!connections.remove(connection)) {
+                return;
+            }
+            graphChanged();
+            markPageDirty(connection.getSource());
+            if (connectionsByKey.remove(connection.getKey(), connection)) {
+                // A duplicate between the same nodes takes over the key, so metrics still reach it
+                for (Connection other : connection.getSource().incident) {
+                    if (other != connection && other.getKey() == connection.getKey()) {
+                        connectionsByKey.put(other.getKey(), other);
+                        break;
+                    }
+                }
+            }
+            connection.getSource().incident.remove(connection);
+            connection.getDestination().incident.remove(connection);
+            edgeGrid.remove(connection);
+            if (selectedConnection == connection) {
+                selectedConnection = null;
             }
         }
         
-        @Override
-        protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
-            Graphics2D g2d = (Graphics2D) g;
-            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-            
-            // Draw connections
-            for (Connection connection : connections) {
-                connection.draw(g2d);
+        /**
+         * Deletes every selected node with its connections, returns false if nothing was selected
+         */
+        public int getSelectionSize() {
+            return selection.size();
+        }
+        
+        public boolean deleteSelection() {
+            if (selection.isEmpty()) {
+                return false;
             }
-            
-            // Draw temporary connection line while in connecting mode
-            if (connectingMode && sourceNode != null) {
-                Point start = sourceNode.getConnectionPoint(getMousePosition());
-                Point end = getMousePosition();
-                if (end != null) {
-                    g2d.setColor(Color.BLACK);
-                    g2d.setStroke(new BasicStroke(1.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                    g2d.drawLine(start.x, start.y, end.x, end.y);
-                    
-                    // Draw arrowhead
-                    drawArrowHead(g2d, start, end);
-                }
+            deleteNodes(selection);
+            selection.clear();
+            repaint();
+            return true;
+        }
+        
+        private void copySelection() {
+            if (selection.isEmpty()) {
+                return;
             }
-            
-            // Draw nodes
-            for (ProcessNode node : nodes) {
-                node.draw(g2d);
+            clipboardNodes = new ArrayList<>(selection);
+            Map<ProcessNode, Integer> position = new IdentityHashMap<>();
+            for (int i = 0; i < clipboardNodes.size(); i++) {
+                position.put(clipboardNodes.get(i), i);
             }
             
-            // Draw status text
-            g2d.setColor(Color.DARK_GRAY);
-            String statusText = "";
-            if (nodeToAdd != null) {
-                statusText = "Click to place a " + nodeToAdd + " node";
-            } else if (connectingMode) {
-                if (sourceNode == null) {
-                    statusText = "Select source node";
-                } else {
-                    statusText = "Select destination node";
+            // Only connections with both ends inside the selection are copied
+            clipboardConnections = new ArrayList<>();
+            for (Connection connection : connections) {
+                Integer from = position.get(connection.getSource());
+                Integer to = position.get(connection.getDestination());
+                if (from != null && to != null) {
+                    clipboardConnections.add(new int[] {from, to});
                 }
-            } else if (deleteMode) {
-                statusText = "Click on a node to delete it";
             }
-            g2d.drawString(statusText, 10, getHeight() - 10);
+            pasteCount = 0;
         }
         
-        private void drawArrowHead(Graphics2D g2d, Point from, Point to) {
-            double dx = to.x - from.x;
-            double dy = to.y - from.y;
-            double angle = Math.atan2(dy, dx);
-            int len = 12;
-            
+        private void pasteSelection() {
+            if (clipboardNodes.isEmpty()) {
+                return;
+            }
+            pasteCount++;
+            int offset = PASTE_OFFSET * pasteCount;
+            List<ProcessNode> pasted = new ArrayList<>(clipboardNodes.size());
+            for (ProcessNode original : clipboardNodes) {
+                Point center = original.getCenter();
+                ProcessNode copy = createNode(original.type, center.x + offset, center.y + offset);
+                copy.label = original.label;
+                copySubprocessContents(original, copy);
+                addNode(copy);
+                adoptIntoFrame(copy);
+                pageTouched(copy);
+                pasted.add(copy);
+            }
+            for (int[] link : clipboardConnections) {
+                addConnection(new Connection(pasted.get(link[0]), pasted.get(link[1])));
+            }
+            selection.clear();
+            selection.addAll(pasted);
+            repaint();
+        }
+        
+        private void addNode(ProcessNode node) {
+            node.id = nextNodeId++;
+            if (node.uid == 0) {
+                node.uid = nextUid++;
+            }
+            nodes.add(node);
+            nodesById.put(node.id, node);
+            nodesByUid.put(node.uid, node);
+            nodeGrid.put(node, node.getBounds());
+            labelIndex.add(node.id, node.label);
+            graphChanged();
+        }
+        
+        /**
+         * Removes a set of nodes and all their connections in a single pass over each list
+         */
+        private void removeNodes(Collection<ProcessNode> removed) {
+            Set<ProcessNode> doomed = Collections.newSetFromMap(new IdentityHashMap<>());
+            doomed.addAll(removed);
+            graphChanged();
+            if (doomed.contains(hoverNode)) {
+                hoverNode = null;
+            }
+            if (doomed.contains(pathAnchor)) {
+                pathAnchor = null;
+            }
+            if (doomed.contains(jumpTarget)) {
+                jumpTarget = null;
+            }
+            for (ProcessNode node : doomed) {
+                nodesById.remove(node.id);
+                nodesByUid.remove(node.uid, node);
+                nodeGrid.remove(node);
+                labelIndex.remove(node.id);
+                subprocesses.remove(node);
+                expandedOrder.remove(node);
+                if (pageOf != null) {
+                    markPageDirty(node);
+                    RegionPager.Page page = pageOf.remove(node);
+                    if (page != null) {
+                        page.nodes.remove(node.uid);
+                    }
+                }
+                ProcessNode parent = parentOf.remove(node);
+                if (parent != null && !doomed.contains(parent)) {
+                    subprocesses.get(parent).children.remove(node);
+                }
+            }
+            if (pendingEdges != null) {
+                // Otherwise the target page would connect the deleted node once it is installed
+                for (List<RegionPager.PendingEdge> waiting : pendingEdges.values()) {
+                    waiting.removeIf(edge -> doomed.contains(edge.source));
+                }
+            }
+            nodes.removeIf(doomed::contains);
+            selection.removeIf(doomed::contains);
+            boolean hitsRemoved = !searchHits.isEmpty() && searchHits.removeIf(doomed::contains);
+            connections.removeIf(connection -> {
+                boolean incident = doomed.contains(connection.getSource())
+                    || doomed.contains(connection.getDestination());
+                if (incident) {
+                    markPageDirty(connection.getSource());
+                    connectionsByKey.remove(connection.getKey(), connection);
+                    edgeGrid.remove(connection);
+                    if (selectedConnection == connection) {
+                        selectedConnection = null;
+                    }
+                    // Surviving endpoints forget the connection
+                    if (!doomed.contains(connection.getSource())) {
+                        connection.getSource().incident.remove(connection);
+                    }
+                    if (!doomed.contains(connection.getDestination())) {
+                        connection.getDestination().incident.remove(connection);
+                    }
+                }
+                return incident;
+            });
+            if (hitsRemoved) {
+                // The frame's result list still holds the removed nodes, so it searches again
+                firePropertyChange("searchHitsRemoved", false, true);
+            }
+        }
+        
+        private void addConnection(Connection connection) {
+            connections.add(connection);
+            connectionsByKey.putIfAbsent(connection.getKey(), connection);
+            connection.getSource().incident.add(connection);
+            connection.getDestination().incident.add(connection);
+            indexConnection(connection);
+            markPageDirty(connection.getSource());
+            graphChanged();
+        }
+        
+        private void graphChanged() {
+            graphVersion++;
+            sceneVersion++;
+            analysis = null;
+            criticalPathPosition = null;
+            // The diff was computed from the diagram before the edit
+            diff = null;
+        }
+        
+        private ProcessNode getNodeAt(int x, int y) {
+            ProcessNode[] top = new ProcessNode[1];
+            nodeGrid.query(new Rectangle(x, y, 1, 1), node -> {
+                if (node.contains(x, y) && (top[0] == null || isDrawnAbove(node, top[0]))) {
+                    top[0] = node;
+                }
+            });
+            return top[0];
+        }
+        
+        /**
+         * Expanded frames lie under every plain node and nested frames above their parents;
+         * otherwise later nodes are drawn on top and have larger ids, so the largest id wins
+         */
+        private boolean isDrawnAbove(ProcessNode a, ProcessNode b) {
+            boolean aFrame = isExpanded(a);
+            boolean bFrame = isExpanded(b);
+            if (aFrame != bFrame) {
+                return bFrame;
+            }
+            if (aFrame) {
+                int aDepth = depth(a);
+                int bDepth = depth(b);
+                if (aDepth != bDepth) {
+                    return aDepth > bDepth;
+                }
+            }
+            return a.id > b.id;
+        }
+        
+        private boolean isExpanded(ProcessNode node) {
+            Subprocess subprocess = subprocesses.get(node);
+            return subprocess != null && subprocess.isExpanded();
+        }
+        
+        private int depth(ProcessNode node) {
+            int depth = 0;
+            for (ProcessNode parent = parentOf.get(node); parent != null; parent = parentOf.get(parent)) {
+                depth++;
+            }
+            return depth;
+        }
+        
+        /**
+         * True when the node lies, at any depth, inside the expanded subprocess
+         */
+        private boolean isAncestor(ProcessNode container, ProcessNode node) {
+            for (ProcessNode parent = parentOf.get(node); parent != null; parent = parentOf.get(parent)) {
+                if (parent == container) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        
+        private void addWithDescendants(ProcessNode node, Set<ProcessNode> target) {
+            if (!target.add(node)) {
+                return;
+            }
+            Subprocess subprocess = subprocesses.get(node);
+            if (subprocess != null && subprocess.isExpanded()) {
+                for (ProcessNode child : subprocess.children) {
+                    addWithDescendants(child, target);
+                }
+            }
+        }
+        
+        private DiagramStore getStore() throws IOException {
+            if (store == null) {
+                if (defaultStore == null) {
+                    defaultStore = DiagramStore.openDefault();
+                }
+                store = defaultStore;
+            }
+            return store;
+        }
+        
+        /**
+         * Deletes nodes at the user's request, together with the contents of expanded subprocesses
+         */
+        private void deleteNodes(Collection<ProcessNode> removed) {
+            Set<ProcessNode> doomed = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (ProcessNode node : removed) {
+                addWithDescendants(node, doomed);
+            }
+            Set<ProcessNode> frames = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (ProcessNode node : doomed) {
+                ProcessNode parent = parentOf.get(node);
+                if (parent != null && !doomed.contains(parent)) {
+                    frames.add(parent);
+                }
+                // Files of subprocesses nested in collapsed ones are not visited, that would mean loading them
+                Subprocess subprocess = subprocesses.get(node);
+                if (subprocess != null && store != null) {
+                    store.delete(subprocess.key);
+                }
+            }
+            removeNodes(doomed);
+            for (ProcessNode frame : frames) {
+                fitFrame(frame);
+            }
+        }
+        
+        private void toggleSubprocess(ProcessNode container) {
+            if (isExpanded(container)) {
+                collapseSubprocess(container);
+            } else {
+                expandSubprocess(container);
+            }
+        }
+        
+        /**
+         * Pages the children of a collapsed subprocess in from the store and lays them out inside
+         * its frame; aggregated connections are split back onto the children they stand for
+         */
+        private void expandSubprocess(ProcessNode container) {
+            Subprocess subprocess = subprocesses.get(container);
+            if (subprocess == null || subprocess.isExpanded()) {
+                return;
+            }
+            DiagramStore.Diagram diagram;
+            try {
+                diagram = getStore().load(subprocess.key);
+            } catch (IOException ex) {
+                showStoreError("Could not load " + container.label, ex);
+                return;
+            }
+            
+            subprocess.expanded(diagram, container.width, container.height);
+            ProcessNode[] children = new ProcessNode[diagram.nodeCount];
+            Map<Long, ProcessNode> childByUid = new HashMap<>();
+            for (int i = 0; i < diagram.nodeCount; i++) {
+                ProcessNode child = new ProcessNode(NodeType.get(diagram.types[i]), 0, 0,
+                    diagram.widths[i], diagram.heights[i], diagram.labels[i]);
+                child.x = container.x + diagram.xs[i];
+                child.y = container.y + FRAME_HEADER + diagram.ys[i];
+                child.uid = diagram.uids[i];
+                if (diagram.childKeys[i] != null) {
+                    subprocesses.put(child, new Subprocess(diagram.childKeys[i]));
+                }
+                addNode(child);
+                parentOf.put(child, container);
+                subprocess.children.add(child);
+                children[i] = child;
+                childByUid.put(child.uid, child);
+            }
+            for (int e = 0; e < diagram.edgeCount; e++) {
+                link(children[diagram.edgeSources[e]], children[diagram.edgeTargets[e]],
+                    diagram.sourcePaths[e], diagram.targetPaths[e]);
+            }
+            
+            for (Connection connection : new ArrayList<>(container.incident)) {
+                if (!connection.isAggregated()) {
+                    continue;
+                }
+                boolean outgoing = connection.getSource() == container;
+                removeConnection(connection);
+                for (long[][] member : connection.getMembers()) {
+                    long[] inner = outgoing ? member[0] : member[1];
+                    ProcessNode endpoint = container;
+                    if (inner.length > 0) {
+                        endpoint = childByUid.get(inner[0]);
+                        if (endpoint == null) {
+                            // The child was deleted after this edge was folded away
+                            continue;
+                        }
+                        inner = Arrays.copyOfRange(inner, 1, inner.length);
+                    }
+                    if (outgoing) {
+                        link(endpoint, connection.getDestination(), inner, member[1]);
+                    } else {
+                        link(connection.getSource(), endpoint, member[0], inner);
+                    }
+                }
+            }
+            
+            expandedOrder.remove(container);
+            expandedOrder.add(container);
+            fitFrame(container);
+            enforceResidentBudget(container);
+        }
+        
+        /**
+         * Writes the children of an expanded subprocess back to the store if they changed and
+         * unloads them; connections crossing the frame are folded into aggregated connections
+         */
+        private void collapseSubprocess(ProcessNode container) {
+            Subprocess subprocess = subprocesses.get(container);
+            if (subprocess == null || !subprocess.isExpanded()) {
+                return;
+            }
+            // Innermost first, so every nested subprocess is stored collapsed
+            for (ProcessNode child : new ArrayList<>(subprocess.children)) {
+                collapseSubprocess(child);
+            }
+            
+            DiagramStore.Diagram.Builder builder = new DiagramStore.Diagram.Builder();
+            Map<ProcessNode, Integer> index = new IdentityHashMap<>();
+            for (ProcessNode child : subprocess.children) {
+                Subprocess nested = subprocesses.get(child);
+                index.put(child, builder.addNode(child.uid, child.type.getName(),
+                    child.x - container.x, child.y - container.y - FRAME_HEADER,
+                    child.width, child.height, child.label, nested != null ? nested.key : null));
+            }
+            
+            Set<Connection> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            List<Connection> boundary = new ArrayList<>();
+            for (ProcessNode child : subprocess.children) {
+                for (Connection connection : child.incident) {
+                    if (!seen.add(connection)) {
+                        continue;
+                    }
+                    Integer from = index.get(connection.getSource());
+                    Integer to = index.get(connection.getDestination());
+                    if (from != null && to != null) {
+                        for (long[][] member : connection.getMembers()) {
+                            builder.addEdge(from, to, member[0], member[1]);
+                        }
+                    } else {
+                        boundary.add(connection);
+                    }
+                }
+            }
+            
+            DiagramStore.Diagram diagram = builder.build();
+            if (!diagram.equals(subprocess.expandedFrom)) {
+                try {
+                    getStore().save(subprocess.key, diagram);
+                } catch (IOException ex) {
+                    // The store keeps the diagram in memory under the key until a later save succeeds
+                    showStoreError("Could not save " + container.label + ", keeping it in memory", ex);
+                }
+            }
+            
+            removeNodes(subprocess.children);
+            subprocess.collapsed();
+            expandedOrder.remove(container);
+            container.width = subprocess.collapsedWidth;
+            container.height = subprocess.collapsedHeight;
+            nodeGrid.put(container, container.getBounds());
+            
+            for (Connection connection : boundary) {
+                boolean outgoing = index.containsKey(connection.getSource());
+                for (long[][] member : connection.getMembers()) {
+                    if (outgoing) {
+                        link(container, connection.getDestination(),
+                            prepend(connection.getSource().uid, member[0]), member[1]);
+                    } else {
+                        link(connection.getSource(), container,
+                            member[0], prepend(connection.getDestination().uid, member[1]));
+                    }
+                }
+            }
+            updateConnectionGeometry(container.incident);
+            fitFrame(parentOf.get(container));
+        }
+        
+        private long[] prepend(long uid, long[] path) {
+            long[] result = new long[path.length + 1];
+            result[0] = uid;
+            System.arraycopy(path, 0, result, 1, path.length);
+            return result;
+        }
+        
+        /**
+         * Adds an edge between two visible nodes, merging it into an existing connection between them
+         */
+        private void link(ProcessNode source, ProcessNode destination, long[] sourcePath, long[] destinationPath) {
+            Connection existing = connectionsByKey.get(Connection.keyOf(source, destination));
+            if (existing != null) {
+                existing.addMember(sourcePath, destinationPath);
+                // The aggregated arrow is drawn with its new edge count
+                sceneVersion++;
+            } else {
+                addConnection(Connection.aggregate(source, destination, sourcePath, destinationPath));
+            }
+        }
+        
+        /**
+         * Collapses the least recently expanded subprocesses until the canvas is back under budget
+         */
+        private void enforceResidentBudget(ProcessNode keep) {
+            while (nodes.size() > MAX_RESIDENT_NODES) {
+                ProcessNode victim = null;
+                for (ProcessNode candidate : expandedOrder) {
+                    if (candidate != keep && !isAncestor(candidate, keep)) {
+                        victim = candidate;
+                        break;
+                    }
+                }
+                if (victim == null) {
+                    return;
+                }
+                collapseSubprocess(victim);
+            }
+        }
+        
+        /**
+         * Resizes an expanded frame, and the frames around it, to enclose their children
+         */
+        private void fitFrame(ProcessNode frame) {
+            for (; frame != null; frame = parentOf.get(frame)) {
+                Subprocess subprocess = subprocesses.get(frame);
+                Rectangle area = null;
+                for (ProcessNode child : subprocess.children) {
+                    if (area == null) {
+                        area = child.getBounds();
+                    } else {
+                        area.add(child.getBounds());
+                    }
+                }
+                Rectangle fitted = area == null
+                    ? new Rectangle(frame.x, frame.y, subprocess.collapsedWidth, subprocess.collapsedHeight)
+                    : new Rectangle(area.x - FRAME_PADDING, area.y - FRAME_PADDING - FRAME_HEADER,
+                        Math.max(subprocess.collapsedWidth, area.width + FRAME_PADDING * 2),
+                        Math.max(subprocess.collapsedHeight, area.height + FRAME_PADDING * 2 + FRAME_HEADER));
+                if (fitted.equals(frame.getBounds())) {
+                    return;
+                }
+                frame.x = fitted.x;
+                frame.y = fitted.y;
+                frame.width = fitted.width;
+                frame.height = fitted.height;
+                nodeGrid.put(frame, fitted);
+                updateConnectionGeometry(frame.incident);
+            }
+        }
+        
+        /**
+         * Makes a newly placed node a child of the innermost expanded frame around its centre
+         */
+        private void adoptIntoFrame(ProcessNode node) {
+            Point center = node.getCenter();
+            ProcessNode[] innermost = new ProcessNode[1];
+            nodeGrid.query(new Rectangle(center.x, center.y, 1, 1), candidate -> {
+                if (candidate != node && isExpanded(candidate) && candidate.getBounds().contains(center)
+                        && (innermost[0] == null || depth(candidate) > depth(innermost[0]))) {
+                    innermost[0] = candidate;
+                }
+            });
+            if (innermost[0] != null) {
+                parentOf.put(node, innermost[0]);
+                subprocesses.get(innermost[0]).children.add(node);
+                fitFrame(innermost[0]);
+            }
+        }
+        
+        /**
+         * Replaces the selected sibling nodes by a new collapsed subprocess containing them
+         */
+        private void groupSelection() {
+            if (selection.isEmpty()) {
+                return;
+            }
+            ProcessNode parent = parentOf.get(selection.iterator().next());
+            Rectangle area = null;
+            for (ProcessNode node : selection) {
+                if (parentOf.get(node) != parent) {
+                    // Only nodes of the same subprocess can be grouped
+                    Toolkit.getDefaultToolkit().beep();
+                    return;
+                }
+                if (area == null) {
+                    area = node.getBounds();
+                } else {
+                    area.add(node.getBounds());
+                }
+            }
+            
+            ProcessNode container = createNode(NodeType.SUBPROCESS, (int) area.getCenterX(), (int) area.getCenterY());
+            addNode(container);
+            Subprocess subprocess = subprocesses.get(container);
+            subprocess.expanded(DiagramStore.Diagram.EMPTY, container.width, container.height);
+            for (ProcessNode node : selection) {
+                if (pageOf != null && pageOf.containsKey(node)) {
+                    // Grouped nodes move from their page into the subprocess store file
+                    markPageDirty(node);
+                    pageOf.remove(node).nodes.remove(node.uid);
+                    // and their connections to unloaded pages now leave the subprocess box
+                    for (List<RegionPager.PendingEdge> waiting : pendingEdges.values()) {
+                        waiting.replaceAll(edge -> edge.source != node ? edge : new RegionPager.PendingEdge(
+                            container, prepend(node.uid, edge.sourcePath), edge.targetUid, edge.targetPath));
+                    }
+                }
+                parentOf.put(node, container);
+                subprocess.children.add(node);
+                if (parent != null) {
+                    subprocesses.get(parent).children.remove(node);
+                }
+            }
+            if (parent != null) {
+                parentOf.put(container, parent);
+                subprocesses.get(parent).children.add(container);
+            }
+            expandedOrder.add(container);
+            fitFrame(container);
+            collapseSubprocess(container);
+            pageTouched(container);
+            
+            // Collapsing leaves the box in the frame corner, centre it on the grouped nodes instead
+            Point center = container.getCenter();
+            container.move((int) area.getCenterX() - center.x, (int) area.getCenterY() - center.y);
+            nodeGrid.put(container, container.getBounds());
+            updateConnectionGeometry(container.incident);
+            fitFrame(parent);
+            
+            selection.clear();
+            selection.add(container);
+            repaint();
+        }
+        
+        private void copySubprocessContents(ProcessNode original, ProcessNode copy) {
+            Subprocess to = subprocesses.get(copy);
+            if (!subprocesses.containsKey(original) || to == null) {
+                return;
+            }
+            try {
+                copyContents(original, to.key);
+            } catch (IOException ex) {
+                showStoreError("Could not copy " + original.label, ex);
+            }
+        }
+        
+        /**
+         * Stores a copy of a subprocess's contents under the key. An expanded subprocess is
+         * copied from its resident children as if collapsed; every nested subprocess gets a copy
+         * of its own under a fresh key, so the copy never shares a file with the original
+         */
+        private void copyContents(ProcessNode container, String key) throws IOException {
+            Subprocess subprocess = subprocesses.get(container);
+            if (!subprocess.isExpanded()) {
+                getStore().copy(subprocess.key, key);
+                return;
+            }
+            DiagramStore.Diagram.Builder builder = new DiagramStore.Diagram.Builder();
+            Map<ProcessNode, Integer> index = new IdentityHashMap<>();
+            Set<ProcessNode> inside = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (ProcessNode child : subprocess.children) {
+                String childKey = null;
+                if (subprocesses.containsKey(child)) {
+                    childKey = DiagramStore.newKey();
+                    copyContents(child, childKey);
+                }
+                index.put(child, builder.addNode(child.uid, child.type.getName(),
+                    child.x - container.x, child.y - container.y - FRAME_HEADER,
+                    child.width, child.height, child.label, childKey));
+                addWithDescendants(child, inside);
+            }
+            
+            Set<Connection> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (ProcessNode member : inside) {
+                for (Connection connection : member.incident) {
+                    if (!seen.add(connection) || !isAncestor(container, connection.getSource())
+                            || !isAncestor(container, connection.getDestination())) {
+                        continue;
+                    }
+                    long[] sourcePath = pathBelow(container, connection.getSource());
+                    long[] targetPath = pathBelow(container, connection.getDestination());
+                    if (sourcePath.length > 1 && targetPath.length > 1 && sourcePath[0] == targetPath[0]) {
+                        // Both ends inside the same nested subprocess, its own copy holds the edge
+                        continue;
+                    }
+                    int from = index.get(childOf(container, connection.getSource()));
+                    int to = index.get(childOf(container, connection.getDestination()));
+                    sourcePath = Arrays.copyOfRange(sourcePath, 1, sourcePath.length);
+                    targetPath = Arrays.copyOfRange(targetPath, 1, targetPath.length);
+                    for (long[][] edge : connection.getMembers()) {
+                        builder.addEdge(from, to, concat(sourcePath, edge[0]), concat(targetPath, edge[1]));
+                    }
+                }
+            }
+            getStore().save(key, builder.build());
+        }
+        
+        /**
+         * Child of the expanded subprocess that is, or contains, the node
+         */
+        private ProcessNode childOf(ProcessNode container, ProcessNode node) {
+            while (parentOf.get(node) != container) {
+                node = parentOf.get(node);
+            }
+            return node;
+        }
+        
+        private void showStoreError(String message, IOException ex) {
+            JOptionPane.showMessageDialog(this, message + ": " + ex.getMessage(),
+                "Subprocess", JOptionPane.ERROR_MESSAGE);
+        }
+        
+        private void drawFrame(Graphics2D g2d, ProcessNode frame) {
+            Shape outline = frameOutline(frame);
+            g2d.setColor(frameFill);
+            g2d.fill(outline);
+            g2d.setColor(NodeType.SUBPROCESS.getColor().darker());
+            g2d.setStroke(new BasicStroke(1.5f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER,
+                10f, frameDash, 0f));
+            g2d.draw(outline);
+            g2d.setColor(Color.BLACK);
+            g2d.drawString("\u2212 " + frame.label, frame.x + 8, frame.y + FRAME_HEADER - 8);
+        }
+        
+        private Shape frameOutline(ProcessNode frame) {
+            return new RoundRectangle2D.Double(frame.x, frame.y, frame.width, frame.height, 16, 16);
+        }
+        
+        /**
+         * Opens a page directory and shows the part of it under the viewport
+         */
+        public void openPages(File directory) throws IOException {
+            closePages();
+            clearAll();
+            long budget = Long.getLong("pvt.pageBudgetMB", 256) << 20;
+            // Pages refer to subprocess contents by key, so the contents live next to them
+            DiagramStore pageStore = new DiagramStore(directory.toPath().resolve("store"));
+            pager = new RegionPager(directory.toPath(), budget, this::installPage, this::pageFailed);
+            store = pageStore;
+            pageOf = new IdentityHashMap<>();
+            pendingEdges = new HashMap<>();
+            writebackTimer = new javax.swing.Timer(WRITEBACK_DELAY_MILLIS, e -> writeBackDirtyPages());
+            writebackTimer.setRepeats(false);
+            updatePreferredSize();
+            viewportChanged();
+        }
+        
+        public boolean isPaged() {
+            return pager != null;
+        }
+        
+        private void pageFailed(IOException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Pages", JOptionPane.ERROR_MESSAGE);
+        }
+        
+        /**
+         * Writes every edited page back and waits for the writes, then leaves paged mode
+         */
+        public void closePages() {
+            if (pager == null) {
+                return;
+            }
+            // Expanded subprocesses are stored collapsed, so fold them into the store first
+            for (ProcessNode frame : new ArrayList<>(expandedOrder)) {
+                if (parentOf.get(frame) == null) {
+                    collapseSubprocess(frame);
+                }
+            }
+            writeBackDirtyPages();
+            writebackTimer.stop();
+            RegionPager closing = pager;
+            pager = null;
+            closing.close();
+            pageOf = null;
+            pendingEdges = null;
+        }
+        
+        /**
+         * Loads the pages under the viewport and a margin of one screen around it,
+         * then evicts pages outside that area if the memory budget is exceeded
+         */
+        public void viewportChanged() {
+            if (pager == null) {
+                return;
+            }
+            Rectangle visible = toModel(getVisibleRect());
+            Rectangle prefetch = new Rectangle(visible);
+            prefetch.grow(Math.max(visible.width, PAGE_MARGIN), Math.max(visible.height, PAGE_MARGIN));
+            
+            // Pages under the viewport are queued ahead of the prefetch margin
+            List<Long> wanted = pager.pagesIntersecting(visible);
+            Set<Long> pinned = new HashSet<>(wanted);
+            for (long id : pager.pagesIntersecting(prefetch)) {
+                if (pinned.add(id)) {
+                    wanted.add(id);
+                }
+            }
+            pager.want(wanted);
+            for (RegionPager.Page page : pager.evictionCandidates(pinned)) {
+                evictPage(page);
+            }
+        }
+        
+        private void updatePreferredSize() {
+            if (pager == null && zoom == 1) {
+                // An unzoomed in-memory canvas simply fills the viewport
+                if (isPreferredSizeSet()) {
+                    setPreferredSize(null);
+                    revalidate();
+                }
+                return;
+            }
+            Rectangle extent = pager != null ? pager.getTotalExtent() : contentExtent();
+            if (extent == null) {
+                return;
+            }
+            Dimension size = new Dimension(
+                (int) Math.ceil((Math.max(0, extent.x + extent.width) + PAGE_MARGIN) * zoom),
+                (int) Math.ceil((Math.max(0, extent.y + extent.height) + PAGE_MARGIN) * zoom));
+            if (pager == null && getParent() instanceof JViewport) {
+                // Never smaller than the viewport, so the whole visible area stays clickable
+                Dimension extentSize = ((JViewport) getParent()).getExtentSize();
+                size.width = Math.max(size.width, extentSize.width);
+                size.height = Math.max(size.height, extentSize.height);
+            }
+            if (!size.equals(getPreferredSize())) {
+                setPreferredSize(size);
+                revalidate();
+            }
+        }
+        
+        private Rectangle contentExtent() {
+            Rectangle extent = null;
+            for (ProcessNode node : nodes) {
+                if (extent == null) {
+                    extent = node.getBounds();
+                } else {
+                    extent.add(node.getBounds());
+                }
+            }
+            return extent;
+        }
+        
+        /**
+         * Puts the nodes of a page read in the background on the canvas and connects them
+         * to every resident page; connections to pages that are not loaded wait for them
+         */
+        private void installPage(RegionPager.PageData data) {
+            if (pager == null || pager.isResident(data.id)) {
+                return;
+            }
+            installingPages = true;
+            try {
+                RegionPager.Page page = pager.installed(data.id);
+                DiagramStore.Diagram diagram = data.nodes;
+                ProcessNode[] created = new ProcessNode[diagram.nodeCount];
+                for (int i = 0; i < diagram.nodeCount; i++) {
+                    ProcessNode node = new ProcessNode(NodeType.get(diagram.types[i]), 0, 0,
+                        diagram.widths[i], diagram.heights[i], diagram.labels[i]);
+                    node.x = diagram.xs[i];
+                    node.y = diagram.ys[i];
+                    node.uid = diagram.uids[i];
+                    if (diagram.childKeys[i] != null) {
+                        subprocesses.put(node, new Subprocess(diagram.childKeys[i]));
+                    }
+                    addNode(node);
+                    pageOf.put(node, page);
+                    page.nodes.put(node.uid, node);
+                    created[i] = node;
+                }
+                
+                for (int e = 0; e < data.edgeCount; e++) {
+                    ProcessNode source = created[data.edgeSources[e]];
+                    RegionPager.Page target = pager.getPage(data.edgeTargetPages[e]);
+                    if (target == null) {
+                        pendingEdges.computeIfAbsent(data.edgeTargetPages[e], k -> new ArrayList<>())
+                            .add(new RegionPager.PendingEdge(source, data.sourcePaths[e],
+                                data.edgeTargetUids[e], data.targetPaths[e]));
+                        continue;
+                    }
+                    ProcessNode destination = target.nodes.get(data.edgeTargetUids[e]);
+                    if (destination != null) {
+                        link(source, destination, data.sourcePaths[e], data.targetPaths[e]);
+                    }
+                }
+                List<RegionPager.PendingEdge> waiting = pendingEdges.remove(data.id);
+                if (waiting != null) {
+                    for (RegionPager.PendingEdge edge : waiting) {
+                        ProcessNode destination = page.nodes.get(edge.targetUid);
+                        if (destination != null) {
+                            link(edge.source, destination, edge.sourcePath, edge.targetPath);
+                        }
+                    }
+                }
+                page.edgeCount = data.edgeCount + (waiting != null ? waiting.size() : 0);
+            } finally {
+                installingPages = false;
+            }
+            repaint();
+        }
+        
+        /**
+         * Removes a page from the canvas, queueing it for writing first if it was edited
+         */
+        private void evictPage(RegionPager.Page page) {
+            installingPages = true;
+            // The minimap keeps showing the page after it leaves memory
+            evictingPage = true;
+            try {
+                for (ProcessNode node : new ArrayList<>(page.nodes.values())) {
+                    collapseSubprocess(node);
+                }
+                if (page.dirty) {
+                    pager.writeBack(snapshotPage(page));
+                    page.dirty = false;
+                }
+                
+                // Connections from other resident pages wait for this page to come back
+                for (ProcessNode node : page.nodes.values()) {
+                    for (Connection connection : node.incident) {
+                        ProcessNode source = topAncestor(connection.getSource());
+                        if (pageOf.get(source) == page) {
+                            continue;
+                        }
+                        long[] sourcePath = pathBelow(source, connection.getSource());
+                        for (long[][] member : connection.getMembers()) {
+                            pendingEdges.computeIfAbsent(page.id, k -> new ArrayList<>())
+                                .add(new RegionPager.PendingEdge(source, concat(sourcePath, member[0]),
+                                    node.uid, member[1]));
+                        }
+                    }
+                }
+                // Waiting connections that start on this page are stored in its file
+                for (List<RegionPager.PendingEdge> waiting : pendingEdges.values()) {
+                    waiting.removeIf(edge -> pageOf.get(edge.source) == page);
+                }
+                removeNodes(new ArrayList<>(page.nodes.values()));
+                pager.removed(page);
+            } finally {
+                installingPages = false;
+                evictingPage = false;
+            }
+        }
+        
+        /**
+         * Immutable copy of a resident page for the writer thread, with every connection leaving
+         * it expressed between top-level nodes as if all subprocesses were collapsed
+         */
+        private RegionPager.PageData snapshotPage(RegionPager.Page page) {
+            RegionPager.PageData.Builder builder = new RegionPager.PageData.Builder(page.id);
+            Map<ProcessNode, Integer> index = new IdentityHashMap<>();
+            for (ProcessNode node : page.nodes.values()) {
+                Subprocess subprocess = subprocesses.get(node);
+                boolean expanded = subprocess != null && subprocess.isExpanded();
+                index.put(node, builder.addNode(node.uid, node.type.getName(), node.x, node.y,
+                    expanded ? subprocess.collapsedWidth : node.width, expanded ? subprocess.collapsedHeight : node.height,
+                    node.label, subprocess != null ? subprocess.key : null));
+                builder.include(node.getBounds());
+            }
+            
+            Set<ProcessNode> inside = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (ProcessNode node : page.nodes.values()) {
+                inside.clear();
+                addWithDescendants(node, inside);
+                for (ProcessNode member : inside) {
+                    for (Connection connection : member.incident) {
+                        if (connection.getSource() != member) {
+                            continue;
+                        }
+                        ProcessNode target = topAncestor(connection.getDestination());
+                        RegionPager.Page targetPage = pageOf.get(target);
+                        if (target == node || targetPage == null) {
+                            // Edges inside a subprocess belong to its own store file
+                            continue;
+                        }
+                        long[] sourcePath = pathBelow(node, member);
+                        long[] targetPath = pathBelow(target, connection.getDestination());
+                        for (long[][] edge : connection.getMembers()) {
+                            builder.addEdge(index.get(node), targetPage.id, target.uid,
+                                concat(sourcePath, edge[0]), concat(targetPath, edge[1]));
+                        }
+                    }
+                }
+            }
+            for (Map.Entry<Long, List<RegionPager.PendingEdge>> entry : pendingEdges.entrySet()) {
+                for (RegionPager.PendingEdge edge : entry.getValue()) {
+                    Integer source = index.get(edge.source);
+                    if (source != null) {
+                        builder.addEdge(source, entry.getKey(), edge.targetUid, edge.sourcePath, edge.targetPath);
+                    }
+                }
+            }
+            RegionPager.PageData data = builder.build();
+            page.edgeCount = data.edgeCount;
+            return data;
+        }
+        
+        private void writeBackDirtyPages() {
+            if (pager == null) {
+                return;
+            }
+            for (RegionPager.Page page : pager.getResidentPages()) {
+                if (page.dirty) {
+                    pager.writeBack(snapshotPage(page));
+                    page.dirty = false;
+                }
+            }
+            // Subprocess contents whose save failed go out with the pages that refer to them
+            try {
+                store.saveUnsaved();
+            } catch (IOException ex) {
+                showStoreError("Could not write subprocess contents", ex);
+            }
+        }
+        
+        /**
+         * Records an edit to a top-level node's page, giving a new node the page under its centre
+         */
+        private void pageTouched(ProcessNode node) {
+            if (pager == null || installingPages) {
+                return;
+            }
+            ProcessNode top = topAncestor(node);
+            RegionPager.Page page = pageOf.get(top);
+            if (page == null && nodesById.get(top.id) == top) {
+                page = assignPage(top);
+            }
+            if (page != null) {
+                markDirty(page, top);
+            }
+        }
+        
+        /**
+         * Records an edit to the page holding the node, if it has one
+         */
+        private void markPageDirty(ProcessNode node) {
+            if (pager == null || installingPages) {
+                return;
+            }
+            ProcessNode top = topAncestor(node);
+            RegionPager.Page page = pageOf.get(top);
+            if (page != null) {
+                markDirty(page, top);
+            }
+        }
+        
+        private void markDirty(RegionPager.Page page, ProcessNode top) {
+            page.dirty = true;
+            if (pager.growExtent(page.id, top.getBounds())) {
+                updatePreferredSize();
+            }
+            writebackTimer.restart();
+        }
+        
+        private RegionPager.Page assignPage(ProcessNode node) {
+            Point center = node.getCenter();
+            long id = RegionPager.pageIdAt(center.x, center.y);
+            RegionPager.Page page = pager.getPage(id);
+            if (page == null && pager.exists(id)) {
+                // The page is on disk but scrolled away, bring it in before adding to it
+                try {
+                    installPage(pager.loadNow(id));
+                } catch (IOException ex) {
+                    showStoreError("Could not load page", ex);
+                    return null;
+                }
+                page = pager.getPage(id);
+            }
+            if (page == null) {
+                page = pager.installed(id);
+            }
+            page.nodes.put(node.uid, node);
+            pageOf.put(node, page);
+            return page;
+        }
+        
+        private ProcessNode topAncestor(ProcessNode node) {
+            for (ProcessNode parent = parentOf.get(node); parent != null; parent = parentOf.get(parent)) {
+                node = parent;
+            }
+            return node;
+        }
+        
+        /**
+         * Uids leading from below the ancestor down to the node, empty for the ancestor itself
+         */
+        private long[] pathBelow(ProcessNode ancestor, ProcessNode node) {
+            int length = 0;
+            for (ProcessNode step = node; step != ancestor; step = parentOf.get(step)) {
+                length++;
+            }
+            long[] path = new long[length];
+            for (ProcessNode step = node; step != ancestor; step = parentOf.get(step)) {
+                path[--length] = step.uid;
+            }
+            return path;
+        }
+        
+        private long[] concat(long[] first, long[] second) {
+            if (first.length == 0) {
+                return second;
+            }
+            if (second.length == 0) {
+                return first;
+            }
+            long[] result = Arrays.copyOf(first, first.length + second.length);
+            System.arraycopy(second, 0, result, first.length, second.length);
+            return result;
+        }
+        
+        /**
+         * Ranked label matches among the nodes in memory, which are also highlighted
+         */
+        public List<ProcessNode> search(String query) {
+            LabelIndex.Result result = labelIndex.search(query, SEARCH_LIMIT);
+            List<ProcessNode> matches = new ArrayList<>(result.matches.size());
+            for (LabelIndex.Match match : result.matches) {
+                ProcessNode node = nodesById.get(match.id);
+                if (node != null) {
+                    matches.add(node);
+                }
+            }
+            searchHits = Collections.newSetFromMap(new IdentityHashMap<>());
+            searchHits.addAll(matches);
+            searchTotal = result.total;
+            repaint();
+            return matches;
+        }
+        
+        /**
+         * Number of nodes matching the last search, including those beyond the ranked list
+         */
+        public int getSearchTotal() {
+            return searchTotal;
+        }
+        
+        public void clearSearch() {
+            searchHits = Collections.emptySet();
+            jumpTarget = null;
+            repaint();
+        }
+        
+        /**
+         * Zooms so the node fills about a sixth of the viewport, centres it and selects it
+         */
+        public void jumpTo(ProcessNode node) {
+            Rectangle visible = getVisibleRect();
+            double fit = Math.min(visible.width / (double) (node.width * JUMP_CONTEXT),
+                visible.height / (double) (node.height * JUMP_CONTEXT));
+            setZoom(Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, fit)));
+            
+            Point center = toScreen(node.getCenter());
+            scrollToCenter(center);
+            jumpTarget = node;
+            selection.clear();
+            selection.add(node);
+            viewportChanged();
+            repaint();
+        }
+        
+        private void promptRename(ProcessNode node) {
+            String label = (String) JOptionPane.showInputDialog(this, "Label:", "Rename Node",
+                JOptionPane.PLAIN_MESSAGE, null, null, node.label);
+            if (label != null && !label.trim().isEmpty()) {
+                renameNode(node, label.trim());
+            }
+        }
+        
+        public void renameNode(ProcessNode node, String label) {
+            if (label.equals(node.label)) {
+                return;
+            }
+            node.label = label;
+            labelIndex.rename(node.id, label);
+            markPageDirty(node);
+            diff = null;
+            sceneVersion++;
+            repaint();
+        }
+        
+        private void handleMouseWheel(MouseWheelEvent e) {
+            if (!e.isControlDown()) {
+                // Plain wheel events still scroll the enclosing scroll pane
+                Container parent = SwingUtilities.getAncestorOfClass(JScrollPane.class, this);
+                if (parent != null) {
+                    parent.dispatchEvent(SwingUtilities.convertMouseEvent(this, e, parent));
+                }
+                return;
+            }
+            zoomAt(e.getPoint(), zoom * Math.pow(WHEEL_ZOOM_STEP, -e.getPreciseWheelRotation()));
+        }
+        
+        /**
+         * Changes the zoom while keeping the model point under a screen point where it is
+         */
+        private void zoomAt(Point screenPoint, double newZoom) {
+            Rectangle visible = getVisibleRect();
+            Point model = toModel(screenPoint);
+            int offsetX = screenPoint.x - visible.x;
+            int offsetY = screenPoint.y - visible.y;
+            setZoom(Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, newZoom)));
+            Point anchor = toScreen(model);
+            scrollTo(anchor.x - offsetX, anchor.y - offsetY);
+            viewportChanged();
+            repaint();
+        }
+        
+        private void setZoom(double newZoom) {
+            if (newZoom == zoom) {
+                return;
+            }
+            zoom = newZoom;
+            updatePreferredSize();
+            // Lay out now rather than later, so the scroll that follows sees the new size
+            setSize(getPreferredSize());
+        }
+        
+        private void scrollToCenter(Point screenPoint) {
+            Rectangle visible = getVisibleRect();
+            scrollTo(screenPoint.x - visible.width / 2, screenPoint.y - visible.height / 2);
+        }
+        
+        private void scrollTo(int x, int y) {
+            if (!(getParent() instanceof JViewport)) {
+                return;
+            }
+            JViewport viewport = (JViewport) getParent();
+            Dimension extent = viewport.getExtentSize();
+            x = Math.max(0, Math.min(x, getWidth() - extent.width));
+            y = Math.max(0, Math.min(y, getHeight() - extent.height));
+            viewport.setViewPosition(new Point(x, y));
+        }
+        
+        private MouseEvent toModel(MouseEvent e) {
+            if (zoom == 1) {
+                return e;
+            }
+            Point point = toModel(e.getPoint());
+            return new MouseEvent(this, e.getID(), e.getWhen(), e.getModifiersEx(), point.x, point.y,
+                e.getClickCount(), e.isPopupTrigger(), e.getButton());
+        }
+        
+        private Point toModel(Point screenPoint) {
+            return new Point((int) Math.floor(screenPoint.x / zoom), (int) Math.floor(screenPoint.y / zoom));
+        }
+        
+        private Rectangle toModel(Rectangle screenArea) {
+            if (zoom == 1) {
+                return screenArea;
+            }
+            int x = (int) Math.floor(screenArea.x / zoom);
+            int y = (int) Math.floor(screenArea.y / zoom);
+            return new Rectangle(x, y, (int) Math.ceil((screenArea.x + screenArea.width) / zoom) - x,
+                (int) Math.ceil((screenArea.y + screenArea.height) / zoom) - y);
+        }
+        
+        private Point toScreen(Point model) {
+            return new Point((int) Math.round(model.x * zoom), (int) Math.round(model.y * zoom));
+        }
+        
+        private Rectangle toScreen(Rectangle modelArea) {
+            if (zoom == 1) {
+                return modelArea;
+            }
+            int x = (int) Math.floor(modelArea.x * zoom);
+            int y = (int) Math.floor(modelArea.y * zoom);
+            return new Rectangle(x, y, (int) Math.ceil((modelArea.x + modelArea.width) * zoom) - x,
+                (int) Math.ceil((modelArea.y + modelArea.height) * zoom) - y);
+        }
+        
+        /**
+         * Writes the top-level diagram in memory to a file for later comparison
+         */
+        public void saveVersion(File file) throws IOException {
+            requireWholeDiagram();
+            writeDiagram(file.toPath());
+        }
+        
+        /**
+         * Writes the top-level nodes in memory to a file in the store format, subprocesses collapsed
+         */
+        public void writeDiagram(Path file) throws IOException {
+            DiagramStore.writeFile(file, snapshotDiagram(new ArrayList<>()));
+        }
+        
+        /**
+         * Replaces the diagram with one written by writeDiagram; subprocess contents are looked
+         * up in the store when expanded
+         */
+        public void loadDiagram(DiagramStore.Diagram diagram) {
+            clearAll();
+            ProcessNode[] created = new ProcessNode[diagram.nodeCount];
+            for (int i = 0; i < diagram.nodeCount; i++) {
+                ProcessNode node = new ProcessNode(NodeType.get(diagram.types[i]), 0, 0,
+                    diagram.widths[i], diagram.heights[i], diagram.labels[i]);
+                node.x = diagram.xs[i];
+                node.y = diagram.ys[i];
+                node.uid = diagram.uids[i];
+                if (diagram.childKeys[i] != null) {
+                    subprocesses.put(node, new Subprocess(diagram.childKeys[i]));
+                }
+                addNode(node);
+                created[i] = node;
+            }
+            for (int e = 0; e < diagram.edgeCount; e++) {
+                link(created[diagram.edgeSources[e]], created[diagram.edgeTargets[e]],
+                    diagram.sourcePaths[e], diagram.targetPaths[e]);
+            }
+            updatePreferredSize();
+            repaint();
+        }
+        
+        /**
+         * Streams the diagram in memory to an SVG file, or a PDF one when the name ends in .pdf,
+         * drawn as on the canvas without selection or analysis overlays. Elements are written
+         * one at a time, so the export needs no memory beyond the diagram itself.
+         */
+        public void exportVector(File file) throws IOException {
+            FontMetrics metrics = getFontMetrics(getFont());
+            Rectangle bounds = exportBounds();
+            try (OutputStream stream = new FileOutputStream(file)) {
+                VectorExporter out = file.getName().toLowerCase(Locale.ROOT).endsWith(".pdf")
+                    ? VectorExporter.pdf(stream, bounds, getFont())
+                    : VectorExporter.svg(stream, bounds, getFont());
+                List<ProcessNode> frames = new ArrayList<>(expandedOrder);
+                frames.sort(Comparator.comparingInt(this::depth));
+                for (ProcessNode frame : frames) {
+                    out.shape(frameOutline(frame), frameFill, NodeType.SUBPROCESS.getColor().darker(), 1.5f, frameDash);
+                    out.text("\u2212 " + frame.label, frame.x + 8, frame.y + FRAME_HEADER - 8, Color.BLACK);
+                }
+                for (Connection connection : connections) {
+                    connection.export(out);
+                }
+                for (ProcessNode node : nodes) {
+                    if (!isExpanded(node)) {
+                        node.export(out, metrics, EXPORT_OUTLINE_WIDTH);
+                    }
+                }
+                out.finish();
+            }
+        }
+        
+        /**
+         * Everything drawn for the diagram, with a small margin
+         */
+        private Rectangle exportBounds() {
+            Rectangle bounds = null;
+            for (ProcessNode node : nodes) {
+                Rectangle area = node.getMetricsBounds();
+                if (bounds == null) {
+                    bounds = area;
+                } else {
+                    bounds.add(area);
+                }
+            }
+            for (Connection connection : connections) {
+                bounds.add(connection.getBounds());
+            }
+            if (bounds == null) {
+                return new Rectangle(0, 0, 1, 1);
+            }
+            bounds.grow(EXPORT_MARGIN, EXPORT_MARGIN);
+            return bounds;
+        }
+        
+        /**
+         * Compares a saved version with the canvas and overlays the differences
+         */
+        public DiagramDiff.Result compareWith(File file) throws IOException {
+            requireWholeDiagram();
+            DiagramStore.Diagram before = DiagramStore.readFile(file.toPath());
+            List<ProcessNode> order = new ArrayList<>();
+            DiagramStore.Diagram after = snapshotDiagram(order);
+            diff = DiagramDiff.compare(before, after);
+            diffBefore = before;
+            diffAfter = after;
+            diffNodes = order;
+            repaint();
+            return diff;
+        }
+        
+        /**
+         * Versions cover the whole diagram, which a page directory never has in memory
+         */
+        private void requireWholeDiagram() throws IOException {
+            if (pager != null) {
+                throw new IOException("not available for a page directory, only the pages in memory would be seen");
+            }
+        }
+        
+        /**
+         * Top-level nodes in store form with subprocesses collapsed; the node behind each
+         * index is appended to order. Connections inside a subprocess belong to its own file.
+         */
+        private DiagramStore.Diagram snapshotDiagram(List<ProcessNode> order) {
+            DiagramStore.Diagram.Builder builder = new DiagramStore.Diagram.Builder();
+            Map<ProcessNode, Integer> index = new IdentityHashMap<>();
+            for (ProcessNode node : nodes) {
+                if (parentOf.get(node) != null) {
+                    continue;
+                }
+                Subprocess subprocess = subprocesses.get(node);
+                boolean expanded = subprocess != null && subprocess.isExpanded();
+                index.put(node, builder.addNode(node.uid, node.type.getName(), node.x, node.y,
+                    expanded ? subprocess.collapsedWidth : node.width, expanded ? subprocess.collapsedHeight : node.height,
+                    node.label, subprocess != null ? subprocess.key : null));
+                order.add(node);
+            }
+            for (Connection connection : connections) {
+                ProcessNode source = topAncestor(connection.getSource());
+                ProcessNode target = topAncestor(connection.getDestination());
+                if (source == target) {
+                    continue;
+                }
+                long[] sourcePath = pathBelow(source, connection.getSource());
+                long[] targetPath = pathBelow(target, connection.getDestination());
+                for (long[][] member : connection.getMembers()) {
+                    builder.addEdge(index.get(source), index.get(target),
+                        concat(sourcePath, member[0]), concat(targetPath, member[1]));
+                }
+            }
+            return builder.build();
+        }
+        
+        public double getZoom() {
+            return zoom;
+        }
+        
+        /**
+         * Changes with every edit, move, rename or metrics update of the diagram, but not with
+         * hover, selection or overlays; EDT only
+         */
+        public long getSceneVersion() {
+            return sceneVersion;
+        }
+        
+        /**
+         * Immutable copy of the diagram as the canvas draws it, without interaction or analysis
+         * overlays, for the wallboard render thread
+         */
+        public WallboardRenderer.Scene snapshotScene() {
+            FontMetrics metrics = getFontMetrics(getFont());
+            List<ProcessNode> frames = new ArrayList<>(expandedOrder);
+            frames.sort(Comparator.comparingInt(this::depth));
+            WallboardRenderer.Group[] groups = new WallboardRenderer.Group[frames.size()];
+            for (int i = 0; i < groups.length; i++) {
+                ProcessNode frame = frames.get(i);
+                groups[i] = new WallboardRenderer.Group(frameOutline(frame), NodeType.SUBPROCESS.getColor().darker(),
+                    "\u2212 " + frame.label, frame.x + 8, frame.y + FRAME_HEADER - 8);
+            }
+            WallboardRenderer.Edge[] edges = new WallboardRenderer.Edge[connections.size()];
+            for (int i = 0; i < edges.length; i++) {
+                edges[i] = connections.get(i).snapshot();
+            }
+            List<WallboardRenderer.Node> drawn = new ArrayList<>(nodes.size());
+            for (ProcessNode node : nodes) {
+                if (!isExpanded(node)) {
+                    drawn.add(node.snapshot(metrics));
+                }
+            }
+            return new WallboardRenderer.Scene(exportBounds(), getFont(), frameFill, frameDash, groups, edges,
+                drawn.toArray(new WallboardRenderer.Node[0]));
+        }
+        
+        public void setMinimap(MinimapPanel minimap) {
+            this.minimap = minimap;
+        }
+        
+        /**
+         * Every canvas area whose nodes or connections change, null for the whole canvas
+         */
+        private void contentsChanged(Rectangle area) {
+            sceneVersion++;
+            if (minimap != null && !evictingPage) {
+                minimap.regionChanged(area);
+            }
+        }
+        
+        /**
+         * Minimap rendering of one canvas area: connections as thin lines, nodes as filled
+         * outlines without labels, expanded subprocesses as frames
+         */
+        @Override
+        public void paintOverview(Graphics2D g2d, Rectangle area) {
+            g2d.setColor(Color.GRAY);
+            g2d.setStroke(new BasicStroke(4f));
+            edgeGrid.query(area, connection -> {
+                Point start = connection.getStart();
+                Point end = connection.getEnd();
+                g2d.drawLine(start.x, start.y, end.x, end.y);
+            });
+            g2d.setStroke(new BasicStroke(8f));
+            nodeGrid.query(area, node -> {
+                if (isExpanded(node)) {
+                    g2d.setColor(Color.DARK_GRAY);
+                    g2d.drawRect(node.x, node.y, node.width, node.height);
+                } else {
+                    g2d.setColor(node.type.getColor().darker());
+                    g2d.fillRect(node.x, node.y, node.width, node.height);
+                }
+            });
+        }
+        
+        /**
+         * All of the area except the extents of pages that are not in memory, which the minimap
+         * keeps showing as they were last drawn
+         */
+        @Override
+        public Shape clearableArea(Rectangle area) {
+            if (pager == null) {
+                return area;
+            }
+            Area clearable = new Area(area);
+            for (long id : pager.pagesIntersecting(area)) {
+                if (!pager.isResident(id)) {
+                    clearable.subtract(new Area(pager.getExtent(id)));
+                }
+            }
+            return clearable;
+        }
+        
+        public void prepareToAddNode(String nodeType) {
+            nodeToAdd = nodeType;
+            connectingMode = false;
+            deleteMode = false;
+            sourceNode = null;
+            destinationNode = null;
+            setCursor(Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR));
+        }
+        
+        public void setConnectingMode(boolean connecting) {
+            connectingMode = connecting;
+            deleteMode = false;
+            nodeToAdd = null;
+            sourceNode = null;
+            destinationNode = null;
+            if (connecting) {
+                setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+            } else {
+                setCursor(Cursor.getDefaultCursor());
+            }
+        }
+        
+        public void prepareToDelete() {
+            deleteMode = true;
+            connectingMode = false;
+            nodeToAdd = null;
+            sourceNode = null;
+            destinationNode = null;
+            setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+        }
+        
+        public void clearAll() {
+            closePages();
+            store = defaultStore;
+            nodes.clear();
+            connections.clear();
+            nodesById.clear();
+            nodesByUid.clear();
+            connectionsByKey.clear();
+            nodeGrid.clear();
+            edgeGrid.clear();
+            labelIndex.clear();
+            searchHits = Collections.emptySet();
+            jumpTarget = null;
+            diff = null;
+            subprocesses.clear();
+            parentOf.clear();
+            expandedOrder.clear();
+            selectedConnection = null;
+            selection.clear();
+            rubberBand = null;
+            graphChanged();
+            hoverNode = null;
+            pathAnchor = null;
+            selectedNode = null;
+            sourceNode = null;
+            destinationNode = null;
+            connectingMode = false;
+            deleteMode = false;
+            nodeToAdd = null;
+            setCursor(Cursor.getDefaultCursor());
+            repaint();
+        }
+        
+        /**
+         * Replaces the diagram with a synthetic grid: rows of steps chained left to right,
+         * with every fifth node also connected to the one below it
+         */
+        public void generateGrid(int count) {
+            clearAll();
+            int columns = InteractionTrace.gridColumns(count);
+            ProcessNode[] grid = new ProcessNode[count];
+            for (int i = 0; i < count; i++) {
+                NodeType type = i == 0 ? NodeType.START : i == count - 1 ? NodeType.END
+                    : i % 7 == 3 ? NodeType.DECISION : NodeType.PROCESS;
+                int centerX = i % columns * InteractionTrace.GRID_SPACING_X + InteractionTrace.GRID_SPACING_X / 2;
+                int centerY = i / columns * InteractionTrace.GRID_SPACING_Y + InteractionTrace.GRID_SPACING_Y / 2;
+                grid[i] = new ProcessNode(type, centerX, centerY,
+                    type == NodeType.PROCESS || type == NodeType.DECISION ? "Step " + i : type.getName());
+                addNode(grid[i]);
+            }
+            for (int i = 0; i < count; i++) {
+                if (i + 1 < count && (i + 1) % columns != 0) {
+                    addConnection(new Connection(grid[i], grid[i + 1]));
+                }
+                if (i + columns < count && i % 5 == 0) {
+                    addConnection(new Connection(grid[i], grid[i + columns]));
+                }
+            }
+            updatePreferredSize();
+            repaint();
+        }
+        
+        public int getNodeCount() {
+            return nodes.size();
+        }
+        
+        public boolean isMetricsRunning() {
+            return metrics != null;
+        }
+        
+        /**
+         * Starts ingesting live metrics from a local port, a tailed file or the built-in demo generator
+         */
+        public void startMetrics(String source) throws IOException {
+            stopMetrics();
+            metrics = new MetricsAggregator(METRICS_CAPACITY);
+            try {
+                openMetricsSource(source);
+            } catch (IOException | RuntimeException ex) {
+                // Nothing is left half running, so isMetricsRunning stays truthful
+                stopMetrics();
+                throw ex;
+            }
+            MetricsSource started = metricsSource;
+            started.setFailureListener(ex -> SwingUtilities.invokeLater(() -> metricsFailed(started, ex)));
+            started.start();
+            
+            // Fold the aggregated deltas into the visual state once per frame
+            lastMetricsFold = System.nanoTime();
+            metricsTimer = new javax.swing.Timer(METRICS_FRAME_MILLIS, e -> foldMetrics());
+            metricsTimer.start();
+            firePropertyChange("metricsRunning", false, true);
+        }
+        
+        private void openMetricsSource(String source) throws IOException {
+            int port;
+            if (source.equalsIgnoreCase("demo")) {
+                long[] nodeUids = new long[nodes.size()];
+                for (int i = 0; i < nodeUids.length; i++) {
+                    nodeUids[i] = nodes.get(i).uid;
+                }
+                long[] edgeSources = new long[connections.size()];
+                long[] edgeTargets = new long[connections.size()];
+                for (int i = 0; i < edgeSources.length; i++) {
+                    edgeSources[i] = connections.get(i).getSource().uid;
+                    edgeTargets[i] = connections.get(i).getDestination().uid;
+                }
+                metricsGenerator = MetricsGenerator.onSocket(0, nodeUids, edgeSources, edgeTargets,
+                    DEMO_UPDATES_PER_SECOND);
+                metricsGenerator.start();
+                port = metricsGenerator.getPort();
+            } else if (source.matches("\\d+")) {
+                port = Integer.parseInt(source);
+                if (port > 65535) {
+                    throw new IOException("no such port: " + source);
+                }
+            } else {
+                File file = new File(source);
+                if (!file.isFile()) {
+                    throw new IOException("no such file: " + source);
+                }
+                port = -1;
+                metricsSource = MetricsSource.tailFile(file, metrics);
+            }
+            if (port >= 0) {
+                metricsSource = MetricsSource.fromSocket(port, metrics);
+            }
+        }
+        
+        /**
+         * Stops metrics after the source failed in the background, unless it was replaced meanwhile
+         */
+        private void metricsFailed(MetricsSource source, IOException ex) {
+            if (metricsSource != source) {
+                return;
+            }
+            stopMetrics();
+            JOptionPane.showMessageDialog(this, "Metrics source " + source.getDescription() + " failed: "
+                + ex.getMessage(), "Live Metrics", JOptionPane.ERROR_MESSAGE);
+        }
+        
+        public void stopMetrics() {
+            if (metricsTimer != null) {
+                metricsTimer.stop();
+                metricsTimer = null;
+            }
+            if (metricsSource != null) {
+                metricsSource.stop();
+                metricsSource = null;
+            }
+            if (metricsGenerator != null) {
+                metricsGenerator.stop();
+                metricsGenerator = null;
+            }
+            if (metrics != null) {
+                metrics = null;
+                for (ProcessNode node : nodes) {
+                    node.clearMetrics();
+                }
+                for (Connection connection : connections) {
+                    connection.clearMetrics();
+                }
+                sceneVersion++;
+                repaint();
+                firePropertyChange("metricsRunning", true, false);
+            }
+        }
+        
+        private void foldMetrics() {
+            long now = System.nanoTime();
+            double seconds = Math.max(1e-3, (now - lastMetricsFold) / 1e9);
+            lastMetricsFold = now;
+            
+            // Let the scales decay so the heat map adapts when load drops
+            maxNodeLatency = Math.max(1, maxNodeLatency * 0.995);
+            maxEdgeRate = Math.max(1, maxEdgeRate * 0.995);
+            
+            Rectangle dirty = new Rectangle();
+            metrics.drainNodes((uid, count, latencyMicros) -> {
+                ProcessNode node = nodesByUid.get(uid);
+                if (node == null) {
+                    return;
+                }
+                double latency = (double) latencyMicros / count;
+                maxNodeLatency = Math.max(maxNodeLatency, latency);
+                if (node.updateMetrics(count / seconds, latency, maxNodeLatency)) {
+                    union(dirty, node.getMetricsBounds());
+                }
+            });
+            metrics.drainEdges((sourceUid, destinationUid, count) -> {
+                ProcessNode source = nodesByUid.get(sourceUid);
+                ProcessNode destination = nodesByUid.get(destinationUid);
+                Connection connection = source != null && destination != null
+                    ? connectionsByKey.get(Connection.keyOf(source, destination)) : null;
+                if (connection == null) {
+                    return;
+                }
+                double rate = count / seconds;
+                maxEdgeRate = Math.max(maxEdgeRate, rate);
+                if (connection.updateMetrics(rate, maxEdgeRate)) {
+                    union(dirty, connection.getBounds());
+                }
+            });
+            
+            // Only the region covering changed nodes and connections is repainted
+            if (!dirty.isEmpty()) {
+                sceneVersion++;
+                repaint(toScreen(dirty));
+            }
+        }
+        
+        private void union(Rectangle target, Rectangle area) {
+            if (target.isEmpty()) {
+                target.setBounds(area);
+            } else {
+                target.add(area);
+            }
+        }
+        
+        /**
+         * Compact adjacency snapshot of the current diagram, built on the EDT
+         */
+        private GraphSnapshot buildGraphSnapshot() {
+            // Ids keep growing as nodes are reloaded, so index the live nodes instead of the id range
+            Map<ProcessNode, Integer> index = new IdentityHashMap<>(nodes.size() * 2);
+            int[] nodeIds = new int[nodes.size()];
+            double[] durations = new double[nodes.size()];
+            int starts = 0;
+            int ends = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                ProcessNode node = nodes.get(i);
+                index.put(node, i);
+                nodeIds[i] = node.id;
+                durations[i] = node.getDuration();
+                if (node.type == NodeType.START) {
+                    starts++;
+                } else if (node.type == NodeType.END) {
+                    ends++;
+                }
+            }
+            
+            int[] startNodes = new int[starts];
+            int[] endNodes = new int[ends];
+            starts = 0;
+            ends = 0;
+            for (int i = 0; i < nodes.size(); i++) {
+                NodeType type = nodes.get(i).type;
+                if (type == NodeType.START) {
+                    startNodes[starts++] = i;
+                } else if (type == NodeType.END) {
+                    endNodes[ends++] = i;
+                }
+            }
+            
+            int[] edgeSources = new int[connections.size()];
+            int[] edgeTargets = new int[connections.size()];
+            for (int e = 0; e < connections.size(); e++) {
+                Connection connection = connections.get(e);
+                edgeSources[e] = index.get(connection.getSource());
+                edgeTargets[e] = index.get(connection.getDestination());
+            }
+            return new GraphSnapshot(nodeIds, durations, startNodes, endNodes,
+                edgeSources, edgeTargets, edgeSources.length, graphVersion);
+        }
+        
+        /**
+         * Runs the whole-graph analyses in the background and highlights the result
+         */
+        public void runAnalysis() {
+            if (analysisRunning) {
+                return;
+            }
+            GraphSnapshot snapshot = buildGraphSnapshot();
+            analysisRunning = true;
+            repaint();
+            
+            new SwingWorker<GraphAnalytics.Result, Void>() {
+                @Override
+                protected GraphAnalytics.Result doInBackground() {
+                    return GraphAnalytics.analyze(snapshot);
+                }
+                
+                @Override
+                protected void done() {
+                    analysisRunning = false;
+                    try {
+                        GraphAnalytics.Result result = get();
+                        // Drop results for a graph that was edited meanwhile
+                        if (result.graph.version == graphVersion) {
+                            analysis = result;
+                            criticalPathPosition = new HashMap<>();
+                            for (int i = 0; i < result.criticalPath.length; i++) {
+                                criticalPathPosition.put(result.graph.nodeIds[result.criticalPath[i]], i);
+                            }
+                        }
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
+                    repaint();
+                }
+            }.execute();
+        }
+        
+        public boolean isBundling() {
+            return bundling;
+        }
+        
+        public void setBundling(boolean bundling) {
+            boolean old = this.bundling;
+            this.bundling = bundling;
+            if (bundling) {
+                rebundle();
+            } else {
+                rebundleTimer.stop();
+            }
+            repaint();
+            firePropertyChange("bundling", old, bundling);
+        }
+        
+        /**
+         * Starts bundling the current connection layout unless the bundles already match it
+         * or are being computed
+         */
+        private void rebundle() {
+            if (!bundling || bundlingRunning || connections.size() > EdgeBundler.MAX_EDGES
+                    || bundles != null && bundles.version == edgeLayoutVersion) {
+                return;
+            }
+            startBundling();
+        }
+        
+        /**
+         * Bundles a copy of the connection endpoints in the background
+         */
+        private void startBundling() {
+            int count = connections.size();
+            double[] lines = new double[count * 4];
+            int[] weights = new int[count];
+            for (int i = 0; i < count; i++) {
+                Connection connection = connections.get(i);
+                lines[i * 4] = connection.getStart().x;
+                lines[i * 4 + 1] = connection.getStart().y;
+                lines[i * 4 + 2] = connection.getEnd().x;
+                lines[i * 4 + 3] = connection.getEnd().y;
+                weights[i] = connection.getMembers().size();
+            }
+            long version = edgeLayoutVersion;
+            bundlingRunning = true;
+            
+            new SwingWorker<EdgeBundler.Result, Void>() {
+                @Override
+                protected EdgeBundler.Result doInBackground() {
+                    return EdgeBundler.bundle(lines, weights, count, version);
+                }
+                
+                @Override
+                protected void done() {
+                    bundlingRunning = false;
+                    try {
+                        // Drawn even if the layout changed meanwhile, until the next bundles are ready
+                        bundles = get();
+                    } catch (Exception ex) {
+                        // Retrying would most likely fail the same way, e.g. out of memory, so give up
+                        setBundling(false);
+                        Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                        JOptionPane.showMessageDialog(DrawingPanel.this, "Could not bundle edges, bundling is off: "
+                            + cause, "Bundle Edges", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
+                    if (bundles == null || bundles.version != edgeLayoutVersion) {
+                        rebundleTimer.restart();
+                    }
+                    repaint();
+                }
+            }.execute();
+        }
+        
+        /**
+         * Index for hover queries, rebuilt lazily after structural edits
+         */
+        private ReachabilityIndex getReachability() {
+            if (reachability == null || reachability.getVersion() != graphVersion) {
+                reachability = new ReachabilityIndex(buildGraphSnapshot());
+            }
+            return reachability;
+        }
+        
+        /**
+         * Shortest path from the selected node to the hovered one, if both are set and differ
+         */
+        private int[] getHoverPath() {
+            if (pathAnchor == null || hoverNode == null || hoverNode == pathAnchor) {
+                return null;
+            }
+            return getReachability().shortestPath(pathAnchor.id, hoverNode.id);
+        }
+        
+        private void drawSelection(Graphics2D g2d) {
+            if (selectedConnection != null) {
+                selectedConnection.draw(g2d, new Color(0, 120, 215), selectedConnection.thickness + 2f);
+            }
+            
+            Stroke dashed = new BasicStroke(1.5f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER,
+                10f, new float[] {4f, 3f}, 0f);
+            Color selectionColor = new Color(0, 120, 215);
+            for (ProcessNode node : selection) {
+                drawOutline(g2d, node.getBounds(), 3, selectionColor, dashed);
+            }
+            
+            if (rubberBand != null) {
+                g2d.setColor(new Color(0, 120, 215, 40));
+                g2d.fill(rubberBand);
+                g2d.setColor(selectionColor);
+                g2d.setStroke(new BasicStroke(1f));
+                g2d.draw(rubberBand);
+            }
+        }
+        
+        /**
+         * Removed nodes and connections as red ghosts at their old positions, added ones in
+         * green, moved nodes in blue with a line from where they were, relabelled ones in purple
+         */
+        private void drawDiff(Graphics2D g2d) {
+            if (diff == null) {
+                return;
+            }
+            Stroke dashed = new BasicStroke(1.5f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER,
+                10f, new float[] {5f, 4f}, 0f);
+            Color removedColor = new Color(210, 40, 40);
+            Color addedColor = new Color(30, 160, 60);
+            Color movedColor = new Color(40, 100, 220);
+            Color relabelledColor = new Color(150, 60, 190);
+            
+            g2d.setStroke(dashed);
+            g2d.setColor(removedColor);
+            for (int e : diff.removedEdges) {
+                Point from = centerOf(diffBefore, diffBefore.edgeSources[e]);
+                Point to = centerOf(diffBefore, diffBefore.edgeTargets[e]);
+                g2d.drawLine(from.x, from.y, to.x, to.y);
+            }
+            for (int i : diff.removed) {
+                NodeType.get(diffBefore.types[i]).paint(g2d, diffBefore.xs[i], diffBefore.ys[i],
+                    diffBefore.widths[i], diffBefore.heights[i], new Color(255, 200, 200, 140));
+                drawOutline(g2d, boundsOf(diffBefore, i), 3, removedColor, dashed);
+            }
+            
+            g2d.setStroke(new BasicStroke(3f));
+            g2d.setColor(addedColor);
+            for (int e : diff.addedEdges) {
+                Point from = diffNodes.get(diffAfter.edgeSources[e]).getCenter();
+                Point to = diffNodes.get(diffAfter.edgeTargets[e]).getCenter();
+                g2d.drawLine(from.x, from.y, to.x, to.y);
+            }
+            for (int j : diff.added) {
+                drawOutline(g2d, diffNodes.get(j).getBounds(), 4, addedColor, new BasicStroke(2.5f));
+            }
+            
+            for (int j : diff.moved) {
+                ProcessNode node = diffNodes.get(j);
+                int i = diff.beforeOf[j];
+                drawOutline(g2d, boundsOf(diffBefore, i), 0, movedColor, dashed);
+                Point from = centerOf(diffBefore, i);
+                Point to = node.getCenter();
+                g2d.setStroke(dashed);
+                g2d.drawLine(from.x, from.y, to.x, to.y);
+                drawOutline(g2d, node.getBounds(), 4, movedColor, new BasicStroke(2.5f));
+            }
+            for (int j : diff.relabelled) {
+                ProcessNode node = diffNodes.get(j);
+                drawOutline(g2d, node.getBounds(), 6, relabelledColor, new BasicStroke(2.5f));
+                g2d.setColor(relabelledColor);
+                g2d.drawString("was: " + diffBefore.labels[diff.beforeOf[j]], node.x, node.y - 10);
+            }
+        }
+        
+        private Rectangle boundsOf(DiagramStore.Diagram diagram, int i) {
+            return new Rectangle(diagram.xs[i], diagram.ys[i], diagram.widths[i], diagram.heights[i]);
+        }
+        
+        private Point centerOf(DiagramStore.Diagram diagram, int i) {
+            return new Point(diagram.xs[i] + diagram.widths[i] / 2, diagram.ys[i] + diagram.heights[i] / 2);
+        }
+        
+        private void drawSearchHits(Graphics2D g2d) {
+            if (searchHits.isEmpty()) {
+                return;
+            }
+            Stroke stroke = new BasicStroke(2.5f);
+            Color hitColor = new Color(255, 170, 0);
+            for (ProcessNode node : searchHits) {
+                drawOutline(g2d, node.getBounds(), 5, hitColor, stroke);
+            }
+            if (jumpTarget != null) {
+                drawOutline(g2d, jumpTarget.getBounds(), 9, new Color(220, 90, 0), new BasicStroke(4f));
+            }
+        }
+        
+        private void drawReachability(Graphics2D g2d) {
+            ProcessNode focus = hoverNode != null ? hoverNode : pathAnchor;
+            if (focus == null || connectingMode || deleteMode || selectedNode != null) {
+                return;
+            }
+            
+            int[] path = getHoverPath();
+            if (path != null) {
+                Color pathColor = new Color(255, 120, 0);
+                g2d.setColor(pathColor);
+                g2d.setStroke(new BasicStroke(4f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                for (int i = 0; i + 1 < path.length; i++) {
+                    Point start = nodesById.get(path[i]).getCenter();
+                    Point end = nodesById.get(path[i + 1]).getCenter();
+                    g2d.drawLine(start.x, start.y, end.x, end.y);
+                }
+                Stroke stroke = new BasicStroke(3f);
+                for (int id : path) {
+                    drawOutline(g2d, nodesById.get(id).getBounds(), 4, pathColor, stroke);
+                }
+                return;
+            }
+            
+            Stroke stroke = new BasicStroke(2f);
+            ReachabilityIndex index = getReachability();
+            for (int id : index.upstream(focus.id)) {
+                drawOutline(g2d, nodesById.get(id).getBounds(), 4, new Color(30, 144, 255), stroke);
+            }
+            for (int id : index.downstream(focus.id)) {
+                drawOutline(g2d, nodesById.get(id).getBounds(), 4, new Color(34, 139, 34), stroke);
+            }
+            drawOutline(g2d, focus.getBounds(), 4, Color.BLACK, new BasicStroke(3f));
+        }
+        
+        private void drawAnalysis(Graphics2D g2d) {
+            GraphSnapshot graph = analysis.graph;
+            Map<Integer, Integer> pathPosition = criticalPathPosition;
+            
+            // Critical path connections, only between consecutive path nodes so skip edges stay plain
+            g2d.setColor(new Color(220, 20, 60));
+            g2d.setStroke(new BasicStroke(4f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            for (Connection connection : connections) {
+                Integer from = pathPosition.get(connection.getSource().id);
+                Integer to = pathPosition.get(connection.getDestination().id);
+                if (from != null && to != null && to == from + 1) {
+                    Point start = connection.getSource().getCenter();
+                    Point end = connection.getDestination().getCenter();
+                    g2d.drawLine(start.x, start.y, end.x, end.y);
+                }
+            }
+            
+            Stroke solid = new BasicStroke(3f);
+            Stroke dashed = new BasicStroke(2f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER,
+                10f, new float[] {6f, 4f}, 0f);
+            for (int i = 0; i < graph.nodeCount; i++) {
+                ProcessNode node = nodesById.get(graph.nodeIds[i]);
+                if (node == null) {
+                    continue;
+                }
+                Rectangle outline = new Rectangle(node.getBounds());
+                if (pathPosition.containsKey(node.id)) {
+                    drawOutline(g2d, outline, 4, new Color(220, 20, 60), solid);
+                }
+                if (analysis.isCyclic(i)) {
+                    drawOutline(g2d, outline, 8, new Color(148, 0, 211), solid);
+                }
+                if (!analysis.reachableFromStart[i] && graph.startNodes.length > 0) {
+                    drawOutline(g2d, outline, 12, Color.GRAY, dashed);
+                }
+                if (!analysis.reachesEnd[i] && graph.endNodes.length > 0) {
+                    drawOutline(g2d, outline, 16, new Color(255, 140, 0), dashed);
+                }
+            }
+            
+            // Rank badges for the strongest bottlenecks
+            for (int rank = 0; rank < analysis.bottlenecks.length; rank++) {
+                ProcessNode node = nodesById.get(graph.nodeIds[analysis.bottlenecks[rank]]);
+                if (node == null) {
+                    continue;
+                }
+                g2d.setColor(new Color(25, 25, 112));
+                g2d.fillOval(node.x + node.width - 10, node.y - 10, 20, 20);
+                g2d.setColor(Color.WHITE);
+                node.drawCenteredString(g2d, "#" + (rank + 1), node.x + node.width, node.y);
+            }
+        }
+        
+        private void drawOutline(Graphics2D g2d, Rectangle outline, int gap, Color color, Stroke stroke) {
+            g2d.setColor(color);
+            g2d.setStroke(stroke);
+            g2d.drawRoundRect(outline.x - gap, outline.y - gap,
+                outline.width + gap * 2, outline.height + gap * 2, 12, 12);
+        }
+        
+        private ProcessNode createNode(String type, int x, int y) {
+            return createNode(NodeType.get(type), x, y);
+        }
+        
+        private ProcessNode createNode(NodeType type, int x, int y) {
+            ProcessNode node = new ProcessNode(type, x, y, type.getName());
+            if (type == NodeType.SUBPROCESS) {
+                String key = DiagramStore.newKey();
+                try {
+                    // Saved at once, so a key the store cannot load always means lost contents
+                    getStore().save(key, DiagramStore.Diagram.EMPTY);
+                } catch (IOException ex) {
+                    showStoreError("Could not store " + node.label, ex);
+                }
+                subprocesses.put(node, new Subprocess(key));
+            }
+            return node;
+        }
+        
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Graphics2D g2d = (Graphics2D) g;
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            AffineTransform screen = g2d.getTransform();
+            g2d.scale(zoom, zoom);
+            
+            // Expanded subprocess frames go underneath everything they contain
+            List<ProcessNode> frames = new ArrayList<>(expandedOrder);
+            frames.sort(Comparator.comparingInt(this::depth));
+            for (ProcessNode frame : frames) {
+                drawFrame(g2d, frame);
+            }
+            
+            // Draw connections as bundles once there are any, the last ones while edits are rebundled
+            EdgeBundler.Result bundled = bundling && connections.size() <= EdgeBundler.MAX_EDGES ? bundles : null;
+            if (bundled != null) {
+                Rectangle clip = g2d.getClipBounds();
+                bundled.paint(g2d, clip != null ? clip : toModel(new Rectangle(0, 0, getWidth(), getHeight())),
+                    Color.DARK_GRAY);
+            } else {
+                for (Connection connection : connections) {
+                    connection.draw(g2d);
+                }
+            }
+            
+            // Draw temporary connection line while in connecting mode
+            if (connectingMode && sourceNode != null) {
+                Point end = getMousePosition();
+                if (end != null) {
+                    end = toModel(end);
+                    Point start = sourceNode.getConnectionPoint(end);
+                    g2d.setColor(Color.BLACK);
+                    g2d.setStroke(new BasicStroke(1.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                    g2d.drawLine(start.x, start.y, end.x, end.y);
+                    
+                    // Draw arrowhead
+                    drawArrowHead(g2d, start, end);
+                }
+            }
+            
+            // Draw nodes
+            for (ProcessNode node : nodes) {
+                if (!isExpanded(node)) {
+                    node.draw(g2d);
+                }
+            }
+            
+            if (analysis != null) {
+                drawAnalysis(g2d);
+            }
+            drawReachability(g2d);
+            drawSelection(g2d);
+            drawSearchHits(g2d);
+            drawDiff(g2d);
+            
+            // Draw status text
+            g2d.setTransform(screen);
+            g2d.setColor(Color.DARK_GRAY);
+            String statusText = "";
+            int[] hoverPath = getHoverPath();
+            if (nodeToAdd != null) {
+                statusText = "Click to place a " + nodeToAdd + " node";
+            } else if (connectingMode) {
+                if (sourceNode == null) {
+                    statusText = "Select source node";
+                } else {
+                    statusText = "Select destination node";
+                }
+            } else if (deleteMode) {
+                statusText = "Click on a node or connection to delete it";
+            } else if (hoverPath != null) {
+                statusText = hoverPath.length == 0
+                    ? "No path from " + pathAnchor.label + " to " + hoverNode.label
+                    : "Shortest path from " + pathAnchor.label + " to " + hoverNode.label
+                        + ": " + (hoverPath.length - 1) + " steps";
+            } else if (hoverNode != null && subprocesses.containsKey(hoverNode)) {
+                statusText = "Double-click to " + (isExpanded(hoverNode) ? "collapse " : "expand ") + hoverNode.label;
+            } else if (hoverNode != null && metrics != null) {
+                statusText = hoverNode.label + " receives live metrics as uid " + hoverNode.uid;
+            } else if (diff != null) {
+                statusText = (diff.isEmpty() ? "No differences from the saved version" : diff.summary())
+                    + "   (Esc to clear)";
+            } else if (jumpTarget != null && zoom != 1) {
+                statusText = String.format("Zoom %.0f%%   Ctrl+wheel to zoom, Ctrl+0 to reset", zoom * 100);
+            } else if (selection.size() > 1) {
+                statusText = selection.size() + " nodes selected (Delete, Ctrl+C, Ctrl+V, Ctrl+G to group)";
+            } else if (analysisRunning) {
+                statusText = "Analyzing...";
+            } else if (bundling && connections.size() > EdgeBundler.MAX_EDGES) {
+                statusText = "Too many connections to bundle (" + connections.size() + ")";
+            } else if (bundling && bundlingRunning) {
+                statusText = "Bundling " + connections.size() + " connections...";
+            } else if (analysis != null) {
+                statusText = String.format(
+                    "Cyclic groups: %d   Unreachable from Start: %d   Cannot reach End: %d   Critical path: %.1f",
+                    analysis.cyclicComponents, analysis.countUnreachable(), analysis.countDeadEnds(),
+                    analysis.criticalPathLength);
+            }
+            g2d.drawString(statusText, 10, getHeight() - 10);
+        }
+        
+        private void drawArrowHead(Graphics2D g2d, Point from, Point to) {
+            double dx = to.x - from.x;
+            double dy = to.y - from.y;
+            double angle = Math.atan2(dy, dx);
+            int len = 12;
+            
             g2d.setPaint(Color.BLACK);
             
             // Create the arrow head
@@ -366,16 +3158,136 @@ public class ProcessVisualizationTool extends JFrame {
         }
     }
     
+    private void runSearch() {
+        String query = searchField.getText();
+        DefaultListModel<ProcessNode> model = (DefaultListModel<ProcessNode>) searchResults.getModel();
+        model.clear();
+        if (query.trim().isEmpty()) {
+            drawingPanel.clearSearch();
+            searchCount.setText(" ");
+            return;
+        }
+        long started = System.nanoTime();
+        List<ProcessNode> matches = drawingPanel.search(query);
+        for (ProcessNode node : matches) {
+            model.addElement(node);
+        }
+        searchCount.setText(String.format("%d of %d matches, %.1f ms", matches.size(),
+            drawingPanel.getSearchTotal(), (System.nanoTime() - started) / 1e6));
+    }
+    
     /**
      * Represents a connection between two process nodes
      */
-    private class Connection {
+    static class Connection {
+        private static final float BASE_THICKNESS = 1.5f;
+        private static final float MAX_EXTRA_THICKNESS = 6f;
+        static final int ARROW_LENGTH = 12;
+        // Reach of the drawn line and arrow head around the endpoints, also covers the pick tolerance
+        static final int MARGIN = (int) Math.ceil(BASE_THICKNESS + MAX_EXTRA_THICKNESS) + ARROW_LENGTH;
+        private static final long[] NO_PATH = new long[0];
+        
         private ProcessNode source;
         private ProcessNode destination;
+        private double rate;
+        private float thickness = BASE_THICKNESS;
+        
+        // Edges this connection stands for while their endpoints are hidden in collapsed subprocesses,
+        // each a {sourcePath, destinationPath} pair of uids below the drawn endpoints; null for a plain edge
+        private List<long[][]> members;
+        
+        // Cached endpoints, refreshed whenever either node moves
+        private Point start;
+        private Point end;
+        private Rectangle bounds;
+        
+        // Answer of the single-edge endpoint solve, only touched on the EDT
+        private static final double[] solved = new double[2];
         
         public Connection(ProcessNode source, ProcessNode destination) {
             this.source = source;
             this.destination = destination;
+            updateGeometry();
+        }
+        
+        /**
+         * Connection standing for one edge whose endpoints may lie inside collapsed subprocesses
+         */
+        static Connection aggregate(ProcessNode source, ProcessNode destination,
+                                    long[] sourcePath, long[] destinationPath) {
+            Connection connection = new Connection(source, destination);
+            if (sourcePath.length > 0 || destinationPath.length > 0) {
+                connection.members = new ArrayList<>(2);
+                connection.members.add(new long[][] {sourcePath, destinationPath});
+            }
+            return connection;
+        }
+        
+        /**
+         * Folds one more underlying edge into this connection
+         */
+        public void addMember(long[] sourcePath, long[] destinationPath) {
+            if (members == null) {
+                members = new ArrayList<>(2);
+                members.add(new long[][] {NO_PATH, NO_PATH});
+            }
+            members.add(new long[][] {sourcePath, destinationPath});
+        }
+        
+        public List<long[][]> getMembers() {
+            return members != null ? members : Collections.singletonList(new long[][] {NO_PATH, NO_PATH});
+        }
+        
+        public boolean isAggregated() {
+            return members != null;
+        }
+        
+        public Point getStart() {
+            return start;
+        }
+        
+        public Point getEnd() {
+            return end;
+        }
+        
+        /**
+         * Recomputes the endpoints on the node outlines and the covered area
+         */
+        public void updateGeometry() {
+            // Solved in place, a moved node re-solves its connections without allocating
+            double[] point = solved;
+            source.solveConnectionPoint(destination.x + destination.width / 2, destination.y + destination.height / 2,
+                point);
+            int startX = (int) point[0];
+            int startY = (int) point[1];
+            destination.solveConnectionPoint(source.x + source.width / 2, source.y + source.height / 2, point);
+            if (start == null) {
+                start = new Point();
+                end = new Point();
+                bounds = new Rectangle();
+            }
+            setEndpoints(startX, startY, (int) point[0], (int) point[1]);
+        }
+        
+        /**
+         * Stores endpoints computed by a batch solve
+         */
+        public void setEndpoints(int startX, int startY, int endX, int endY) {
+            start.setLocation(startX, startY);
+            end.setLocation(endX, endY);
+            bounds.setBounds(start.x, start.y, 0, 0);
+            bounds.add(end);
+            bounds.grow(MARGIN, MARGIN);
+        }
+        
+        /**
+         * Distance from a point to the drawn line, zero inside the arrow head
+         */
+        public double distanceTo(int px, int py) {
+            if (getArrowHead().contains(px, py)) {
+                return 0;
+            }
+            return Line2D.ptSegDist(start.x, start.y, end.x, end.y, px, py);
         }
         
         public ProcessNode getSource() {
@@ -386,348 +3298,304 @@ public class ProcessVisualizationTool extends JFrame {
             return destination;
         }
         
+        /**
+         * Key used by the live metrics stream to address this connection
+         */
+        public long getKey() {
+            return keyOf(source, destination);
+        }
+        
+        static long keyOf(ProcessNode source, ProcessNode destination) {
+            return ((long) source.id << 32) | (destination.id & 0xFFFFFFFFL);
+        }
+        
+        /**
+         * Applies a new traffic sample, returns true when the drawn thickness changed
+         */
+        public boolean updateMetrics(double sampleRate, double maxRate) {
+            rate = rate == 0 ? sampleRate : rate * 0.8 + sampleRate * 0.2;
+            float newThickness = BASE_THICKNESS + (float) (MAX_EXTRA_THICKNESS * Math.min(1, rate / maxRate));
+            if (Math.abs(newThickness - thickness) < 0.25f) {
+                return false;
+            }
+            thickness = newThickness;
+            return true;
+        }
+        
+        public void clearMetrics() {
+            rate = 0;
+            thickness = BASE_THICKNESS;
+        }
+        
+        public Rectangle getBounds() {
+            return bounds;
+        }
+        
+        /**
+         * Drawn line width: the traffic thickness, plus the log of the edge count when aggregated
+         */
+        public float getLineWidth() {
+            float width = thickness;
+            if (members != null) {
+                width += (float) Math.min(MAX_EXTRA_THICKNESS, Math.log(members.size()) / Math.log(2));
+            }
+            return width;
+        }
+        
         public void draw(Graphics2D g2d) {
-            Point start = source.getConnectionPoint(destination.getCenter());
-            Point end = destination.getConnectionPoint(source.getCenter());
-            
+            draw(g2d, Color.BLACK, getLineWidth());
+        }
+        
+        public void draw(Graphics2D g2d, Color lineColor, float lineWidth) {
             // Draw the connection line
-            g2d.setColor(Color.BLACK);
-            g2d.setStroke(new BasicStroke(1.5f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2d.setColor(lineColor);
+            g2d.setStroke(new BasicStroke(lineWidth, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
             g2d.drawLine(start.x, start.y, end.x, end.y);
             
             // Draw the arrow head
-            double dx = end.x - start.x;
-            double dy = end.y - start.y;
-            double angle = Math.atan2(dy, dx);
-            int len = 12;
+            g2d.fill(getArrowHead());
+            
+            if (members != null) {
+                g2d.drawString("\u00d7" + members.size(), (start.x + end.x) / 2 + 4, (start.y + end.y) / 2 - 4);
+            }
+        }
+        
+        /**
+         * Writes the same line, arrow head and edge count as {@link #draw(Graphics2D)}
+         */
+        public void export(VectorExporter out) throws IOException {
+            out.line(start.x, start.y, end.x, end.y, Color.BLACK, getLineWidth());
+            out.shape(getArrowHead(), Color.BLACK, null, 0, null);
+            if (members != null) {
+                out.text("\u00d7" + members.size(), (start.x + end.x) / 2 + 4, (start.y + end.y) / 2 - 4, Color.BLACK);
+            }
+        }
+        
+        /**
+         * The line and edge count as {@link #draw(Graphics2D)} draws them, for the wallboard
+         */
+        public WallboardRenderer.Edge snapshot() {
+            return new WallboardRenderer.Edge(start.x, start.y, end.x, end.y, getLineWidth(),
+                members != null ? "\u00d7" + members.size() : null);
+        }
+        
+        public Path2D.Double getArrowHead() {
+            return arrowHead(start.x, start.y, end.x, end.y);
+        }
+        
+        /**
+         * Arrow head at the end of a line, pointing along it
+         */
+        static Path2D.Double arrowHead(double fromX, double fromY, double toX, double toY) {
+            double angle = Math.atan2(toY - fromY, toX - fromX);
+            int len = ARROW_LENGTH;
             
             // Create the arrow head
             Path2D.Double path = new Path2D.Double();
-            path.moveTo(end.x, end.y);
-            path.lineTo(end.x - len * Math.cos(angle - Math.PI/6), 
-                       end.y - len * Math.sin(angle - Math.PI/6));
-            path.lineTo(end.x - len * Math.cos(angle + Math.PI/6), 
-                       end.y - len * Math.sin(angle + Math.PI/6));
+            path.moveTo(toX, toY);
+            path.lineTo(toX - len * Math.cos(angle - Math.PI/6), 
+                       toY - len * Math.sin(angle - Math.PI/6));
+            path.lineTo(toX - len * Math.cos(angle + Math.PI/6), 
+                       toY - len * Math.sin(angle + Math.PI/6));
             path.closePath();
-            
-            g2d.fill(path);
+            return path;
         }
     }
     
     /**
-     * Base class for all process node types
+     * A node in the diagram; outline, colour and hit test come from its shared {@link NodeType}
      */
-    private class ProcessNode {
+    static class ProcessNode {
+        private static final int METRICS_TEXT_HEIGHT = 16;
+        
+        protected int id;
+        // Stable identity among its siblings, kept when the enclosing subprocess is collapsed
+        protected long uid;
+        protected NodeType type;
+        protected List<Connection> incident = new ArrayList<>(2);
         protected int x, y;
         protected int width, height;
         protected String label;
-        protected Color color;
-        protected Rectangle bounds;
         
-        public ProcessNode(int x, int y, int width, int height, String label, Color color) {
+        // Live metrics overlay
+        protected double rate;
+        protected double latency;
+        protected double heat;
+        protected String metricsText;
+        
+        public ProcessNode(NodeType type, int x, int y, String label) {
+            this(type, x, y, type.getWidth(), type.getHeight(), label);
+        }
+        
+        public ProcessNode(NodeType type, int x, int y, int width, int height, String label) {
+            this.type = type;
             this.x = x - width / 2;
             this.y = y - height / 2;
             this.width = width;
             this.height = height;
             this.label = label;
-            this.color = color;
-            this.bounds = new Rectangle(this.x, this.y, width, height);
         }
         
         public boolean contains(int px, int py) {
-            return bounds.contains(px, py);
+            return px >= x && py >= y && px < x + width && py < y + height
+                && type.contains(px - x, py - y, width, height);
+        }
+        
+        public Rectangle getBounds() {
+            return new Rectangle(x, y, width, height);
         }
         
         public void move(int dx, int dy) {
             x += dx;
             y += dy;
-            bounds.setLocation(x, y);
         }
         
         public Point getCenter() {
             return new Point(x + width / 2, y + height / 2);
         }
         
-        public Point getConnectionPoint(Point target) {
-            if (target == null) return getCenter();
-            
-            int cx = x + width / 2;
-            int cy = y + height / 2;
-            
-            double angle = Math.atan2(target.y - cy, target.x - cx);
+        /**
+         * Applies a new metrics sample, returns true when the node needs repainting
+         */
+        public boolean updateMetrics(double sampleRate, double sampleLatency, double maxLatency) {
+            rate = rate == 0 ? sampleRate : rate * 0.8 + sampleRate * 0.2;
+            latency = latency == 0 ? sampleLatency : latency * 0.8 + sampleLatency * 0.2;
+            double newHeat = Math.min(1, latency / maxLatency);
+            String newText = formatRate(rate) + "/s  " + String.format("%.1fms", latency / 1000);
             
-            // Find intersection with the rectangle
-            double dx = Math.cos(angle);
-            double dy = Math.sin(angle);
-            
-            double t;
-            if (Math.abs(dx) * height > Math.abs(dy) * width) {
-                // Intersect with vertical edge
-                t = (dx > 0 ? (x + width - cx) : (x - cx)) / dx;
-            } else {
-                // Intersect with horizontal edge
-                t = (dy > 0 ? (y + height - cy) : (y - cy)) / dy;
-            }
-            
-            return new Point(
-                (int) (cx + dx * t),
-                (int) (cy + dy * t)
-            );
+            boolean changed = Math.abs(newHeat - heat) > 0.01 || !newText.equals(metricsText);
+            heat = newHeat;
+            metricsText = newText;
+            return changed;
         }
         
-        public void draw(Graphics2D g2d) {
-            // Draw shape
-            g2d.setColor(color);
-            g2d.fillRect(x, y, width, height);
-            g2d.setColor(Color.BLACK);
-            g2d.drawRect(x, y, width, height);
-            
-            // Draw label
-            drawCenteredString(g2d, label, x + width / 2, y + height / 2);
+        /**
+         * Weight used by the critical path analysis, the live latency when metrics are running
+         */
+        public double getDuration() {
+            return latency > 0 ? latency / 1000 : 1;
         }
         
-        protected void drawCenteredString(Graphics2D g2d, String text, int centerX, int centerY) {
-            FontMetrics metrics = g2d.getFontMetrics();
-            int x = centerX - metrics.stringWidth(text) / 2;
-            int y = centerY - metrics.getHeight() / 2 + metrics.getAscent();
-            g2d.setColor(Color.BLACK);
-            g2d.drawString(text, x, y);
+        public void clearMetrics() {
+            rate = 0;
+            latency = 0;
+            heat = 0;
+            metricsText = null;
         }
-    }
-    
-    /**
-     * Diamond shape for decision nodes
-     */
-    private class DiamondNode extends ProcessNode {
-        private Polygon diamond;
         
-        public DiamondNode(int x, int y, int width, int height, String label, Color color) {
-            super(x, y, width, height, label, color);
-            createDiamond();
+        /**
+         * Area covered by the node together with its metrics caption
+         */
+        public Rectangle getMetricsBounds() {
+            return new Rectangle(x - 40, y - 2, width + 80, height + METRICS_TEXT_HEIGHT + 4);
         }
         
-        private void createDiamond() {
-            diamond = new Polygon();
-            diamond.addPoint(x + width / 2, y);
-            diamond.addPoint(x + width, y + height / 2);
-            diamond.addPoint(x + width / 2, y + height);
-            diamond.addPoint(x, y + height / 2);
+        /**
+         * Fill colour, shifted from cool to hot while live metrics are running
+         */
+        protected Color getFillColor() {
+            Color color = type.getColor();
+            if (metricsText == null) {
+                return color;
+            }
+            float hue = (float) ((1 - heat) * 0.33);
+            Color hot = Color.getHSBColor(hue, 0.75f, 1f);
+            return new Color(
+                (color.getRed() + hot.getRed() * 3) / 4,
+                (color.getGreen() + hot.getGreen() * 3) / 4,
+                (color.getBlue() + hot.getBlue() * 3) / 4
+            );
         }
         
-        @Override
-        public boolean contains(int px, int py) {
-            return diamond.contains(px, py);
+        protected void drawMetrics(Graphics2D g2d) {
+            if (metricsText == null) {
+                return;
+            }
+            g2d.setColor(Color.DARK_GRAY);
+            Point origin = metricsTextOrigin(g2d.getFontMetrics());
+            g2d.drawString(metricsText, origin.x, origin.y);
         }
         
-        @Override
-        public void move(int dx, int dy) {
-            super.move(dx, dy);
-            createDiamond();
+        private Point metricsTextOrigin(FontMetrics metrics) {
+            return new Point(x + (width - metrics.stringWidth(metricsText)) / 2, y + height + METRICS_TEXT_HEIGHT - 3);
         }
         
-        @Override
-        public Point getConnectionPoint(Point target) {
-            if (target == null) return getCenter();
-            
-            int cx = x + width / 2;
-            int cy = y + height / 2;
-            
-            double angle = Math.atan2(target.y - cy, target.x - cx);
-            
-            // Calculate the point where the line intersects the diamond
-            double dx = Math.cos(angle);
-            double dy = Math.sin(angle);
-            
-            // Handle pure horizontal or vertical angles for numerical stability
-            if (Math.abs(dx) < 0.01) { // Almost vertical
-                return new Point(cx, dy > 0 ? y + height : y);
+        private String formatRate(double value) {
+            if (value >= 1_000_000) {
+                return String.format("%.1fM", value / 1_000_000);
             }
-            if (Math.abs(dy) < 0.01) { // Almost horizontal
-                return new Point(dx > 0 ? x + width : x, cy);
-            }
-            
-            // General case - find intersection with diamond lines
-            double slope = dy / dx;
-            double halfW = width / 2.0;
-            double halfH = height / 2.0;
-            
-            // Calculate intersection points with each edge of the diamond
-            double t;
-            if (Math.abs(slope) < halfH / halfW) { // Intersect with left or right edge
-                t = halfW / Math.abs(dx);
-            } else { // Intersect with top or bottom edge
-                t = halfH / Math.abs(dy);
+            if (value >= 1_000) {
+                return String.format("%.1fk", value / 1_000);
             }
-            
-            return new Point(
-                (int) (cx + dx * t),
-                (int) (cy + dy * t)
-            );
+            return String.format("%.0f", value);
         }
         
-        @Override
-        public void draw(Graphics2D g2d) {
-            // Draw diamond
-            g2d.setColor(color);
-            g2d.fill(diamond);
-            g2d.setColor(Color.BLACK);
-            g2d.draw(diamond);
+        public Point getConnectionPoint(Point target) {
+            if (target == null) return getCenter();
             
-            // Draw label
-            drawCenteredString(g2d, label, x + width / 2, y + height / 2);
-        }
-    }
-    
-    /**
-     * Oval shape for start/end nodes
-     */
-    private class OvalNode extends ProcessNode {
-        private Ellipse2D.Double oval;
-        
-        public OvalNode(int x, int y, int width, int height, String label, Color color) {
-            super(x, y, width, height, label, color);
-            oval = new Ellipse2D.Double(x, y, width, height);
-        }
-        
-        @Override
-        public boolean contains(int px, int py) {
-            return oval.contains(px, py);
+            double[] point = new double[2];
+            solveConnectionPoint(target.x, target.y, point);
+            return new Point((int) point[0], (int) point[1]);
         }
         
-        @Override
-        public void move(int dx, int dy) {
-            super.move(dx, dy);
-            oval = new Ellipse2D.Double(x, y, width, height);
+        /**
+         * Writes where a line from the centre towards the target leaves the outline into out
+         */
+        public void solveConnectionPoint(double targetX, double targetY, double[] out) {
+            EndpointSolver.solve(type.getShapeKind(), x + width / 2.0, y + height / 2.0,
+                width / 2.0, height / 2.0, type.getShapeOffset(width), targetX, targetY, out);
         }
         
-        @Override
-        public Point getConnectionPoint(Point target) {
-            if (target == null) return getCenter();
-            
-            int cx = x + width / 2;
-            int cy = y + height / 2;
-            
-            double angle = Math.atan2(target.y - cy, target.x - cx);
-            
-            // Calculate the point where the line intersects the ellipse
-            double a = width / 2.0;
-            double b = height / 2.0;
-            
-            double t = Math.atan2(a * Math.sin(angle), b * Math.cos(angle));
-            double px = cx + a * Math.cos(t) * Math.signum(Math.cos(angle));
-            double py = cy + b * Math.sin(t) * Math.signum(Math.sin(angle));
-            
-            return new Point((int) px, (int) py);
+        /**
+         * Queues both endpoints of a connection leaving this node into a batch
+         */
+        public int addEndpoint(EndpointSolver.Batch batch, Point target) {
+            return batch.add(type.getShapeKind(), x + width / 2.0, y + height / 2.0,
+                width / 2.0, height / 2.0, type.getShapeOffset(width), target.x, target.y);
         }
         
-        @Override
         public void draw(Graphics2D g2d) {
-            // Draw oval
-            g2d.setColor(color);
-            g2d.fill(oval);
-            g2d.setColor(Color.BLACK);
-            g2d.draw(oval);
+            // Draw shape
+            type.paint(g2d, x, y, width, height, getFillColor());
             
             // Draw label
             drawCenteredString(g2d, label, x + width / 2, y + height / 2);
-        }
-    }
-    
-    /**
-     * Parallelogram shape for input/output nodes
-     */
-    private class ParallelogramNode extends ProcessNode {
-        private Polygon parallelogram;
-        private int offset = 20;
-        
-        public ParallelogramNode(int x, int y, int width, int height, String label, Color color) {
-            super(x, y, width, height, label, color);
-            createParallelogram();
-        }
-        
-        private void createParallelogram() {
-            parallelogram = new Polygon();
-            parallelogram.addPoint(x + offset, y);
-            parallelogram.addPoint(x + width, y);
-            parallelogram.addPoint(x + width - offset, y + height);
-            parallelogram.addPoint(x, y + height);
+            drawMetrics(g2d);
         }
         
-        @Override
-        public boolean contains(int px, int py) {
-            return parallelogram.contains(px, py);
+        protected void drawCenteredString(Graphics2D g2d, String text, int centerX, int centerY) {
+            Point origin = centeredTextOrigin(g2d.getFontMetrics(), text, centerX, centerY);
+            g2d.setColor(Color.BLACK);
+            g2d.drawString(text, origin.x, origin.y);
         }
         
-        @Override
-        public void move(int dx, int dy) {
-            super.move(dx, dy);
-            createParallelogram();
+        /**
+         * Writes the same outline, label and metrics caption as {@link #draw}, in the
+         * font the metrics describe
+         */
+        public void export(VectorExporter out, FontMetrics metrics, float outlineWidth) throws IOException {
+            out.shape(type.outline(x, y, width, height), getFillColor(), Color.BLACK, outlineWidth, null);
+            Point origin = centeredTextOrigin(metrics, label, x + width / 2, y + height / 2);
+            out.text(label, origin.x, origin.y, Color.BLACK);
+            if (metricsText != null) {
+                origin = metricsTextOrigin(metrics);
+                out.text(metricsText, origin.x, origin.y, Color.DARK_GRAY);
+            }
         }
         
-        @Override
-        public Point getConnectionPoint(Point target) {
-            if (target == null) return getCenter();
-            
-            int cx = x + width / 2;
-            int cy = y + height / 2;
-            
-            double angle = Math.atan2(target.y - cy, target.x - cx);
-            double dx = Math.cos(angle);
-            double dy = Math.sin(angle);
-            
-            // Find intersection with the parallelogram edges
-            double t;
-            Point intersection = null;
-            
-            // Top edge
-            if (dy < 0) {
-                double tx = (y - cy) / dy;
-                double ix = cx + tx * dx;
-                if (ix >= x + offset && ix <= x + width) {
-                    intersection = new Point((int) ix, y);
-                }
-            }
-            
-            // Bottom edge
-            if (dy > 0 && intersection == null) {
-                double tx = (y + height - cy) / dy;
-                double ix = cx + tx * dx;
-                if (ix >= x && ix <= x + width - offset) {
-                    intersection = new Point((int) ix, y + height);
-                }
-            }
-            
-            // Left edge
-            if (dx < 0 && intersection == null) {
-                double ty = ((x - cx) * height + offset * (y - cy)) / (dx * height - dy * offset);
-                double iy = cy + ty * dy;
-                if (iy >= y && iy <= y + height) {
-                    intersection = new Point(x + (int) ((iy - y) * offset / height), (int) iy);
-                }
-            }
-            
-            // Right edge
-            if (dx > 0 && intersection == null) {
-                double ty = ((x + width - cx) * height - offset * (y - cy)) / (dx * height + dy * offset);
-                double iy = cy + ty * dy;
-                if (iy >= y && iy <= y + height) {
-                    intersection = new Point(x + width - (int) ((iy - y) * offset / height), (int) iy);
-                }
-            }
-            
-            return intersection != null ? intersection : getCenter();
+        /**
+         * The node as {@link #draw} paints it, with text placed for the font the metrics describe
+         */
+        public WallboardRenderer.Node snapshot(FontMetrics metrics) {
+            Point origin = centeredTextOrigin(metrics, label, x + width / 2, y + height / 2);
+            Point caption = metricsText != null ? metricsTextOrigin(metrics) : origin;
+            return new WallboardRenderer.Node(type, x, y, width, height, getFillColor(), label, origin.x, origin.y,
+                metricsText, caption.x, caption.y);
         }
         
-        @Override
-        public void draw(Graphics2D g2d) {
-            // Draw parallelogram
-            g2d.setColor(color);
-            g2d.fill(parallelogram);
-            g2d.setColor(Color.BLACK);
-            g2d.draw(parallelogram);
-            
-            // Draw label
-            drawCenteredString(g2d, label, x + width / 2, y + height / 2);
+        private static Point centeredTextOrigin(FontMetrics metrics, String text, int centerX, int centerY) {
+            return new Point(centerX - metrics.stringWidth(text) / 2,
+                centerY - metrics.getHeight() / 2 + metrics.getAscent());
         }
     }
 }
@@ -0,0 +1,215 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Interactive reachability and shortest path queries over one {@link GraphSnapshot}.
+ * Traversal state is stamped with a query epoch so nothing is cleared between queries,
+ * and recent answers are cached until the snapshot is replaced.
+ */
+final class ReachabilityIndex {
+    private static final int CACHE_SIZE = 64;
+    private static final int[] NO_PATH = new int[0];
+
+    private final GraphSnapshot graph;
+    private final int[] indexById;
+    private final int[] forwardStamp;
+    private final int[] backwardStamp;
+    private final int[] forwardDistance;
+    private final int[] backwardDistance;
+    private final int[] forwardParent;
+    private final int[] backwardParent;
+    private final int[] queue;
+    private final int[] nextQueue;
+    private int epoch;
+
+    private final Map<Long, int[]> cache = new LinkedHashMap<Long, int[]>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    ReachabilityIndex(GraphSnapshot graph) {
+        this.graph = graph;
+        int n = graph.nodeCount;
+
+        int maxId = 0;
+        for (int id : graph.nodeIds) {
+            maxId = Math.max(maxId, id);
+        }
+        indexById = new int[maxId + 1];
+        Arrays.fill(indexById, -1);
+        for (int i = 0; i < n; i++) {
+            indexById[graph.nodeIds[i]] = i;
+        }
+
+        forwardStamp = new int[n];
+        backwardStamp = new int[n];
+        forwardDistance = new int[n];
+        backwardDistance = new int[n];
+        forwardParent = new int[n];
+        backwardParent = new int[n];
+        queue = new int[Math.max(1, n)];
+        nextQueue = new int[Math.max(1, n)];
+    }
+
+    long getVersion() {
+        return graph.version;
+    }
+
+    /**
+     * Ids of all nodes reachable from the given node, excluding itself
+     */
+    int[] downstream(int nodeId) {
+        return cached(0, nodeId, 0, () -> collect(nodeId, graph.outOffsets, graph.outTargets));
+    }
+
+    /**
+     * Ids of all nodes that can reach the given node, excluding itself
+     */
+    int[] upstream(int nodeId) {
+        return cached(1, nodeId, 0, () -> collect(nodeId, graph.inOffsets, graph.inSources));
+    }
+
+    /**
+     * Ids along a shortest directed path from source to destination, empty if there is none
+     */
+    int[] shortestPath(int sourceId, int destinationId) {
+        return cached(2, sourceId, destinationId, () -> bidirectionalSearch(sourceId, destinationId));
+    }
+
+    private interface Query {
+        int[] run();
+    }
+
+    private int[] cached(int kind, int a, int b, Query query) {
+        long key = ((long) kind << 62) | ((long) a << 31) | b;
+        int[] result = cache.get(key);
+        if (result == null) {
+            result = query.run();
+            cache.put(key, result);
+        }
+        return result;
+    }
+
+    private int index(int nodeId) {
+        return nodeId >= 0 && nodeId < indexById.length ? indexById[nodeId] : -1;
+    }
+
+    private int nextEpoch() {
+        if (++epoch == Integer.MAX_VALUE) {
+            Arrays.fill(forwardStamp, 0);
+            Arrays.fill(backwardStamp, 0);
+            epoch = 1;
+        }
+        return epoch;
+    }
+
+    private int[] collect(int nodeId, int[] offsets, int[] targets) {
+        int start = index(nodeId);
+        if (start < 0) {
+            return NO_PATH;
+        }
+        int stamp = nextEpoch();
+        forwardStamp[start] = stamp;
+        queue[0] = start;
+        int head = 0;
+        int tail = 1;
+        while (head < tail) {
+            int v = queue[head++];
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int w = targets[e];
+                if (forwardStamp[w] != stamp) {
+                    forwardStamp[w] = stamp;
+                    queue[tail++] = w;
+                }
+            }
+        }
+
+        int[] ids = new int[tail - 1];
+        for (int i = 1; i < tail; i++) {
+            ids[i - 1] = graph.nodeIds[queue[i]];
+        }
+        return ids;
+    }
+
+    /**
+     * Expands whichever side has the smaller frontier, one whole level at a time,
+     * and keeps the best meeting point of the level so the path is a shortest one.
+     */
+    private int[] bidirectionalSearch(int sourceId, int destinationId) {
+        int source = index(sourceId);
+        int destination = index(destinationId);
+        if (source < 0 || destination < 0) {
+            return NO_PATH;
+        }
+        if (source == destination) {
+            return new int[] {sourceId};
+        }
+
+        int stamp = nextEpoch();
+        forwardStamp[source] = stamp;
+        forwardDistance[source] = 0;
+        forwardParent[source] = -1;
+        backwardStamp[destination] = stamp;
+        backwardDistance[destination] = 0;
+        backwardParent[destination] = -1;
+
+        int[] forwardFrontier = {source};
+        int[] backwardFrontier = {destination};
+        int meet = -1;
+        int best = Integer.MAX_VALUE;
+
+        while (forwardFrontier.length > 0 && backwardFrontier.length > 0 && meet < 0) {
+            boolean expandForward = forwardFrontier.length <= backwardFrontier.length;
+            int[] frontier = expandForward ? forwardFrontier : backwardFrontier;
+            int[] offsets = expandForward ? graph.outOffsets : graph.inOffsets;
+            int[] targets = expandForward ? graph.outTargets : graph.inSources;
+            int[] ownStamp = expandForward ? forwardStamp : backwardStamp;
+            int[] ownDistance = expandForward ? forwardDistance : backwardDistance;
+            int[] ownParent = expandForward ? forwardParent : backwardParent;
+            int[] otherStamp = expandForward ? backwardStamp : forwardStamp;
+            int[] otherDistance = expandForward ? backwardDistance : forwardDistance;
+
+            int size = 0;
+            for (int v : frontier) {
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int w = targets[e];
+                    if (ownStamp[w] == stamp) {
+                        continue;
+                    }
+                    ownStamp[w] = stamp;
+                    ownDistance[w] = ownDistance[v] + 1;
+                    ownParent[w] = v;
+                    nextQueue[size++] = w;
+                    if (otherStamp[w] == stamp && ownDistance[w] + otherDistance[w] < best) {
+                        best = ownDistance[w] + otherDistance[w];
+                        meet = w;
+                    }
+                }
+            }
+
+            int[] next = Arrays.copyOf(nextQueue, size);
+            if (expandForward) {
+                forwardFrontier = next;
+            } else {
+                backwardFrontier = next;
+            }
+        }
+
+        if (meet < 0) {
+            return NO_PATH;
+        }
+
+        int[] path = new int[best + 1];
+        int position = forwardDistance[meet];
+        for (int v = meet, i = position; v != -1; v = forwardParent[v]) {
+            path[i--] = graph.nodeIds[v];
+        }
+        for (int v = backwardParent[meet], i = position + 1; v != -1; v = backwardParent[v]) {
+            path[i++] = graph.nodeIds[v];
+        }
+        return path;
+    }
+}
@@ -0,0 +1,610 @@
+import javax.swing.SwingUtilities;
+import java.awt.Rectangle;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Out-of-core storage for diagrams larger than the heap.
+ *
+ * The canvas is cut into square pages of {@link #PAGE_SIZE} pixels. A node belongs to the
+ * page under its centre when it is created and stays there, so connections can refer to
+ * their target as (page, uid). Each page is one binary file, and a small text index keeps
+ * every page's extent so the pages under the viewport are known without opening them.
+ *
+ * Residency and the LRU order are only touched on the EDT. Page files are read on
+ * loader threads, and edited pages are written back on a separate writer thread.
+ * Until a write completes, or for good if it fails, a read of that page returns the data
+ * being written.
+ */
+final class RegionPager {
+    static final int PAGE_SIZE = 2048;
+
+    // Rough heap cost of a resident node or connection, including its grid entries
+    private static final int NODE_BYTES = 320;
+    private static final int EDGE_BYTES = 240;
+    private static final int MAGIC = 0x50565450;
+    private static final String INDEX_FILE = "pages.index";
+    private static final int LOADER_THREADS = 2;
+
+    private final Path directory;
+    private final long budgetBytes;
+    private final Consumer<PageData> installer;
+    private final Consumer<IOException> failures;
+    private final Map<Long, Rectangle> extents = new HashMap<>();
+    private final LinkedHashMap<Long, Page> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<Long> loading = new HashSet<>();
+    private final Set<Long> wanted = ConcurrentHashMap.newKeySet();
+    /** Pages whose file could not be read, left out instead of failing again on every scroll */
+    private final Set<Long> unreadable = ConcurrentHashMap.newKeySet();
+    private final Map<Long, PageData> writesInFlight = new ConcurrentHashMap<>();
+    private final ExecutorService loader;
+    private final ExecutorService writer;
+    private boolean indexDirty;
+
+    /**
+     * @param installer called on the EDT with every page read in the background
+     * @param failures called on the EDT when a page could not be read, or a page or the index written
+     */
+    RegionPager(Path directory, long budgetBytes, Consumer<PageData> installer,
+                Consumer<IOException> failures) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.budgetBytes = budgetBytes;
+        this.installer = installer;
+        this.failures = failures;
+        readIndex();
+        loader = Executors.newFixedThreadPool(LOADER_THREADS, daemon("page-loader"));
+        writer = Executors.newSingleThreadExecutor(daemon("page-writer"));
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static long pageIdAt(int x, int y) {
+        return ((long) Math.floorDiv(x, PAGE_SIZE) << 32) | (Math.floorDiv(y, PAGE_SIZE) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * A page whose nodes are on the canvas
+     */
+    static final class Page {
+        final long id;
+        final Map<Long, ProcessVisualizationTool.ProcessNode> nodes = new LinkedHashMap<>();
+        boolean dirty;
+        int edgeCount;
+
+        Page(long id) {
+            this.id = id;
+        }
+
+        long estimateBytes() {
+            return (long) nodes.size() * NODE_BYTES + (long) edgeCount * EDGE_BYTES;
+        }
+    }
+
+    /**
+     * A connection read from a resident page whose target page is not loaded yet
+     */
+    static final class PendingEdge {
+        final ProcessVisualizationTool.ProcessNode source;
+        final long[] sourcePath;
+        final long targetUid;
+        final long[] targetPath;
+
+        PendingEdge(ProcessVisualizationTool.ProcessNode source, long[] sourcePath, long targetUid, long[] targetPath) {
+            this.source = source;
+            this.sourcePath = sourcePath;
+            this.targetUid = targetUid;
+            this.targetPath = targetPath;
+        }
+    }
+
+    // Extents
+
+    boolean exists(long id) {
+        return extents.containsKey(id);
+    }
+
+    List<Long> pagesIntersecting(Rectangle area) {
+        List<Long> ids = new ArrayList<>();
+        for (Map.Entry<Long, Rectangle> entry : extents.entrySet()) {
+            if (entry.getValue().intersects(area)) {
+                ids.add(entry.getKey());
+            }
+        }
+        return ids;
+    }
+
+    Rectangle getExtent(long id) {
+        Rectangle extent = extents.get(id);
+        return extent != null ? new Rectangle(extent) : null;
+    }
+
+    /**
+     * Union of all page extents, null when the store is empty
+     */
+    Rectangle getTotalExtent() {
+        Rectangle total = null;
+        for (Rectangle extent : extents.values()) {
+            if (total == null) {
+                total = new Rectangle(extent);
+            } else {
+                total.add(extent);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Widens a page's extent to cover the given bounds, returns true if it grew
+     */
+    boolean growExtent(long id, Rectangle bounds) {
+        Rectangle extent = extents.get(id);
+        if (extent == null) {
+            extents.put(id, new Rectangle(bounds));
+        } else if (!extent.contains(bounds)) {
+            extent.add(bounds);
+        } else {
+            return false;
+        }
+        indexDirty = true;
+        return true;
+    }
+
+    // Residency, EDT only
+
+    boolean isResident(long id) {
+        return resident.containsKey(id);
+    }
+
+    /**
+     * Resident page, marked as most recently used
+     */
+    Page getPage(long id) {
+        return resident.get(id);
+    }
+
+    Collection<Page> getResidentPages() {
+        return new ArrayList<>(resident.values());
+    }
+
+    /**
+     * Registers a page read by the loader (or an empty new one) as resident
+     */
+    Page installed(long id) {
+        loading.remove(id);
+        Page page = new Page(id);
+        resident.put(id, page);
+        return page;
+    }
+
+    void removed(Page page) {
+        resident.remove(page.id);
+    }
+
+    /**
+     * Replaces the set of pages worth loading and queues the ones that are missing.
+     * Queued reads of pages that are no longer wanted are skipped when their turn comes.
+     */
+    void want(List<Long> ids) {
+        wanted.clear();
+        wanted.addAll(ids);
+        for (long id : ids) {
+            if (resident.containsKey(id) || unreadable.contains(id) || !loading.add(id)) {
+                continue;
+            }
+            loader.execute(() -> {
+                PageData data = null;
+                if (wanted.contains(id)) {
+                    try {
+                        data = read(id);
+                    } catch (IOException e) {
+                        unreadable.add(id);
+                        reportFailure("Could not read " + fileFor(id).getFileName() + ", leaving the page out", e);
+                    }
+                }
+                PageData loaded = data;
+                SwingUtilities.invokeLater(() -> {
+                    if (loader.isShutdown()) {
+                        return;
+                    }
+                    if (loaded == null) {
+                        loading.remove(id);
+                    } else if (loading.contains(id)) {
+                        installer.accept(loaded);
+                    }
+                });
+            });
+        }
+    }
+
+    /**
+     * Reads a page on the calling thread, for edits that land on a page that is not resident
+     */
+    PageData loadNow(long id) throws IOException {
+        loading.add(id);
+        return read(id);
+    }
+
+    /**
+     * Resident pages to evict, least recently used first, until the estimate fits the budget.
+     * Pinned pages are never returned.
+     */
+    List<Page> evictionCandidates(Set<Long> pinned) {
+        long total = 0;
+        for (Page page : resident.values()) {
+            total += page.estimateBytes();
+        }
+        List<Page> victims = new ArrayList<>();
+        for (Page page : resident.values()) {
+            if (total <= budgetBytes) {
+                break;
+            }
+            if (!pinned.contains(page.id)) {
+                victims.add(page);
+                total -= page.estimateBytes();
+            }
+        }
+        return victims;
+    }
+
+    // Disk
+
+    /**
+     * Queues a page for writing; the data is immutable so the EDT can move on at once.
+     * If the write fails the data stays in memory and is served to reads of the page, as the
+     * file is now older than it, until a later write of the page succeeds.
+     */
+    void writeBack(PageData data) {
+        extents.put(data.id, new Rectangle(data.extent));
+        indexDirty = true;
+        writesInFlight.put(data.id, data);
+        Map<Long, Rectangle> index = copyIndex();
+        indexDirty = false;
+        writer.execute(() -> {
+            try {
+                write(data);
+                writesInFlight.remove(data.id, data);
+                writeIndex(index);
+            } catch (IOException e) {
+                reportFailure("Could not write " + fileFor(data.id).getFileName() + ", keeping the page in memory", e);
+            }
+        });
+    }
+
+    /**
+     * Writes the index if extents changed, then waits until every queued write is on disk
+     */
+    void flush() {
+        if (indexDirty) {
+            Map<Long, Rectangle> index = copyIndex();
+            indexDirty = false;
+            writer.execute(() -> {
+                try {
+                    writeIndex(index);
+                } catch (IOException e) {
+                    reportFailure("Could not write the page index", e);
+                }
+            });
+        }
+        try {
+            writer.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            reportFailure("Could not finish writing pages", e.getCause());
+        }
+    }
+
+    void close() {
+        flush();
+        loader.shutdownNow();
+        writer.shutdown();
+    }
+
+    private void reportFailure(String message, Throwable cause) {
+        IOException failure = new IOException(message + ": " + cause.getMessage(), cause);
+        SwingUtilities.invokeLater(() -> failures.accept(failure));
+    }
+
+    private Map<Long, Rectangle> copyIndex() {
+        Map<Long, Rectangle> copy = new HashMap<>(extents.size() * 2);
+        for (Map.Entry<Long, Rectangle> entry : extents.entrySet()) {
+            copy.put(entry.getKey(), new Rectangle(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private Path fileFor(long id) {
+        return directory.resolve("page_" + (int) (id >> 32) + "_" + (int) id + ".bin");
+    }
+
+    private PageData read(long id) throws IOException {
+        PageData pending = writesInFlight.get(id);
+        if (pending != null) {
+            return pending;
+        }
+        Path file = fileFor(id);
+        if (!Files.exists(file)) {
+            return new PageData.Builder(id).build();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readLong() != id) {
+                throw new IOException(file.getFileName() + ": not a page file");
+            }
+            PageData.Builder builder = new PageData.Builder(id);
+            int nodeCount = in.readInt();
+            for (int i = 0; i < nodeCount; i++) {
+                long uid = in.readLong();
+                int x = in.readInt();
+                int y = in.readInt();
+                int width = in.readInt();
+                int height = in.readInt();
+                String type = in.readUTF();
+                String label = in.readUTF();
+                String childKey = in.readUTF();
+                builder.addNode(uid, type, x, y, width, height, label, childKey.isEmpty() ? null : childKey);
+            }
+            int edgeCount = in.readInt();
+            for (int e = 0; e < edgeCount; e++) {
+                int source = in.readInt();
+                long targetPage = in.readLong();
+                long targetUid = in.readLong();
+                builder.addEdge(source, targetPage, targetUid, readPath(in), readPath(in));
+            }
+            return builder.build();
+        }
+    }
+
+    private void write(PageData data) throws IOException {
+        Path file = fileFor(data.id);
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            writePage(data, out);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writePage(PageData data, DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(data.id);
+        DiagramStore.Diagram nodes = data.nodes;
+        out.writeInt(nodes.nodeCount);
+        for (int i = 0; i < nodes.nodeCount; i++) {
+            out.writeLong(nodes.uids[i]);
+            out.writeInt(nodes.xs[i]);
+            out.writeInt(nodes.ys[i]);
+            out.writeInt(nodes.widths[i]);
+            out.writeInt(nodes.heights[i]);
+            out.writeUTF(nodes.types[i]);
+            out.writeUTF(nodes.labels[i]);
+            out.writeUTF(nodes.childKeys[i] != null ? nodes.childKeys[i] : "");
+        }
+        out.writeInt(data.edgeCount);
+        for (int e = 0; e < data.edgeCount; e++) {
+            out.writeInt(data.edgeSources[e]);
+            out.writeLong(data.edgeTargetPages[e]);
+            out.writeLong(data.edgeTargetUids[e]);
+            writePath(out, data.sourcePaths[e]);
+            writePath(out, data.targetPaths[e]);
+        }
+    }
+
+    private static long[] readPath(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        long[] path = new long[length];
+        for (int i = 0; i < length; i++) {
+            path[i] = in.readLong();
+        }
+        return path;
+    }
+
+    private static void writePath(DataOutputStream out, long[] path) throws IOException {
+        out.writeShort(path.length);
+        for (long uid : path) {
+            out.writeLong(uid);
+        }
+    }
+
+    private void readIndex() throws IOException {
+        Path file = directory.resolve(INDEX_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.US_ASCII)) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length != 5 || line.startsWith("#")) {
+                continue;
+            }
+            extents.put(Long.parseLong(fields[0]), new Rectangle(Integer.parseInt(fields[1]),
+                Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+        }
+    }
+
+    private void writeIndex(Map<Long, Rectangle> index) throws IOException {
+        writeIndex(directory, index);
+    }
+
+    private static void writeIndex(Path directory, Map<Long, Rectangle> index) throws IOException {
+        Path file = directory.resolve(INDEX_FILE);
+        Path temp = directory.resolve(INDEX_FILE + ".tmp");
+        try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.US_ASCII)) {
+            out.write("# page x y width height\n");
+            for (Map.Entry<Long, Rectangle> entry : index.entrySet()) {
+                Rectangle extent = entry.getValue();
+                out.write(entry.getKey() + " " + extent.x + " " + extent.y + " "
+                    + extent.width + " " + extent.height + "\n");
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Immutable contents of one page: its nodes, and every connection whose source is
+     * one of them, addressed to the target's (page, uid)
+     */
+    static final class PageData {
+        final long id;
+        final Rectangle extent;
+        final DiagramStore.Diagram nodes;
+        final int edgeCount;
+        final int[] edgeSources;
+        final long[] edgeTargetPages;
+        final long[] edgeTargetUids;
+        final long[][] sourcePaths;
+        final long[][] targetPaths;
+
+        private PageData(Builder builder) {
+            id = builder.id;
+            nodes = builder.nodes.build();
+            edgeCount = builder.edgeCount;
+            edgeSources = Arrays.copyOf(builder.edgeSources, edgeCount);
+            edgeTargetPages = Arrays.copyOf(builder.edgeTargetPages, edgeCount);
+            edgeTargetUids = Arrays.copyOf(builder.edgeTargetUids, edgeCount);
+            sourcePaths = builder.sourcePaths.toArray(new long[0][]);
+            targetPaths = builder.targetPaths.toArray(new long[0][]);
+            extent = builder.extent != null ? builder.extent : new Rectangle();
+        }
+
+        static final class Builder {
+            private final long id;
+            private final DiagramStore.Diagram.Builder nodes = new DiagramStore.Diagram.Builder();
+            private Rectangle extent;
+            private int edgeCount;
+            private int[] edgeSources = new int[16];
+            private long[] edgeTargetPages = new long[16];
+            private long[] edgeTargetUids = new long[16];
+            private final List<long[]> sourcePaths = new ArrayList<>();
+            private final List<long[]> targetPaths = new ArrayList<>();
+
+            Builder(long id) {
+                this.id = id;
+            }
+
+            int addNode(long uid, String type, int x, int y, int width, int height, String label, String childKey) {
+                Rectangle bounds = new Rectangle(x, y, width, height);
+                if (extent == null) {
+                    extent = bounds;
+                } else {
+                    extent.add(bounds);
+                }
+                return nodes.addNode(uid, type, x, y, width, height, label, childKey);
+            }
+
+            /**
+             * Widens the recorded extent, for nodes drawn larger than their stored size
+             */
+            void include(Rectangle bounds) {
+                if (extent == null) {
+                    extent = new Rectangle(bounds);
+                } else {
+                    extent.add(bounds);
+                }
+            }
+
+            void addEdge(int source, long targetPage, long targetUid, long[] sourcePath, long[] targetPath) {
+                if (edgeCount == edgeSources.length) {
+                    edgeSources = Arrays.copyOf(edgeSources, edgeCount * 2);
+                    edgeTargetPages = Arrays.copyOf(edgeTargetPages, edgeCount * 2);
+                    edgeTargetUids = Arrays.copyOf(edgeTargetUids, edgeCount * 2);
+                }
+                edgeSources[edgeCount] = source;
+                edgeTargetPages[edgeCount] = targetPage;
+                edgeTargetUids[edgeCount] = targetUid;
+                sourcePaths.add(sourcePath);
+                targetPaths.add(targetPath);
+                edgeCount++;
+            }
+
+            PageData build() {
+                return new PageData(this);
+            }
+        }
+    }
+
+    /**
+     * Writes a synthetic grid-shaped process of the given size as a page store, for trying
+     * out paging: java RegionPager <directory> <nodeCount>
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: java RegionPager <directory> <nodeCount>");
+            System.exit(1);
+        }
+        Path directory = Files.createDirectories(Paths.get(args[0]));
+        long count = Long.parseLong(args[1]);
+        int columns = (int) Math.max(1, Math.ceil(Math.sqrt(count * 1.5)));
+        long rows = (count + columns - 1) / columns;
+        int spacingX = 180;
+        int spacingY = 120;
+
+        Map<Long, Rectangle> index = new HashMap<>();
+        int pageColumns = (int) ((columns * (long) spacingX + PAGE_SIZE - 1) / PAGE_SIZE);
+        long pageRows = (rows * spacingY + PAGE_SIZE - 1) / PAGE_SIZE;
+        long started = System.nanoTime();
+        for (long pageRow = 0; pageRow < pageRows; pageRow++) {
+            for (int pageColumn = 0; pageColumn < pageColumns; pageColumn++) {
+                long id = ((long) pageColumn << 32) | (pageRow & 0xFFFFFFFFL);
+                PageData.Builder builder = new PageData.Builder(id);
+                Map<Long, Integer> local = new HashMap<>();
+                int firstColumn = (int) Math.max(0, ((long) pageColumn * PAGE_SIZE - spacingX / 2 + spacingX - 1) / spacingX);
+                long firstRow = Math.max(0, (pageRow * PAGE_SIZE - spacingY / 2 + spacingY - 1) / spacingY);
+                for (long row = firstRow; row < rows && row * spacingY + spacingY / 2 < (pageRow + 1) * PAGE_SIZE; row++) {
+                    for (int column = firstColumn; column < columns
+                            && (long) column * spacingX + spacingX / 2 < (long) (pageColumn + 1) * PAGE_SIZE; column++) {
+                        long i = row * columns + column;
+                        if (i >= count) {
+                            break;
+                        }
+                        NodeType type = i == 0 ? NodeType.START : i == count - 1 ? NodeType.END
+                            : i % 7 == 3 ? NodeType.DECISION : NodeType.PROCESS;
+                        int centerX = column * spacingX + spacingX / 2;
+                        int centerY = (int) (row * spacingY + spacingY / 2);
+                        local.put(i, builder.addNode(i + 1, type.getName(), centerX - type.getWidth() / 2,
+                            centerY - type.getHeight() / 2, type.getWidth(), type.getHeight(),
+                            type == NodeType.PROCESS || type == NodeType.DECISION ? "Step " + i : type.getName(), null));
+                    }
+                }
+                for (Map.Entry<Long, Integer> entry : local.entrySet()) {
+                    long i = entry.getKey();
+                    long right = i + 1;
+                    long down = i + columns;
+                    if (right < count && right % columns != 0) {
+                        builder.addEdge(entry.getValue(), pageOfNode(right, columns, spacingX, spacingY),
+                            right + 1, new long[0], new long[0]);
+                    }
+                    if (down < count && i % 5 == 0) {
+                        builder.addEdge(entry.getValue(), pageOfNode(down, columns, spacingX, spacingY),
+                            down + 1, new long[0], new long[0]);
+                    }
+                }
+                if (local.isEmpty()) {
+                    continue;
+                }
+                PageData data = builder.build();
+                Path file = directory.resolve("page_" + pageColumn + "_" + pageRow + ".bin");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+                    writePage(data, out);
+                }
+                index.put(id, data.extent);
+            }
+        }
+        writeIndex(directory, index);
+        System.out.printf("Wrote %d nodes in %d pages to %s in %.1f s%n", count, index.size(), directory,
+            (System.nanoTime() - started) / 1e9);
+    }
+
+    private static long pageOfNode(long i, int columns, int spacingX, int spacingY) {
+        int centerX = (int) (i % columns) * spacingX + spacingX / 2;
+        int centerY = (int) ((i / columns) * spacingY + spacingY / 2);
+        return pageIdAt(centerX, centerY);
+    }
+}
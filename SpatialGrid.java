@@ -0,0 +1,261 @@
+import java.awt.Rectangle;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Uniform grid over the canvas for range and point queries.
+ * A rectangle item is stored in each cell its bounds overlap; a segment item only in the
+ * cells along the segment, widened by its margin, so a long diagonal line costs cells in
+ * proportion to its length rather than to the area of its bounding box. Queries only visit
+ * the cells covering the query area and report each item once.
+ */
+class SpatialGrid<T> {
+    private final int cellSize;
+    private final Map<Long, List<T>> cells = new HashMap<>();
+    private final Map<T, Entry> entries = new IdentityHashMap<>();
+    private Consumer<Rectangle> changeListener;
+    private int queryMark;
+
+    /**
+     * Where an item is stored: its bounds and, for a segment, the cells along it
+     */
+    private static final class Entry {
+        final Rectangle bounds;
+        long[] segmentCells;
+        // Last query that reported this segment
+        int mark;
+
+        Entry(Rectangle bounds, long[] segmentCells) {
+            this.bounds = bounds;
+            this.segmentCells = segmentCells;
+        }
+    }
+
+    public SpatialGrid(int cellSize) {
+        this.cellSize = cellSize;
+    }
+
+    /**
+     * Receives the old and new bounds of every item that is put or removed, and null when
+     * the grid is cleared
+     */
+    public void setChangeListener(Consumer<Rectangle> listener) {
+        changeListener = listener;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Inserts the item, or moves it if it is already present
+     */
+    public void put(T item, Rectangle bounds) {
+        Entry old = entries.get(item);
+        notifyMove(old, bounds);
+        if (old != null) {
+            if (old.segmentCells == null && sameCells(old.bounds, bounds)) {
+                old.bounds.setBounds(bounds);
+                return;
+            }
+            removeFromCells(item, old);
+        }
+        Entry entry = new Entry(new Rectangle(bounds), null);
+        entries.put(item, entry);
+        forEachCell(entry.bounds, key -> addToCell(key, item));
+    }
+
+    /**
+     * Inserts the line from (x1, y1) to (x2, y2), or moves it if it is already present; it
+     * covers every point within margin of the line
+     */
+    public void putSegment(T item, int x1, int y1, int x2, int y2, int margin) {
+        Rectangle bounds = new Rectangle(Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1));
+        bounds.grow(margin, margin);
+        long[] segmentCells = segmentCells(x1, y1, x2, y2, margin);
+        Entry old = entries.get(item);
+        notifyMove(old, bounds);
+        if (old != null) {
+            if (Arrays.equals(old.segmentCells, segmentCells)) {
+                old.bounds.setBounds(bounds);
+                return;
+            }
+            removeFromCells(item, old);
+        }
+        entries.put(item, new Entry(bounds, segmentCells));
+        for (long key : segmentCells) {
+            addToCell(key, item);
+        }
+    }
+
+    public void remove(T item) {
+        Entry old = entries.remove(item);
+        if (old != null) {
+            removeFromCells(item, old);
+            if (changeListener != null) {
+                changeListener.accept(old.bounds);
+            }
+        }
+    }
+
+    public void clear() {
+        cells.clear();
+        entries.clear();
+        if (changeListener != null) {
+            changeListener.accept(null);
+        }
+    }
+
+    /**
+     * Reports every item whose bounds intersect the area, each exactly once; a segment only
+     * when one of the cells along it overlaps the area. The consumer must not query this grid.
+     */
+    public void query(Rectangle area, Consumer<T> consumer) {
+        int minX = Math.floorDiv(area.x, cellSize);
+        int minY = Math.floorDiv(area.y, cellSize);
+        int maxX = Math.floorDiv(area.x + Math.max(0, area.width - 1), cellSize);
+        int maxY = Math.floorDiv(area.y + Math.max(0, area.height - 1), cellSize);
+        int mark = ++queryMark;
+
+        for (int cy = minY; cy <= maxY; cy++) {
+            for (int cx = minX; cx <= maxX; cx++) {
+                List<T> items = cells.get(key(cx, cy));
+                if (items == null) {
+                    continue;
+                }
+                for (T item : items) {
+                    Entry entry = entries.get(item);
+                    Rectangle bounds = entry.bounds;
+                    if (!bounds.intersects(area)) {
+                        continue;
+                    }
+                    if (entry.segmentCells != null) {
+                        // Segments are not in every cell of their bounds, so they remember the query
+                        if (entry.mark != mark) {
+                            entry.mark = mark;
+                            consumer.accept(item);
+                        }
+                        continue;
+                    }
+                    // Only the cell holding the corner of the overlap reports the item
+                    int ox = Math.max(bounds.x, area.x);
+                    int oy = Math.max(bounds.y, area.y);
+                    if (Math.floorDiv(ox, cellSize) == cx && Math.floorDiv(oy, cellSize) == cy) {
+                        consumer.accept(item);
+                    }
+                }
+            }
+        }
+    }
+
+    public List<T> query(Rectangle area) {
+        List<T> result = new ArrayList<>();
+        query(area, result::add);
+        return result;
+    }
+
+    private void notifyMove(Entry old, Rectangle bounds) {
+        if (changeListener != null) {
+            if (old != null) {
+                changeListener.accept(old.bounds);
+            }
+            changeListener.accept(bounds);
+        }
+    }
+
+    private void addToCell(long key, T item) {
+        cells.computeIfAbsent(key, k -> new ArrayList<>(4)).add(item);
+    }
+
+    private void removeFromCells(T item, Entry entry) {
+        if (entry.segmentCells != null) {
+            for (long key : entry.segmentCells) {
+                removeFromCell(key, item);
+            }
+        } else {
+            forEachCell(entry.bounds, key -> removeFromCell(key, item));
+        }
+    }
+
+    private void removeFromCell(long key, T item) {
+        List<T> items = cells.get(key);
+        if (items == null) {
+            return;
+        }
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (items.get(i) == item) {
+                items.set(i, items.get(items.size() - 1));
+                items.remove(items.size() - 1);
+                break;
+            }
+        }
+        if (items.isEmpty()) {
+            cells.remove(key);
+        }
+    }
+
+    /**
+     * Cells within margin of a segment, row by row: in each row of cells, the part of the
+     * segment within margin of the row, widened by margin on both sides
+     */
+    private long[] segmentCells(int x1, int y1, int x2, int y2, int margin) {
+        long[] result = new long[8];
+        int count = 0;
+        int minRow = Math.floorDiv(Math.min(y1, y2) - margin, cellSize);
+        int maxRow = Math.floorDiv(Math.max(y1, y2) + margin, cellSize);
+        for (int row = minRow; row <= maxRow; row++) {
+            double low = Math.max(Math.min(y1, y2), (double) row * cellSize - margin);
+            double high = Math.min(Math.max(y1, y2), (double) (row + 1) * cellSize + margin);
+            double fromX;
+            double toX;
+            if (y1 == y2) {
+                fromX = Math.min(x1, x2);
+                toX = Math.max(x1, x2);
+            } else {
+                // x where the segment crosses the top and bottom of the slab
+                double xLow = x1 + (x2 - x1) * (low - y1) / (y2 - y1);
+                double xHigh = x1 + (x2 - x1) * (high - y1) / (y2 - y1);
+                fromX = Math.min(xLow, xHigh);
+                toX = Math.max(xLow, xHigh);
+            }
+            int minColumn = Math.floorDiv((int) Math.floor(fromX) - margin, cellSize);
+            int maxColumn = Math.floorDiv((int) Math.ceil(toX) + margin, cellSize);
+            for (int column = minColumn; column <= maxColumn; column++) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = key(column, row);
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private boolean sameCells(Rectangle a, Rectangle b) {
+        return Math.floorDiv(a.x, cellSize) == Math.floorDiv(b.x, cellSize)
+            && Math.floorDiv(a.y, cellSize) == Math.floorDiv(b.y, cellSize)
+            && Math.floorDiv(a.x + Math.max(0, a.width - 1), cellSize)
+                == Math.floorDiv(b.x + Math.max(0, b.width - 1), cellSize)
+            && Math.floorDiv(a.y + Math.max(0, a.height - 1), cellSize)
+                == Math.floorDiv(b.y + Math.max(0, b.height - 1), cellSize);
+    }
+
+    private interface CellVisitor {
+        void visit(long key);
+    }
+
+    private void forEachCell(Rectangle bounds, CellVisitor visitor) {
+        int minX = Math.floorDiv(bounds.x, cellSize);
+        int minY = Math.floorDiv(bounds.y, cellSize);
+        int maxX = Math.floorDiv(bounds.x + Math.max(0, bounds.width - 1), cellSize);
+        int maxY = Math.floorDiv(bounds.y + Math.max(0, bounds.height - 1), cellSize);
+        for (int cy = minY; cy <= maxY; cy++) {
+            for (int cx = minX; cx <= maxX; cx++) {
+                visitor.visit(key(cx, cy));
+            }
+        }
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,38 @@
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Expansion state of one subprocess node on the canvas.
+ * While collapsed only the store key is kept; the children live in the {@link DiagramStore}.
+ */
+final class Subprocess {
+    final String key;
+    int collapsedWidth;
+    int collapsedHeight;
+
+    /** Resident children while expanded, null while collapsed */
+    Set<ProcessVisualizationTool.ProcessNode> children;
+
+    /** Contents as loaded, so collapsing only writes back when something changed */
+    DiagramStore.Diagram expandedFrom;
+
+    Subprocess(String key) {
+        this.key = key;
+    }
+
+    boolean isExpanded() {
+        return children != null;
+    }
+
+    void expanded(DiagramStore.Diagram diagram, int width, int height) {
+        children = new LinkedHashSet<>();
+        expandedFrom = diagram;
+        collapsedWidth = width;
+        collapsedHeight = height;
+    }
+
+    void collapsed() {
+        children = null;
+        expandedFrom = null;
+    }
+}
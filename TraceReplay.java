@@ -0,0 +1,297 @@
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import javax.swing.JComponent;
+import javax.swing.RepaintManager;
+import javax.swing.SwingUtilities;
+
+/**
+ * Replays an {@link InteractionTrace} against an offscreen drawing panel and reports
+ * event-to-frame latency percentiles per kind of interaction. A recorded trace is replayed
+ * on the diagram saved with it, a synthesized one on a synthetic grid.
+ *
+ * Each event is dispatched on the event dispatch thread, work it queued there (such as a
+ * batched move) is drained, and if it asked for a repaint of the visible area that area is
+ * painted into an offscreen image; the time from dispatch to the end of that paint is the
+ * event's latency. Events are replayed back to back rather than at their recorded times, so
+ * one slow frame does not hide the cost of the next. Results can be saved as a baseline and
+ * later runs compared with it.
+ *
+ * Usage: java TraceReplay <trace> [nodeCount] [--baseline <file>] [--save-baseline <file>],
+ * where nodeCount resizes the grid of a synthesized trace.
+ *
+ * Exits with status 2 when a percentile is more than {@code -Dpvt.replayTolerance} (0.25)
+ * slower than the baseline and at least {@link #NOISE_FLOOR_MILLIS} slower in absolute terms.
+ */
+final class TraceReplay {
+    private static final int[] PERCENTILES = {50, 90, 99};
+    private static final double NOISE_FLOOR_MILLIS = 0.2;
+    private static final int WARMUP_PASSES = 1;
+
+    private TraceReplay() {
+    }
+
+    /**
+     * Latencies of the events of one kind that produced a frame
+     */
+    static final class Stats {
+        final String category;
+        int events;
+        private long[] nanos = new long[64];
+        private int frames;
+        private boolean sorted;
+
+        Stats(String category) {
+            this.category = category;
+        }
+
+        void add(long latency) {
+            if (frames == nanos.length) {
+                nanos = Arrays.copyOf(nanos, frames * 2);
+            }
+            nanos[frames++] = latency;
+            sorted = false;
+        }
+
+        int getFrames() {
+            return frames;
+        }
+
+        /**
+         * Nearest-rank percentile in milliseconds, zero when no event produced a frame
+         */
+        double percentile(int percent) {
+            if (frames == 0) {
+                return 0;
+            }
+            if (!sorted) {
+                Arrays.sort(nanos, 0, frames);
+                sorted = true;
+            }
+            int rank = (int) Math.ceil(percent / 100.0 * frames);
+            return nanos[Math.max(0, rank - 1)] / 1e6;
+        }
+
+        double max() {
+            return percentile(100);
+        }
+    }
+
+    /**
+     * Collects repaint requests instead of scheduling them; the replay paints synchronously
+     */
+    private static final class FrameRequests extends RepaintManager {
+        private final JComponent panel;
+        private Rectangle dirty;
+
+        FrameRequests(JComponent panel) {
+            this.panel = panel;
+            setDoubleBufferingEnabled(false);
+        }
+
+        @Override
+        public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+            if (w <= 0 || h <= 0) {
+                return;
+            }
+            Rectangle area = SwingUtilities.convertRectangle(c, new Rectangle(x, y, w, h), panel);
+            if (dirty == null) {
+                dirty = area;
+            } else {
+                dirty.add(area);
+            }
+        }
+
+        Rectangle take() {
+            Rectangle result = dirty;
+            dirty = null;
+            return result;
+        }
+    }
+
+    /**
+     * Replays a trace over a diagram, or a synthetic grid of the given size when it is null,
+     * after warming up on it
+     */
+    static Map<String, Stats> replay(InteractionTrace trace, DiagramStore.Diagram diagram, int nodeCount)
+            throws Exception {
+        ProcessVisualizationTool.DrawingPanel[] holder = new ProcessVisualizationTool.DrawingPanel[1];
+        FrameRequests[] requests = new FrameRequests[1];
+        SwingUtilities.invokeAndWait(() -> {
+            holder[0] = new ProcessVisualizationTool.DrawingPanel();
+            holder[0].setBackground(Color.WHITE);
+            requests[0] = new FrameRequests(holder[0]);
+            RepaintManager.setCurrentManager(requests[0]);
+        });
+        ProcessVisualizationTool.DrawingPanel panel = holder[0];
+        Rectangle view = trace.view;
+        BufferedImage frame = new BufferedImage(Math.max(1, view.width), Math.max(1, view.height),
+            BufferedImage.TYPE_INT_RGB);
+
+        Map<String, Stats> result = null;
+        for (int pass = 0; pass <= WARMUP_PASSES; pass++) {
+            // Every pass starts from the same diagram, drags in the previous one moved nodes
+            SwingUtilities.invokeAndWait(() -> {
+                if (diagram != null) {
+                    panel.loadDiagram(diagram);
+                } else {
+                    panel.generateGrid(nodeCount);
+                }
+                Dimension preferred = panel.getPreferredSize();
+                panel.setSize(Math.max(preferred.width, view.x + view.width),
+                    Math.max(preferred.height, view.y + view.height));
+                requests[0].take();
+            });
+            result = new LinkedHashMap<>();
+            for (InteractionTrace.Event event : trace.events) {
+                Stats stats = result.computeIfAbsent(category(event.id), Stats::new);
+                stats.events++;
+                long started = System.nanoTime();
+                SwingUtilities.invokeAndWait(() -> dispatch(panel, event));
+                // Drains whatever the handlers queued behind the event, such as a batched move
+                SwingUtilities.invokeAndWait(() -> { });
+                boolean[] painted = new boolean[1];
+                SwingUtilities.invokeAndWait(() -> painted[0] = paint(panel, requests[0].take(), view, frame));
+                if (painted[0]) {
+                    stats.add(System.nanoTime() - started);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void dispatch(JComponent panel, InteractionTrace.Event event) {
+        MouseEvent mouseEvent = event.toMouseEvent(panel, System.currentTimeMillis());
+        if (mouseEvent.getClickCount() > 1) {
+            // A double-click renames through a dialog, which cannot be shown headlessly
+            mouseEvent = new MouseEvent(panel, event.id, mouseEvent.getWhen(), event.modifiers,
+                event.x, event.y, 1, false, event.button);
+        }
+        panel.dispatchEvent(mouseEvent);
+    }
+
+    private static boolean paint(JComponent panel, Rectangle dirty, Rectangle view, BufferedImage frame) {
+        if (dirty == null || !dirty.intersects(view)) {
+            return false;
+        }
+        Graphics2D g2d = frame.createGraphics();
+        g2d.translate(-view.x, -view.y);
+        g2d.clip(dirty.intersection(view));
+        panel.paint(g2d);
+        g2d.dispose();
+        return true;
+    }
+
+    private static String category(int id) {
+        switch (id) {
+            case MouseEvent.MOUSE_MOVED:
+                return "hover";
+            case MouseEvent.MOUSE_DRAGGED:
+                return "drag";
+            case MouseEvent.MOUSE_WHEEL:
+                return "wheel";
+            default:
+                return "click";
+        }
+    }
+
+    static Properties toProperties(Map<String, Stats> results, int nodeCount) {
+        Properties properties = new Properties();
+        properties.setProperty("nodes", Integer.toString(nodeCount));
+        for (Stats stats : results.values()) {
+            properties.setProperty(stats.category + ".frames", Integer.toString(stats.getFrames()));
+            for (int percent : PERCENTILES) {
+                properties.setProperty(stats.category + ".p" + percent,
+                    String.format(Locale.ROOT, "%.3f", stats.percentile(percent)));
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Prints each percentile next to the baseline, returns false if any of them regressed
+     */
+    static boolean compare(Map<String, Stats> results, Properties baseline, double tolerance) {
+        boolean passed = true;
+        for (Stats stats : results.values()) {
+            for (int percent : PERCENTILES) {
+                String key = stats.category + ".p" + percent;
+                String stored = baseline.getProperty(key);
+                if (stored == null) {
+                    continue;
+                }
+                double before = Double.parseDouble(stored);
+                double now = stats.percentile(percent);
+                boolean regressed = now > before * (1 + tolerance) && now - before >= NOISE_FLOOR_MILLIS;
+                passed &= !regressed;
+                System.out.printf(Locale.ROOT, "%-12s %9.3f ms  baseline %9.3f ms  %+6.1f%%%s%n", key, now, before,
+                    before > 0 ? (now - before) * 100 / before : 0, regressed ? "  REGRESSED" : "");
+            }
+        }
+        return passed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: java TraceReplay <trace> [nodeCount] [--baseline <file>] [--save-baseline <file>]");
+            System.exit(1);
+        }
+        System.setProperty("java.awt.headless", "true");
+        InteractionTrace trace = InteractionTrace.read(Paths.get(args[0]));
+        int nodeCount = trace.nodeCount;
+        Path baseline = null;
+        Path saveBaseline = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--baseline") && i + 1 < args.length) {
+                baseline = Paths.get(args[++i]);
+            } else if (args[i].equals("--save-baseline") && i + 1 < args.length) {
+                saveBaseline = Paths.get(args[++i]);
+            } else {
+                nodeCount = Integer.parseInt(args[i]);
+            }
+        }
+        DiagramStore.Diagram diagram = null;
+        if (trace.diagram != null) {
+            if (nodeCount != trace.nodeCount) {
+                System.err.println("A node count only applies to synthesized traces, " + args[0] + " was recorded");
+                System.exit(1);
+            }
+            diagram = DiagramStore.readFile(trace.diagram);
+            nodeCount = diagram.nodeCount;
+        }
+
+        Map<String, Stats> results = replay(trace, diagram, nodeCount);
+        System.out.printf("%d events over %d nodes%n", trace.events.size(), nodeCount);
+        System.out.printf("%-8s %8s %8s %9s %9s %9s %9s%n", "", "events", "frames", "p50 ms", "p90 ms", "p99 ms", "max ms");
+        for (Stats stats : results.values()) {
+            System.out.printf(Locale.ROOT, "%-8s %8d %8d %9.3f %9.3f %9.3f %9.3f%n", stats.category, stats.events,
+                stats.getFrames(), stats.percentile(50), stats.percentile(90), stats.percentile(99), stats.max());
+        }
+
+        if (saveBaseline != null) {
+            try (OutputStream out = Files.newOutputStream(saveBaseline)) {
+                toProperties(results, nodeCount).store(out, "TraceReplay baseline for " + args[0]);
+            }
+        }
+        if (baseline != null) {
+            Properties stored = new Properties();
+            try (InputStream in = Files.newInputStream(baseline)) {
+                stored.load(in);
+            }
+            if (!Integer.toString(nodeCount).equals(stored.getProperty("nodes"))) {
+                System.err.println("Warning: baseline was taken on " + stored.getProperty("nodes") + " nodes");
+            }
+            double tolerance = Double.parseDouble(System.getProperty("pvt.replayTolerance", "0.25"));
+            if (!compare(results, stored, tolerance)) {
+                System.exit(2);
+            }
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,72 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API versions of the {@link EndpointSolver} kernels.
+ * Needs --add-modules jdk.incubator.vector at compile and run time; when it is missing
+ * the solver falls back to {@link EndpointSolver.ScalarKernels}.
+ */
+final class VectorEndpointKernels implements EndpointSolver.Kernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final double EPSILON = 1e-9;
+
+    @Override
+    public void skewedBox(int n, double[] cx, double[] cy, double[] hh, double[] k, double[] c,
+                          double[] tx, double[] ty, double[] outX, double[] outY) {
+        int bound = SPECIES.loopBound(n);
+        DoubleVector epsilon = DoubleVector.broadcast(SPECIES, EPSILON);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            DoubleVector vcx = DoubleVector.fromArray(SPECIES, cx, i);
+            DoubleVector vcy = DoubleVector.fromArray(SPECIES, cy, i);
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, tx, i).sub(vcx);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ty, i).sub(vcy);
+            DoubleVector vertical = DoubleVector.fromArray(SPECIES, hh, i).div(dy.abs().max(epsilon));
+            DoubleVector slanted = DoubleVector.fromArray(SPECIES, c, i)
+                .div(dy.fma(DoubleVector.fromArray(SPECIES, k, i), dx).abs().max(epsilon));
+            DoubleVector t = vertical.min(slanted);
+            dx.fma(t, vcx).intoArray(outX, i);
+            dy.fma(t, vcy).intoArray(outY, i);
+        }
+        EndpointSolver.ScalarKernels.skewedBox(bound, n, cx, cy, hh, k, c, tx, ty, outX, outY);
+    }
+
+    @Override
+    public void diamond(int n, double[] cx, double[] cy, double[] hw, double[] hh,
+                        double[] tx, double[] ty, double[] outX, double[] outY) {
+        int bound = SPECIES.loopBound(n);
+        DoubleVector epsilon = DoubleVector.broadcast(SPECIES, EPSILON);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            DoubleVector vcx = DoubleVector.fromArray(SPECIES, cx, i);
+            DoubleVector vcy = DoubleVector.fromArray(SPECIES, cy, i);
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, tx, i).sub(vcx);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ty, i).sub(vcy);
+            DoubleVector norm = dx.abs().div(DoubleVector.fromArray(SPECIES, hw, i))
+                .add(dy.abs().div(DoubleVector.fromArray(SPECIES, hh, i)));
+            DoubleVector t = one.div(norm.max(epsilon));
+            dx.fma(t, vcx).intoArray(outX, i);
+            dy.fma(t, vcy).intoArray(outY, i);
+        }
+        EndpointSolver.ScalarKernels.diamond(bound, n, cx, cy, hw, hh, tx, ty, outX, outY);
+    }
+
+    @Override
+    public void ellipse(int n, double[] cx, double[] cy, double[] hw, double[] hh,
+                        double[] tx, double[] ty, double[] outX, double[] outY) {
+        int bound = SPECIES.loopBound(n);
+        DoubleVector epsilon = DoubleVector.broadcast(SPECIES, EPSILON);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+        for (int i = 0; i < bound; i += SPECIES.length()) {
+            DoubleVector vcx = DoubleVector.fromArray(SPECIES, cx, i);
+            DoubleVector vcy = DoubleVector.fromArray(SPECIES, cy, i);
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, tx, i).sub(vcx);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ty, i).sub(vcy);
+            DoubleVector nx = dx.div(DoubleVector.fromArray(SPECIES, hw, i));
+            DoubleVector ny = dy.div(DoubleVector.fromArray(SPECIES, hh, i));
+            DoubleVector t = one.div(nx.fma(nx, ny.mul(ny)).max(epsilon).sqrt());
+            dx.fma(t, vcx).intoArray(outX, i);
+            dy.fma(t, vcy).intoArray(outY, i);
+        }
+        EndpointSolver.ScalarKernels.ellipse(bound, n, cx, cy, hw, hh, tx, ty, outX, outY);
+    }
+}
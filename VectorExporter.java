@@ -0,0 +1,430 @@
+import java.awt.*;
+import java.awt.geom.PathIterator;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes vector drawing primitives straight to an output stream as SVG or PDF.
+ *
+ * Shapes are written as they arrive by walking their path iterators, so memory stays
+ * bounded by one element whatever the size of the diagram. The y axis points down as on
+ * screen, and callers pass the same outlines, endpoints and text origins they paint with.
+ * Call {@link #finish} once after the last element; the stream itself is left open.
+ */
+abstract class VectorExporter {
+    protected final Rectangle bounds;
+    protected final Font font;
+    // Reused for every element, flushed to the stream when the element is complete
+    protected final StringBuilder buffer = new StringBuilder(256);
+    private final double[] coords = new double[6];
+
+    protected VectorExporter(Rectangle bounds, Font font) {
+        this.bounds = bounds;
+        this.font = font;
+    }
+
+    static VectorExporter svg(OutputStream out, Rectangle bounds, Font font) throws IOException {
+        return new Svg(out, bounds, font);
+    }
+
+    static VectorExporter pdf(OutputStream out, Rectangle bounds, Font font) throws IOException {
+        return new Pdf(out, bounds, font);
+    }
+
+    /**
+     * Fills and/or outlines a shape; a null fill or stroke colour skips that part
+     */
+    abstract void shape(Shape shape, Color fill, Color stroke, float lineWidth, float[] dash) throws IOException;
+
+    abstract void line(int x1, int y1, int x2, int y2, Color color, float lineWidth) throws IOException;
+
+    /**
+     * Text with its baseline origin at x, y in the exporter's font
+     */
+    abstract void text(String text, int x, int y, Color color) throws IOException;
+
+    abstract void finish() throws IOException;
+
+    /**
+     * Appends the path of a shape using the given operator letters for move, line, cubic and close,
+     * each segment followed by a space; returns false if the shape has no segments
+     */
+    protected boolean appendPath(Shape shape, char move, char line, char cubic, char close, boolean operatorsFirst) {
+        double lastX = 0;
+        double lastY = 0;
+        boolean appended = false;
+        for (PathIterator it = shape.getPathIterator(null); !it.isDone(); it.next()) {
+            int segment = it.currentSegment(coords);
+            switch (segment) {
+                case PathIterator.SEG_MOVETO:
+                case PathIterator.SEG_LINETO:
+                    point(segment == PathIterator.SEG_MOVETO ? move : line, operatorsFirst, coords[0], coords[1]);
+                    lastX = coords[0];
+                    lastY = coords[1];
+                    break;
+                case PathIterator.SEG_QUADTO:
+                    // Both formats take cubics, so quadratics are raised to cubic form
+                    point(cubic, operatorsFirst,
+                        lastX + 2 * (coords[0] - lastX) / 3, lastY + 2 * (coords[1] - lastY) / 3,
+                        coords[2] + 2 * (coords[0] - coords[2]) / 3, coords[3] + 2 * (coords[1] - coords[3]) / 3,
+                        coords[2], coords[3]);
+                    lastX = coords[2];
+                    lastY = coords[3];
+                    break;
+                case PathIterator.SEG_CUBICTO:
+                    point(cubic, operatorsFirst, coords[0], coords[1], coords[2], coords[3], coords[4], coords[5]);
+                    lastX = coords[4];
+                    lastY = coords[5];
+                    break;
+                default:
+                    buffer.append(close).append(' ');
+                    break;
+            }
+            appended = true;
+        }
+        return appended;
+    }
+
+    private void point(char operator, boolean operatorFirst, double... values) {
+        if (operatorFirst) {
+            buffer.append(operator);
+        }
+        for (double value : values) {
+            number(value).append(' ');
+        }
+        if (!operatorFirst) {
+            buffer.append(operator).append(' ');
+        }
+    }
+
+    /**
+     * Appends a coordinate with at most two decimals, without going through String.format
+     */
+    protected StringBuilder number(double value) {
+        long hundredths = Math.round(value * 100);
+        if (hundredths < 0) {
+            buffer.append('-');
+            hundredths = -hundredths;
+        }
+        buffer.append(hundredths / 100);
+        long fraction = hundredths % 100;
+        if (fraction != 0) {
+            buffer.append('.').append(fraction / 10);
+            if (fraction % 10 != 0) {
+                buffer.append(fraction % 10);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Scalable Vector Graphics, one element per primitive
+     */
+    static final class Svg extends VectorExporter {
+        private final Writer writer;
+
+        Svg(OutputStream out, Rectangle bounds, Font font) throws IOException {
+            super(bounds, font);
+            writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + bounds.width + "\" height=\""
+                + bounds.height + "\" viewBox=\"" + bounds.x + " " + bounds.y + " " + bounds.width + " "
+                + bounds.height + "\">\n");
+            writer.write("<rect x=\"" + bounds.x + "\" y=\"" + bounds.y + "\" width=\"" + bounds.width
+                + "\" height=\"" + bounds.height + "\" fill=\"#ffffff\"/>\n");
+            writer.write("<g font-family=\"" + escape(font.getFamily()) + ", sans-serif\" font-size=\""
+                + font.getSize() + "\" stroke-linecap=\"round\" stroke-linejoin=\"round\">\n");
+        }
+
+        @Override
+        void shape(Shape shape, Color fill, Color stroke, float lineWidth, float[] dash) throws IOException {
+            buffer.setLength(0);
+            buffer.append("<path d=\"");
+            if (appendPath(shape, 'M', 'L', 'C', 'Z', true)) {
+                // Drops the space after the last segment
+                buffer.setLength(buffer.length() - 1);
+            }
+            buffer.append("\" fill=\"").append(fill != null ? hex(fill) : "none").append('"');
+            if (stroke != null) {
+                buffer.append(" stroke=\"").append(hex(stroke)).append("\" stroke-width=\"");
+                number(lineWidth).append('"');
+                appendDash(dash);
+            }
+            buffer.append("/>\n");
+            writer.append(buffer);
+        }
+
+        @Override
+        void line(int x1, int y1, int x2, int y2, Color color, float lineWidth) throws IOException {
+            buffer.setLength(0);
+            buffer.append("<line x1=\"").append(x1).append("\" y1=\"").append(y1)
+                .append("\" x2=\"").append(x2).append("\" y2=\"").append(y2)
+                .append("\" stroke=\"").append(hex(color)).append("\" stroke-width=\"");
+            number(lineWidth).append("\"/>\n");
+            writer.append(buffer);
+        }
+
+        @Override
+        void text(String text, int x, int y, Color color) throws IOException {
+            buffer.setLength(0);
+            buffer.append("<text x=\"").append(x).append("\" y=\"").append(y).append("\" fill=\"")
+                .append(hex(color)).append("\">").append(escape(text)).append("</text>\n");
+            writer.append(buffer);
+        }
+
+        @Override
+        void finish() throws IOException {
+            writer.write("</g>\n</svg>\n");
+            writer.flush();
+        }
+
+        private void appendDash(float[] dash) {
+            if (dash == null) {
+                return;
+            }
+            buffer.append(" stroke-dasharray=\"");
+            for (int i = 0; i < dash.length; i++) {
+                if (i > 0) {
+                    buffer.append(' ');
+                }
+                number(dash[i]);
+            }
+            buffer.append('"');
+        }
+
+        private static String hex(Color color) {
+            return "#" + Integer.toHexString(0x1000000 | color.getRGB() & 0xFFFFFF).substring(1);
+        }
+
+        private static String escape(String text) {
+            StringBuilder result = null;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                String replacement = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;"
+                    : c == '"' ? "&quot;" : c < 0x20 ? " " : null;
+                if (replacement != null && result == null) {
+                    result = new StringBuilder(text.length() + 16).append(text, 0, i);
+                }
+                if (result != null) {
+                    if (replacement != null) {
+                        result.append(replacement);
+                    } else {
+                        result.append(c);
+                    }
+                }
+            }
+            return result != null ? result.toString() : text;
+        }
+    }
+
+    /**
+     * Single-page PDF 1.4. The page content is deflated as it is written and its length is
+     * an indirect object written afterwards, so nothing is buffered; byte offsets for the
+     * cross-reference table are counted on the way out.
+     */
+    static final class Pdf extends VectorExporter {
+        // Largest page side most viewers accept, in points
+        private static final double MAX_PAGE_SIDE = 14400;
+
+        private final CountingStream out;
+        private final long[] offsets = new long[7];
+        private final DeflaterOutputStream content;
+        private final long contentStart;
+        private byte[] bytes = new byte[256];
+        private Color fillColor;
+        private Color strokeColor;
+        private float currentWidth = -1;
+        private boolean dashed;
+
+        Pdf(OutputStream stream, Rectangle bounds, Font font) throws IOException {
+            super(bounds, font);
+            out = new CountingStream(new BufferedOutputStream(stream, 1 << 16));
+            double scale = Math.min(1, MAX_PAGE_SIDE / Math.max(1, Math.max(bounds.width, bounds.height)));
+            ascii("%PDF-1.4\n%\u00e2\u00e3\u00cf\u00d3\n");
+            object(1, "<< /Type /Catalog /Pages 2 0 R >>");
+            object(2, "<< /Type /Pages /Kids [3 0 R] /Count 1 >>");
+            buffer.setLength(0);
+            buffer.append("<< /Type /Page /Parent 2 0 R /MediaBox [0 0 ");
+            number(bounds.width * scale).append(' ');
+            number(bounds.height * scale).append("] /Contents 4 0 R /Resources << /Font << /F1 5 0 R >> >> >>");
+            object(3, buffer.toString());
+            object(5, "<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica /Encoding /WinAnsiEncoding >>");
+
+            offsets[4] = out.count;
+            ascii("4 0 obj\n<< /Length 6 0 R /Filter /FlateDecode >>\nstream\n");
+            contentStart = out.count;
+            content = new DeflaterOutputStream(new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() {
+                    // The page stream ends but the file goes on
+                }
+            }, new Deflater(Deflater.BEST_SPEED), 1 << 16);
+
+            // Flip to a y-down system with the diagram's top-left corner at the page's top-left
+            buffer.setLength(0);
+            number(scale).append(" 0 0 ");
+            number(-scale).append(' ');
+            number(-bounds.x * scale).append(' ');
+            number((bounds.height + bounds.y) * scale).append(" cm 1 J 1 j\n");
+            emit();
+        }
+
+        @Override
+        void shape(Shape shape, Color fill, Color stroke, float lineWidth, float[] dash) throws IOException {
+            if (shape.getPathIterator(null).isDone()) {
+                // Painting needs a current path, and nothing would be drawn anyway
+                return;
+            }
+            buffer.setLength(0);
+            if (fill != null) {
+                setFill(fill);
+            }
+            if (stroke != null) {
+                setStroke(stroke, lineWidth, dash);
+            }
+            appendPath(shape, 'm', 'l', 'c', 'h', false);
+            buffer.append(fill != null && stroke != null ? "B\n" : fill != null ? "f\n" : "S\n");
+            emit();
+        }
+
+        @Override
+        void line(int x1, int y1, int x2, int y2, Color color, float lineWidth) throws IOException {
+            buffer.setLength(0);
+            setStroke(color, lineWidth, null);
+            buffer.append(x1).append(' ').append(y1).append(" m ").append(x2).append(' ').append(y2).append(" l S\n");
+            emit();
+        }
+
+        @Override
+        void text(String text, int x, int y, Color color) throws IOException {
+            buffer.setLength(0);
+            setFill(color);
+            // The text matrix flips glyphs back upright inside the y-down page
+            buffer.append("BT /F1 ").append(font.getSize()).append(" Tf 1 0 0 -1 ")
+                .append(x).append(' ').append(y).append(" Tm (");
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '(' || c == ')' || c == '\\') {
+                    buffer.append('\\').append(c);
+                } else if (c < 0x20 || (c >= 0x7F && c < 0xA0) || c > 0xFF) {
+                    // Outside WinAnsi's Latin-1 range of the standard font
+                    buffer.append('?');
+                } else {
+                    buffer.append(c);
+                }
+            }
+            buffer.append(") Tj ET\n");
+            emit();
+        }
+
+        @Override
+        void finish() throws IOException {
+            content.finish();
+            long length = out.count - contentStart;
+            ascii("\nendstream\nendobj\n");
+            object(6, Long.toString(length));
+
+            long xref = out.count;
+            buffer.setLength(0);
+            buffer.append("xref\n0 7\n0000000000 65535 f \n");
+            for (int i = 1; i < offsets.length; i++) {
+                String offset = Long.toString(offsets[i]);
+                for (int pad = offset.length(); pad < 10; pad++) {
+                    buffer.append('0');
+                }
+                buffer.append(offset).append(" 00000 n \n");
+            }
+            buffer.append("trailer\n<< /Size 7 /Root 1 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+            ascii(buffer.toString());
+            out.flush();
+        }
+
+        private void setFill(Color color) {
+            if (!color.equals(fillColor)) {
+                appendColor(color).append("rg ");
+                fillColor = color;
+            }
+        }
+
+        private void setStroke(Color color, float lineWidth, float[] dash) {
+            if (!color.equals(strokeColor)) {
+                appendColor(color).append("RG ");
+                strokeColor = color;
+            }
+            if (lineWidth != currentWidth) {
+                number(lineWidth).append(" w ");
+                currentWidth = lineWidth;
+            }
+            if (dash != null) {
+                buffer.append('[');
+                for (float length : dash) {
+                    number(length).append(' ');
+                }
+                buffer.append("] 0 d ");
+                dashed = true;
+            } else if (dashed) {
+                buffer.append("[] 0 d ");
+                dashed = false;
+            }
+        }
+
+        private StringBuilder appendColor(Color color) {
+            number(color.getRed() / 255.0).append(' ');
+            number(color.getGreen() / 255.0).append(' ');
+            return number(color.getBlue() / 255.0).append(' ');
+        }
+
+        private void emit() throws IOException {
+            int length = buffer.length();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            // Page content is single-byte WinAnsi, so each char is its own byte
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) buffer.charAt(i);
+            }
+            content.write(bytes, 0, length);
+        }
+
+        private void object(int number, String body) throws IOException {
+            offsets[number] = out.count;
+            ascii(number + " 0 obj\n" + body + "\nendobj\n");
+        }
+
+        private void ascii(String text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                out.write(text.charAt(i));
+            }
+        }
+    }
+
+    /**
+     * Byte counter for the cross-reference offsets
+     */
+    private static final class CountingStream extends FilterOutputStream {
+        long count;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
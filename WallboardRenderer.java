@@ -0,0 +1,343 @@
+import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferStrategy;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import javax.swing.JFrame;
+import javax.swing.Timer;
+
+/**
+ * Active rendering of the diagram for wallboard displays: a window of its own whose canvas
+ * is drawn by a dedicated render thread at a fixed frame rate, page flipped through a
+ * {@link BufferStrategy}, instead of through repaint requests handled on the EDT.
+ *
+ * The render thread never touches the diagram. A timer on the EDT checks once per frame
+ * whether the canvas changed and, if so, publishes an immutable {@link Scene} copied from it;
+ * the render thread always draws the latest published scene, scaled to fit the window.
+ * Interaction, selection and analysis overlays stay on the main canvas.
+ *
+ * The frame rate is {@code -Dpvt.wallboardFps} (30).
+ */
+final class WallboardRenderer {
+    private static final int DEFAULT_FPS = 30;
+    private static final int MARGIN = 20;
+    private static final double MAX_SCALE = 4;
+
+    private final LongSupplier sceneVersion;
+    private final Supplier<Scene> snapshot;
+    private final Runnable onClose;
+    private final long framePeriodNanos;
+    private final JFrame window;
+    private final Canvas canvas;
+    private final Timer publisher;
+    private Thread renderThread;
+    private long publishedVersion = -1;
+
+    // Written on the EDT, read by the render thread
+    private volatile Scene scene;
+    private volatile boolean running;
+
+    /**
+     * Immutable copy of what the canvas draws, built on the EDT
+     */
+    static final class Scene {
+        final Rectangle bounds;
+        final Font font;
+        final Color frameFill;
+        final float[] frameDash;
+        final Group[] groups;
+        final Edge[] edges;
+        final Node[] nodes;
+
+        Scene(Rectangle bounds, Font font, Color frameFill, float[] frameDash, Group[] groups, Edge[] edges,
+              Node[] nodes) {
+            this.bounds = new Rectangle(bounds);
+            this.font = font;
+            this.frameFill = frameFill;
+            this.frameDash = frameDash.clone();
+            this.groups = groups;
+            this.edges = edges;
+            this.nodes = nodes;
+        }
+    }
+
+    /**
+     * Frame of an expanded subprocess
+     */
+    static final class Group {
+        final Shape outline;
+        final Color stroke;
+        final String label;
+        final int labelX;
+        final int labelY;
+
+        Group(Shape outline, Color stroke, String label, int labelX, int labelY) {
+            this.outline = outline;
+            this.stroke = stroke;
+            this.label = label;
+            this.labelX = labelX;
+            this.labelY = labelY;
+        }
+    }
+
+    /**
+     * Connection line with its width and, when aggregated, its edge count
+     */
+    static final class Edge {
+        final int x1;
+        final int y1;
+        final int x2;
+        final int y2;
+        final float width;
+        final String count;
+
+        Edge(int x1, int y1, int x2, int y2, float width, String count) {
+            this.x1 = x1;
+            this.y1 = y1;
+            this.x2 = x2;
+            this.y2 = y2;
+            this.width = width;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Node with its fill colour and text already placed in the scene font
+     */
+    static final class Node {
+        final NodeType type;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+        final Color fill;
+        final String label;
+        final int labelX;
+        final int labelY;
+        final String caption;
+        final int captionX;
+        final int captionY;
+
+        Node(NodeType type, int x, int y, int width, int height, Color fill, String label, int labelX, int labelY,
+             String caption, int captionX, int captionY) {
+            this.type = type;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.fill = fill;
+            this.label = label;
+            this.labelX = labelX;
+            this.labelY = labelY;
+            this.caption = caption;
+            this.captionX = captionX;
+            this.captionY = captionY;
+        }
+    }
+
+    /**
+     * The snapshot supplier is called on the EDT whenever the version has changed since the
+     * last snapshot; onClose runs on the EDT once the window has been closed by the user
+     */
+    WallboardRenderer(LongSupplier sceneVersion, Supplier<Scene> snapshot, Runnable onClose) {
+        this.sceneVersion = sceneVersion;
+        this.snapshot = snapshot;
+        this.onClose = onClose;
+        int fps = Math.max(1, Integer.getInteger("pvt.wallboardFps", DEFAULT_FPS));
+        framePeriodNanos = 1_000_000_000L / fps;
+
+        canvas = new Canvas();
+        canvas.setBackground(Color.WHITE);
+        // Nothing is drawn in response to system repaints, the render thread redraws every frame anyway
+        canvas.setIgnoreRepaint(true);
+        window = new JFrame("Process Visualization Tool - Wallboard");
+        window.setIgnoreRepaint(true);
+        window.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        window.add(canvas, BorderLayout.CENTER);
+        window.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                close();
+            }
+        });
+        canvas.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    close();
+                }
+            }
+        });
+        publisher = new Timer((int) Math.max(1, framePeriodNanos / 1_000_000), e -> publish());
+    }
+
+    /**
+     * Opens the window maximized on the last screen, usually the wallboard, and starts drawing
+     */
+    void start() {
+        GraphicsDevice[] screens = GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices();
+        Rectangle screen = screens[screens.length - 1].getDefaultConfiguration().getBounds();
+        window.setBounds(screen.x, screen.y, Math.min(screen.width, 1280), Math.min(screen.height, 800));
+        window.setExtendedState(Frame.MAXIMIZED_BOTH);
+        window.setVisible(true);
+        // The canvas needs a peer before it can have a buffer strategy
+        canvas.createBufferStrategy(2);
+        canvas.requestFocus();
+
+        publish();
+        publisher.start();
+        running = true;
+        renderThread = new Thread(this::renderLoop, "pvt-wallboard");
+        renderThread.setDaemon(true);
+        renderThread.start();
+    }
+
+    /**
+     * Stops the render thread and closes the window, on the EDT
+     */
+    void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        publisher.stop();
+        renderThread.interrupt();
+        try {
+            // Disposing the window under a frame in flight would fail it
+            renderThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        window.dispose();
+    }
+
+    private void close() {
+        stop();
+        onClose.run();
+    }
+
+    /**
+     * Copies the diagram into a new scene if it changed since the last one
+     */
+    private void publish() {
+        long version = sceneVersion.getAsLong();
+        if (version != publishedVersion) {
+            publishedVersion = version;
+            scene = snapshot.get();
+        }
+    }
+
+    private void renderLoop() {
+        BufferStrategy strategy = canvas.getBufferStrategy();
+        long nextFrame = System.nanoTime();
+        long secondStart = nextFrame;
+        int frames = 0;
+        int fps = 0;
+        while (running) {
+            try {
+                // Redraws until the frame survives, as the buffers can be lost at any time
+                do {
+                    do {
+                        Graphics2D g2d = (Graphics2D) strategy.getDrawGraphics();
+                        try {
+                            render(g2d, scene, canvas.getWidth(), canvas.getHeight());
+                            drawFrameRate(g2d, fps, canvas.getHeight());
+                        } finally {
+                            g2d.dispose();
+                        }
+                    } while (strategy.contentsRestored());
+                    strategy.show();
+                } while (strategy.contentsLost());
+                Toolkit.getDefaultToolkit().sync();
+            } catch (IllegalStateException e) {
+                // The window lost its peer while closing
+                break;
+            }
+
+            frames++;
+            long now = System.nanoTime();
+            if (now - secondStart >= 1_000_000_000L) {
+                fps = frames;
+                frames = 0;
+                secondStart = now;
+            }
+            // Fixed rate: wait for the next frame time, a late frame starts the schedule over
+            nextFrame += framePeriodNanos;
+            long wait = nextFrame - System.nanoTime();
+            if (wait <= 0) {
+                nextFrame = System.nanoTime();
+                continue;
+            }
+            try {
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Draws a scene scaled to fit an area of the given size; used by the render thread, and
+     * safe on any thread since a scene is never modified
+     */
+    static void render(Graphics2D g2d, Scene scene, int width, int height) {
+        g2d.setColor(Color.WHITE);
+        g2d.fillRect(0, 0, width, height);
+        if (scene == null || scene.bounds.isEmpty()) {
+            return;
+        }
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setFont(scene.font);
+        AffineTransform screen = g2d.getTransform();
+        Rectangle bounds = scene.bounds;
+        double scale = Math.min(MAX_SCALE, Math.min((width - 2.0 * MARGIN) / bounds.width,
+            (height - 2.0 * MARGIN) / bounds.height));
+        if (scale <= 0) {
+            return;
+        }
+        g2d.translate((width - bounds.width * scale) / 2, (height - bounds.height * scale) / 2);
+        g2d.scale(scale, scale);
+        g2d.translate(-bounds.x, -bounds.y);
+
+        // Same order as the canvas: frames, connections, then nodes
+        Stroke frameStroke = new BasicStroke(1.5f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10f,
+            scene.frameDash, 0f);
+        for (Group group : scene.groups) {
+            g2d.setColor(scene.frameFill);
+            g2d.fill(group.outline);
+            g2d.setColor(group.stroke);
+            g2d.setStroke(frameStroke);
+            g2d.draw(group.outline);
+            g2d.setColor(Color.BLACK);
+            g2d.drawString(group.label, group.labelX, group.labelY);
+        }
+        g2d.setColor(Color.BLACK);
+        for (Edge edge : scene.edges) {
+            g2d.setStroke(new BasicStroke(edge.width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g2d.drawLine(edge.x1, edge.y1, edge.x2, edge.y2);
+            g2d.fill(ProcessVisualizationTool.Connection.arrowHead(edge.x1, edge.y1, edge.x2, edge.y2));
+            if (edge.count != null) {
+                g2d.drawString(edge.count, (edge.x1 + edge.x2) / 2 + 4, (edge.y1 + edge.y2) / 2 - 4);
+            }
+        }
+        for (Node node : scene.nodes) {
+            node.type.paint(g2d, node.x, node.y, node.width, node.height, node.fill);
+            g2d.setColor(Color.BLACK);
+            g2d.drawString(node.label, node.labelX, node.labelY);
+            if (node.caption != null) {
+                g2d.setColor(Color.DARK_GRAY);
+                g2d.drawString(node.caption, node.captionX, node.captionY);
+            }
+        }
+        g2d.setTransform(screen);
+    }
+
+    private static void drawFrameRate(Graphics2D g2d, int fps, int height) {
+        g2d.setColor(Color.GRAY);
+        g2d.drawString(fps + " fps", 10, height - 10);
+    }
+}